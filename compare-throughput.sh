@@ -0,0 +1,10 @@
+#!/bin/bash
+# Compares the blocking and the async /hello-world endpoints of a running application with ApacheBench.
+# usage: ./compare-throughput.sh [requests] [concurrency]
+requests=${1:-2000}
+concurrency=${2:-400}
+for path in /hello-world /hello-world/async
+do
+  echo "== $path ($requests requests, concurrency $concurrency)"
+  ab -q -n $requests -c $concurrency -s 60 "http://localhost:9000$path" | grep -E "Requests per second|Time per request|Failed requests|^ +(50|90|99|100)%"
+done
@@ -0,0 +1,41 @@
+#!/bin/bash
+# Compares Tomcat's platform thread pool with a virtual thread per request on JDK 21: starts the packaged application
+# in both modes without the concurrency limit, drives it in open loop over many connections and samples the resident
+# memory and live threads of the process. Build the jar first with mvn package.
+# usage: JAVA21_HOME=/path/to/jdk-21 ./compare-virtual-threads.sh [connections] [requests per second] [duration seconds]
+connections=${1:-2000}
+rate=${2:-1500}
+duration=${3:-60}
+java="${JAVA21_HOME:-$JAVA_HOME}/bin/java"
+jar=$(ls target/gs-actuator-service-*.jar | head -1)
+for virtual in false true
+do
+  echo "== virtual-threads.enabled=$virtual ($connections connections, $rate requests/s, $duration s)"
+  "$java" --add-opens java.base/java.lang=ALL-UNNAMED -jar "$jar" \
+    --virtual-threads.enabled=$virtual --concurrency-limit.enabled=false --server.tomcat.max-connections=$((connections * 2)) \
+    > target/virtual-threads-$virtual.log 2>&1 &
+  pid=$!
+  until curl -s http://127.0.0.1:9001/health | grep -q UP
+  do
+    kill -0 $pid 2>/dev/null || { echo "application did not start, see target/virtual-threads-$virtual.log"; exit 1; }
+    sleep 1
+  done
+  (
+    max_rss=0; max_threads=0
+    while kill -0 $pid 2>/dev/null
+    do
+      rss=$(awk '/^VmRSS/ {print $2}' /proc/$pid/status); threads=$(awk '/^Threads/ {print $2}' /proc/$pid/status)
+      [ "${rss:-0}" -gt $max_rss ] && max_rss=$rss
+      [ "${threads:-0}" -gt $max_threads ] && max_threads=$threads
+      echo "peak resident memory $((max_rss / 1024)) MB, peak threads $max_threads" > target/virtual-threads-$virtual.peak
+      sleep 1
+    done
+  ) &
+  sampler=$!
+  mvn -q -Ploadtest test -DskipTests -Dloadtest.args="--rate $rate --connections $connections --warmup 10 --duration $duration --label virtual-threads-$virtual" \
+    | grep -E "requests|^(50|99|100)\.0 "
+  curl -s http://127.0.0.1:9001/metrics | grep -oE '"(heap\.used|threads\.peak)":[0-9]+' | tr '\n' ' '; echo
+  kill $pid; wait $pid 2>/dev/null
+  wait $sampler
+  cat target/virtual-threads-$virtual.peak
+done
@@ -0,0 +1,8 @@
+#!/bin/bash
+# Drives the running application in open loop and writes coordinated-omission corrected percentile spectra.
+# usage: ./load-test.sh [requests per second] [connections] [duration seconds] [label]
+rate=${1:-100}
+connections=${2:-50}
+duration=${3:-60}
+label=${4:-$(git rev-parse --short HEAD 2>/dev/null || date +%Y%m%d-%H%M%S)}
+mvn -q -Ploadtest test -DskipTests -Dloadtest.args="--rate $rate --connections $connections --duration $duration --label $label"
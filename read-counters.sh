@@ -0,0 +1,4 @@
+#!/bin/bash
+# prints the metrics the application mirrors with metrics.counters.enabled=true, e.g. ./read-counters.sh --watch 1 --prefix /hello-world
+java -Dloader.main=hello.MappedCounters -cp target/gs-actuator-service-0.1.0.jar \
+    org.springframework.boot.loader.PropertiesLauncher "$@" /tmp/metrics.counters
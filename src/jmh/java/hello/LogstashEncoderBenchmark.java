@@ -0,0 +1,127 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static net.logstash.logback.argument.StructuredArguments.raw;
+
+/**
+ * Encoding throughput of {@link LogstashEncoderWithStructuredArguments}, {@link GarbageFreeLogstashEncoder} and
+ * {@link LogstashSmileEncoder} for a metric event as logged by {@link LogstashReporter}, a {@code SNAPSHOT} of ten
+ * timers and a plain application log line. The size of every event in each format is printed at the start of a
+ * trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogstashEncoderBenchmark {
+
+	@Param({"JSON", "GARBAGE_FREE", "SMILE"})
+	private String format;
+
+	private final LoggerContext context = new LoggerContext();
+
+	private LogstashEncoderWithStructuredArguments encoder;
+
+	private LoggingEvent metricEvent;
+
+	private LoggingEvent plainEvent;
+
+	private LoggingEvent snapshotEvent;
+
+	@Setup
+	public void setUp() throws IOException {
+		switch (format) {
+			case "SMILE":
+				encoder = new LogstashSmileEncoder();
+				break;
+			case "GARBAGE_FREE":
+				encoder = new GarbageFreeLogstashEncoder();
+				break;
+			default:
+				encoder = new LogstashEncoderWithStructuredArguments();
+		}
+		encoder.setContext(context);
+		encoder.setImmediateFlush(false);
+		encoder.start();
+
+		metricEvent = new LoggingEvent(LogstashReporter.class.getName(), context.getLogger("metrics"), Level.INFO,
+				"TIMER: {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}", null, new Object[] {
+						keyValue("type", "TIMER"), keyValue("name", "/hello-world"), keyValue("count", 1234L),
+						keyValue("min", 0.5), keyValue("max", 499.8), keyValue("mean", 251.2), keyValue("stddev", 144.1),
+						keyValue("median", 250.3), keyValue("p75", 375.9), keyValue("p95", 475.0), keyValue("p98", 490.1),
+						keyValue("p99", 495.2), keyValue("p999", 499.1), keyValue("mean_rate", 12.3),
+						keyValue("m1", 11.9), keyValue("m5", 12.1), keyValue("m15", 12.2),
+						keyValue("rate_unit", "events/second"), keyValue("duration_unit", "milliseconds")});
+		metricEvent.getFormattedMessage();
+
+		plainEvent = new LoggingEvent(LogstashEncoderBenchmark.class.getName(), context.getLogger("hello.HelloWorldController"),
+				Level.INFO, "Started HelloWorldController in 7.596 seconds", null, null);
+		plainEvent.getFormattedMessage();
+
+		final StringBuilder metrics = new StringBuilder("[");
+		for (int i = 0; i < 10; i++) {
+			metrics.append(i > 0 ? "," : "").append("{\"type\":\"TIMER\",\"name\":\"/route-").append(i).append("\",\"count\":1234,"
+					+ "\"min\":0.5,\"max\":499.8,\"mean\":251.2,\"stddev\":144.1,\"median\":250.3,\"p75\":375.9,\"p95\":475.0,"
+					+ "\"p98\":490.1,\"p99\":495.2,\"p999\":499.1,\"mean_rate\":12.3,\"m1\":11.9,\"m5\":12.1,\"m15\":12.2,"
+					+ "\"rate_unit\":\"events/second\",\"duration_unit\":\"milliseconds\"}");
+		}
+		metrics.append(']');
+		snapshotEvent = new LoggingEvent(LogstashReporter.class.getName(), context.getLogger("metrics"), Level.INFO,
+				"SNAPSHOT: {}, {}, {}", null, new Object[] {keyValue("type", "SNAPSHOT"), keyValue("size", 10), raw("metrics", metrics.toString())});
+		snapshotEvent.getFormattedMessage();
+
+		System.out.printf("%n%s bytes per event: metric %d, snapshot %d, plain %d%n", format,
+				encodedSize(metricEvent), encodedSize(snapshotEvent), encodedSize(plainEvent));
+		encoder.init(new LogstashReporterBenchmark.DiscardingOutputStream());
+	}
+
+	private int encodedSize(LoggingEvent event) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.init(out);
+		encoder.doEncode(event);
+		return out.size();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		encoder.close();
+	}
+
+	@Benchmark
+	public void metricEvent() throws IOException {
+		encoder.doEncode(metricEvent);
+	}
+
+	@Benchmark
+	public void snapshotEvent() throws IOException {
+		encoder.doEncode(snapshotEvent);
+	}
+
+	@Benchmark
+	public void plainEvent() throws IOException {
+		encoder.doEncode(plainEvent);
+	}
+
+}
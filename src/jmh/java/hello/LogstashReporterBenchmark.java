@@ -0,0 +1,119 @@
+package hello;
+
+import java.io.OutputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one {@link LogstashReporter#report()} over registries of different sizes, including encoding
+ * the events with {@link LogstashEncoderWithStructuredArguments}. The events are written synchronously
+ * to a discarding stream, so the numbers don't depend on a disk or on the ring buffer draining.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogstashReporterBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	private int metrics;
+
+	@Param({"EVENT_PER_METRIC", "SNAPSHOT"})
+	private LogstashReporter.Format format;
+
+	private final LoggerContext context = new LoggerContext();
+
+	private LogstashReporter reporter;
+
+	@Setup
+	public void setUp() {
+		final MetricRegistry registry = new ReservoirMetricRegistry(() -> new HdrHistogramReservoir(1000, 60000000000L, 2, 60, TimeUnit.SECONDS));
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < metrics; i++) {
+			// the same mix of metric types as the registry of the application, dominated by route timers
+			switch (i % 5) {
+				case 0:
+				case 1:
+					for (int j = 0; j < 100; j++) {
+						registry.timer("/route-" + i).update(random.nextLong(1000000, 500000000), TimeUnit.NANOSECONDS);
+					}
+					break;
+				case 2:
+					registry.counter("counter-" + i).inc(random.nextInt(1000));
+					break;
+				case 3:
+					registry.meter("meter-" + i).mark(random.nextInt(1000));
+					break;
+				default:
+					final long value = random.nextLong();
+					registry.register("gauge-" + i, (Gauge<Long>) () -> value);
+			}
+		}
+
+		final LogstashEncoderWithStructuredArguments encoder = new LogstashEncoderWithStructuredArguments();
+		encoder.setContext(context);
+		encoder.setImmediateFlush(false);
+		encoder.start();
+		final OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+		appender.setContext(context);
+		appender.setEncoder(encoder);
+		appender.setOutputStream(new DiscardingOutputStream());
+		appender.start();
+		final Logger logger = context.getLogger("metrics");
+		logger.setLevel(Level.INFO);
+		logger.setAdditive(false);
+		logger.addAppender(appender);
+
+		reporter = LogstashReporter.forRegistry(registry)
+				.outputTo(logger)
+				.withFormat(format)
+				.convertRatesTo(TimeUnit.SECONDS)
+				.convertDurationsTo(TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.stop();
+	}
+
+	@Benchmark
+	public void report() {
+		reporter.report();
+	}
+
+	static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+}
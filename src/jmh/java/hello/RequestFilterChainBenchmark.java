@@ -0,0 +1,111 @@
+package hello;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Cost per request of the fused {@link ObservabilityFilter} against the chain of {@link PathFilter},
+ * {@link PerformanceFilter} and {@link RequestIdFilter} it replaces. {@link #noFilters()} runs the same mock request through an
+ * empty chain; the difference is what the instrumentation adds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestFilterChainBenchmark {
+
+	private final HttpServlet servlet = new HttpServlet() {
+		@Override
+		protected void service(HttpServletRequest request, HttpServletResponse response) {
+			// the handler mapping sets the matched pattern before the handler runs
+			request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/hello-world");
+		}
+	};
+
+	private Filter[] filters;
+
+	private Filter observabilityFilter;
+
+	@Setup
+	public void setUp() throws IOException, ServletException {
+		final MetricRegistry chainRegistry = new MetricRegistry();
+		final PerformanceFilter performanceFilter = new PerformanceFilter();
+		ReflectionTestUtils.setField(performanceFilter, "metricRegistry", chainRegistry);
+		ReflectionTestUtils.setField(performanceFilter, "maxRoutes", 100);
+		final PathFilter pathFilter = new PathFilter();
+		final RequestIdFilter requestIdFilter = new RequestIdFilter();
+		filters = new Filter[] {pathFilter, performanceFilter, requestIdFilter};
+		for (Filter filter : filters) {
+			// OncePerRequestFilter marks requests as filtered by filter name, the names must differ
+			filter.init(new MockFilterConfig(filter.getClass().getSimpleName()));
+		}
+
+		final MetricRegistry fusedRegistry = new MetricRegistry();
+		observabilityFilter = new ObservabilityFilter();
+		ReflectionTestUtils.setField(observabilityFilter, "metricRegistry", fusedRegistry);
+		ReflectionTestUtils.setField(observabilityFilter, "maxRoutes", 100);
+		observabilityFilter.init(new MockFilterConfig("ObservabilityFilter"));
+
+		checkEveryFilterRuns(chainRegistry, filters);
+		checkEveryFilterRuns(fusedRegistry, observabilityFilter);
+	}
+
+	/* a skipped filter costs nothing and makes the benchmark meaningless */
+	private void checkEveryFilterRuns(MetricRegistry registry, Filter... filters) throws IOException, ServletException {
+		final MockHttpServletResponse response = doFilter(filters);
+		if (response.getHeader(RequestIdFilter.REQUEST_ID_HEADER) == null || registry.timer("/hello-world").getCount() != 1) {
+			throw new IllegalStateException("Not every filter of " + Arrays.toString(filters) + " ran");
+		}
+	}
+
+	@Benchmark
+	public MockHttpServletResponse filterChain() throws IOException, ServletException {
+		return doFilter(filters);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse fusedFilter() throws IOException, ServletException {
+		return doFilter(observabilityFilter);
+	}
+
+	@Benchmark
+	public MockHttpServletResponse noFilters() throws IOException, ServletException {
+		return doFilter();
+	}
+
+	/* the mock request and chain are single use, both benchmarks pay for creating them */
+	private MockHttpServletResponse doFilter(Filter... filters) throws IOException, ServletException {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hello-world");
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+		new MockFilterChain(servlet, filters).doFilter(request, response);
+		return response;
+	}
+
+}
@@ -0,0 +1,108 @@
+package hello;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.actuate.endpoint.MetricReaderPublicMetrics;
+import org.springframework.boot.actuate.endpoint.MetricsEndpoint;
+import org.springframework.boot.actuate.metrics.reader.MetricRegistryMetricReader;
+
+/**
+ * Cost of one scrape over registries of different sizes: the JSON of the actuator {@code /metrics} endpoint
+ * serialized with Jackson, the OpenMetrics text of {@link OpenMetricsWriter} for the whole registry, and for
+ * the metrics of one route prefix. The output goes to a discarding stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScrapeBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	private int metrics;
+
+	private final OutputStream discarding = new OutputStream() {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private OpenMetricsWriter writer;
+
+	private MetricRegistry registry;
+
+	private MetricsEndpoint endpoint;
+
+	private final List<String> oneRoute = Collections.singletonList("/route-0");
+
+	@Setup
+	public void setUp() {
+		registry = new ReservoirMetricRegistry(() -> new HdrHistogramReservoir(1000, 60000000000L, 2, 60, TimeUnit.SECONDS));
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < metrics; i++) {
+			// the same mix of metric types as the registry of the application, dominated by route timers
+			switch (i % 5) {
+				case 0:
+				case 1:
+					for (int j = 0; j < 100; j++) {
+						registry.timer("/route-" + i).update(random.nextLong(1000000, 500000000), TimeUnit.NANOSECONDS);
+					}
+					break;
+				case 2:
+					registry.counter("counter-" + i).inc(random.nextInt(1000));
+					break;
+				case 3:
+					registry.meter("meter-" + i).mark(random.nextInt(1000));
+					break;
+				default:
+					final long value = random.nextLong();
+					registry.register("gauge-" + i, (Gauge<Long>) () -> value);
+			}
+		}
+		endpoint = new MetricsEndpoint(new MetricReaderPublicMetrics(new MetricRegistryMetricReader(registry)));
+		writer = new OpenMetricsWriter(registry);
+	}
+
+	@Benchmark
+	public void actuatorJson() throws IOException {
+		objectMapper.writeValue(discarding, endpoint.invoke());
+	}
+
+	@Benchmark
+	public void openMetrics() throws IOException {
+		writer.write(discarding);
+	}
+
+	@Benchmark
+	public void openMetricsPrefix() throws IOException {
+		writer.write(null, oneRoute, discarding);
+	}
+
+}
@@ -0,0 +1,123 @@
+package hello;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.MDC;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Cost of timing a service call: an untimed call, the {@link Timed} method with the timing woven in by
+ * {@link TimedAspect}, and the same method through a Spring AOP proxy with {@link ServicePerformanceMonitor}, as
+ * with {@code performance.instrumentation=proxy}. Each benchmark runs in a fork of its own, so the woven aspect is
+ * only handed its timers in {@link Woven}; in {@link Proxied} the woven advice finds none and proceeds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceTimingBenchmark {
+
+	@Benchmark
+	public String directCall(Direct state) {
+		return state.service.hello();
+	}
+
+	@Benchmark
+	public String wovenCall(Woven state) {
+		return state.service.hello();
+	}
+
+	@Benchmark
+	public String proxiedCall(Proxied state) {
+		return state.service.hello();
+	}
+
+	@State(Scope.Thread)
+	public static class Direct {
+
+		final UntimedService service = new UntimedService();
+
+	}
+
+	@State(Scope.Thread)
+	public static class Woven {
+
+		final TimedService service = new TimedService();
+
+		@Setup
+		public void setUp() {
+			TimedAspect.aspectOf().setServiceTimers(serviceTimers());
+			MDC.put(PathFilter.PATH, "/hello-world");
+		}
+
+		@TearDown
+		public void tearDown() {
+			TimedAspect.aspectOf().setServiceTimers(null);
+			MDC.remove(PathFilter.PATH);
+		}
+
+	}
+
+	@State(Scope.Thread)
+	public static class Proxied {
+
+		TimedService service;
+
+		@Setup
+		public void setUp() {
+			final ServicePerformanceMonitor monitor = new ServicePerformanceMonitor();
+			ReflectionTestUtils.setField(monitor, "serviceTimers", serviceTimers());
+			final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new TimedService());
+			proxyFactory.setProxyTargetClass(true);
+			proxyFactory.addAspect(monitor);
+			service = proxyFactory.getProxy();
+			MDC.put(PathFilter.PATH, "/hello-world");
+		}
+
+		@TearDown
+		public void tearDown() {
+			MDC.remove(PathFilter.PATH);
+		}
+
+	}
+
+	private static ServiceTimers serviceTimers() {
+		final ServiceTimers serviceTimers = new ServiceTimers();
+		ReflectionTestUtils.setField(serviceTimers, "metricRegistry", new MetricRegistry());
+		ReflectionTestUtils.setField(serviceTimers, "maxRoutes", 100);
+		return serviceTimers;
+	}
+
+	/* without the simulated latency of HelloWorldService, which would dwarf the cost of the timing */
+	public static class UntimedService {
+
+		public String hello() {
+			return "hi ";
+		}
+
+	}
+
+	public static class TimedService {
+
+		@Timed
+		public String hello() {
+			return "hi ";
+		}
+
+	}
+
+}
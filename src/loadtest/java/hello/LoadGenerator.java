@@ -0,0 +1,223 @@
+package hello;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Open-loop HTTP load generator for the local application.
+ *
+ * Requests are sent at a fixed target rate, spread over a number of connections, each with its own worker
+ * thread. Every request has an intended start time on that schedule. Its latency is measured from the
+ * intended start, not from when it was actually sent, so a slow response that delays the following
+ * requests on its connection is charged to them as well. This corrects for coordinated omission, which a
+ * closed-loop client like a curl loop suffers from: it stops sending while the server stalls and never
+ * measures the requests that would have queued up. The uncorrected latencies are recorded too, to show
+ * the difference. Failed requests, with an error status or an I/O error, are recorded separately, so fast
+ * rejections like the 503s of the concurrency limit don't make the latencies look better.
+ *
+ * Percentile spectra are written in the HdrHistogram percentile distribution format, which the HdrHistogram
+ * plotter can overlay to compare builds. Usage:
+ *
+ * <pre>
+ * mvn -Ploadtest test -DskipTests -Dloadtest.args="--rate 200 --duration 60 --connections 50 --label my-build"
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final URL url;
+    private final double rate;
+    private final int connections;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final int timeoutMillis;
+
+    LoadGenerator(URL url, double rate, int connections, long warmupNanos, long durationNanos, int timeoutMillis) {
+        this.url = url;
+        this.rate = rate;
+        this.connections = connections;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parse(args);
+        final int connections = Integer.parseInt(options.getOrDefault("connections", "50"));
+        // keep-alive connections the JDK caches per destination, 5 by default
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+
+        final LoadGenerator generator = new LoadGenerator(
+                new URL(options.getOrDefault("url", "http://localhost:9000/hello-world")),
+                Double.parseDouble(options.getOrDefault("rate", "100")),
+                connections,
+                TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "10"))),
+                TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "60"))),
+                Integer.parseInt(options.getOrDefault("timeout-millis", "30000")));
+        final String label = options.getOrDefault("label", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        final File output = new File(options.getOrDefault("output", "target/loadtest"));
+
+        System.out.printf("%s at %s requests/s over %d connections, %s s warmup and %s s measured%n", generator.url,
+                options.getOrDefault("rate", "100"), connections, options.getOrDefault("warmup", "10"), options.getOrDefault("duration", "60"));
+        final Worker[] workers = generator.run();
+
+        final Histogram corrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram uncorrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram failed = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        for (Worker worker : workers) {
+            corrected.add(worker.corrected);
+            uncorrected.add(worker.uncorrected);
+            failed.add(worker.failed);
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Could not create " + output);
+        }
+        write(corrected, new File(output, label + "-corrected.hgrm"));
+        write(uncorrected, new File(output, label + "-uncorrected.hgrm"));
+        if (failed.getTotalCount() > 0) {
+            write(failed, new File(output, label + "-failed.hgrm"));
+        }
+
+        final double seconds = generator.durationNanos / 1e9;
+        System.out.printf("%d successful requests (%.1f/s)%n", corrected.getTotalCount(), corrected.getTotalCount() / seconds);
+        if (failed.getTotalCount() > 0) {
+            System.out.printf("%d failed requests, not in the percentiles below; latency of the failed requests p50 %.2fms, max %.2fms%n",
+                    failed.getTotalCount(), failed.getValueAtPercentile(50) / 1000.0, failed.getMaxValue() / 1000.0);
+        } else {
+            System.out.println("0 failed requests");
+        }
+        System.out.printf("%-12s %12s %12s%n", "percentile", "corrected", "uncorrected");
+        for (double percentile : new double[] {50, 90, 99, 99.9, 99.99, 100}) {
+            System.out.printf("%-12s %10.2fms %10.2fms%n", percentile, corrected.getValueAtPercentile(percentile) / 1000.0,
+                    uncorrected.getValueAtPercentile(percentile) / 1000.0);
+        }
+        System.out.println("Percentile spectra written to " + output.getPath() + "/" + label + "-*.hgrm");
+    }
+
+    Worker[] run() throws InterruptedException {
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measureFrom = start + warmupNanos;
+        final long end = measureFrom + durationNanos;
+        final Worker[] workers = new Worker[connections];
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Worker(i, start, measureFrom, end);
+            final Thread thread = new Thread(workers[i], "load-generator-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return workers;
+    }
+
+    /**
+     * Sends every {@code connections}-th request of the schedule over one keep-alive connection.
+     */
+    private class Worker implements Runnable {
+
+        private final int index;
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final Histogram corrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final Histogram uncorrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        /* corrected latencies of failed requests */
+        private final Histogram failed = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private final byte[] buffer = new byte[8192];
+
+        Worker(int index, long start, long measureFrom, long end) {
+            this.index = index;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            for (long request = index; ; request += connections) {
+                final long intended = start + (long) (request * 1e9 / rate);
+                if (intended >= end) {
+                    return;
+                }
+                long now;
+                while ((now = System.nanoTime()) < intended) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                final long sent = System.nanoTime();
+                final boolean succeeded = send();
+                final long received = System.nanoTime();
+                if (intended < measureFrom) {
+                    continue;
+                }
+                if (succeeded) {
+                    corrected.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (received - intended) / 1000));
+                    uncorrected.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (received - sent) / 1000));
+                } else {
+                    failed.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (received - intended) / 1000));
+                }
+            }
+        }
+
+        /* reads the whole response, so the JDK can reuse the connection; false for an error status or an I/O error */
+        private boolean send() {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(timeoutMillis);
+                connection.setReadTimeout(timeoutMillis);
+                final int status = connection.getResponseCode();
+                try (InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                    if (body != null) {
+                        while (body.read(buffer) != -1) {
+                            // discard
+                        }
+                    }
+                }
+                return status < 400;
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+                return false;
+            }
+        }
+    }
+
+    private static void write(Histogram histogram, File file) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            // values in microseconds, reported in milliseconds
+            histogram.outputPercentileDistribution(out, 5, 1000.0);
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --<option> <value> pairs (url, rate, connections, warmup, duration, timeout-millis, output, label) but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+}
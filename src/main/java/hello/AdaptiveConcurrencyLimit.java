@@ -0,0 +1,125 @@
+package hello;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit that follows the latency of the requests it admits, in the style of the gradient
+ * limit of Netflix' concurrency-limits.
+ *
+ * Samples are averaged over short windows. Each window compares the average with a long-term average: when
+ * latency rises above it, requests are queueing somewhere and the limit shrinks by that gradient; otherwise
+ * the limit grows by a queue allowance of {@code sqrt(limit)}. The limit only grows while at least half of it
+ * is in use, so a lightly loaded service doesn't drift to the maximum. The long-term average slowly follows
+ * the short-term one, so a lasting change in latency becomes the new baseline.
+ *
+ * Completions add to the window without locking; only the completion that closes a window takes the lock to
+ * update the limit, and completions racing it go on to the next window.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long minWindowNanos;
+    private final int minWindowSamples;
+    private final int longWindows;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int limit;
+
+    private final LongAdder windowSum = new LongAdder();
+    private final LongAdder windowCount = new LongAdder();
+    private volatile long windowStart = System.nanoTime();
+
+    /* taken by the completion that closes a window, guards the estimates below */
+    private final ReentrantLock windowLock = new ReentrantLock();
+    private double estimatedLimit;
+    private double longRtt;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long minWindowNanos, int minWindowSamples, int longWindows) {
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.minWindowNanos = minWindowNanos;
+        this.minWindowSamples = minWindowSamples;
+        this.longWindows = longWindows;
+    }
+
+    /**
+     * @return true if the request may proceed; it must then be {@link #release released} exactly once
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted request and adds its latency to the current window.
+     */
+    public void release(long durationNanos) {
+        final int inFlightBefore = inFlight.getAndDecrement();
+        sample(durationNanos, inFlightBefore, System.nanoTime());
+    }
+
+    void sample(long durationNanos, int inFlight, long now) {
+        windowSum.add(durationNanos);
+        windowCount.increment();
+        if (now - windowStart < minWindowNanos || windowCount.sum() < minWindowSamples || !windowLock.tryLock()) {
+            return;
+        }
+        try {
+            // another completion may have closed the window since
+            if (now - windowStart >= minWindowNanos && windowCount.sum() >= minWindowSamples) {
+                windowStart = now;
+                // a sample racing the reset may count its duration and itself towards different windows
+                final long count = windowCount.sumThenReset();
+                update((double) windowSum.sumThenReset() / count, inFlight);
+            }
+        } finally {
+            windowLock.unlock();
+        }
+    }
+
+    private void update(double shortRtt, int inFlight) {
+        if (longRtt == 0) {
+            longRtt = shortRtt;
+        } else {
+            final double factor = 2.0 / (longWindows + 1);
+            longRtt = longRtt * (1 - factor) + shortRtt * factor;
+            // recover quickly from a latency spike that dragged the baseline up
+            if (longRtt / shortRtt > 2) {
+                longRtt *= 0.95;
+            }
+        }
+
+        final double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        if (inFlight < estimatedLimit / 2) {
+            newLimit = Math.min(newLimit, estimatedLimit);
+        }
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+}
@@ -0,0 +1,104 @@
+package hello;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sheds load when the service slows down: admits requests up to an {@link AdaptiveConcurrencyLimit} and rejects
+ * the rest right away with 503 and {@code Retry-After}, instead of letting them pile up on Tomcat threads.
+ *
+ * An admitted request is released when the timing filter reports its latency through
+ * {@link RequestLatencyListener}, which covers the whole lifetime of async requests. The filter runs inside
+ * {@link ObservabilityFilter}, so rejections are logged with a request id. The limit, the requests in flight
+ * and the rejections are published as {@code concurrency-limit.*} metrics.
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter implements Ordered, RequestLatencyListener {
+
+    public static final int ORDER = ObservabilityFilter.ORDER + 1;
+
+    private static final String ADMITTED_ATTRIBUTE = ConcurrencyLimitFilter.class.getName() + ".admitted";
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Value("${concurrency-limit.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${concurrency-limit.min-limit:5}")
+    private int minLimit;
+
+    @Value("${concurrency-limit.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${concurrency-limit.window-millis:1000}")
+    private long windowMillis;
+
+    @Value("${concurrency-limit.window-samples:10}")
+    private int windowSamples;
+
+    @Value("${concurrency-limit.long-windows:60}")
+    private int longWindows;
+
+    @Value("${concurrency-limit.retry-after-seconds:1}")
+    private int retryAfterSeconds;
+
+    private AdaptiveConcurrencyLimit limit;
+
+    private Meter rejected;
+
+    /* called once as a Spring bean and again when the container initializes the filter */
+    @Override
+    protected void initFilterBean() {
+        if (limit != null) {
+            return;
+        }
+        limit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, TimeUnit.MILLISECONDS.toNanos(windowMillis), windowSamples, longWindows);
+        metricRegistry.register("concurrency-limit.limit", (Gauge<Integer>) limit::getLimit);
+        metricRegistry.register("concurrency-limit.in-flight", (Gauge<Integer>) limit::getInFlight);
+        rejected = metricRegistry.meter("concurrency-limit.rejected");
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
+
+        if (!limit.tryAcquire()) {
+            rejected.mark();
+            httpServletResponse.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            httpServletResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Concurrency limit of " + limit.getLimit() + " reached");
+            return;
+        }
+        httpServletRequest.setAttribute(ADMITTED_ATTRIBUTE, Boolean.TRUE);
+        filterChain.doFilter(httpServletRequest, httpServletResponse);
+
+    }
+
+    /**
+     * Releases admitted requests; rejected ones also pass the timing filter but were never counted.
+     */
+    @Override
+    public void onRequestComplete(HttpServletRequest request, String route, long durationNanos) {
+        if (request.getAttribute(ADMITTED_ATTRIBUTE) != null) {
+            request.removeAttribute(ADMITTED_ATTRIBUTE);
+            limit.release(durationNanos);
+        }
+    }
+
+}
@@ -0,0 +1,532 @@
+package hello;
+
+import com.codahale.metrics.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A reporter that sends metrics straight to the Elasticsearch {@code _bulk} API, as an alternative to
+ * logging them with {@link LogstashReporter} and shipping the log file with Logstash. Documents have the
+ * same fields as the events of {@link LogstashReporter} plus {@code @timestamp} and go to daily indices
+ * like {@code metrics-2017.02.05}.
+ *
+ * Reports are collected into NDJSON bulk bodies that are sent once they exceed {@code maxBulkBytes} or
+ * {@code flushInterval} has passed. Bodies are gzipped and sent by at most {@code maxInFlightRequests}
+ * concurrent requests, each retried with exponential backoff. While all requests are in flight the
+ * report waits for one of them to finish, which their timeouts and retries bound. Bodies that cannot be
+ * sent after their retries are spilled to disk and replayed after the next successful request.
+ */
+public class ElasticsearchReporter extends ScheduledReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchReporter.class);
+
+    private static final DateTimeFormatter INDEX_DATE = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+
+    /**
+     * Returns a new {@link Builder} for {@link ElasticsearchReporter}.
+     *
+     * @param registry the registry to report
+     * @return a {@link Builder} instance for a {@link ElasticsearchReporter}
+     */
+    public static Builder forRegistry(MetricRegistry registry) {
+        return new Builder(registry);
+    }
+
+    /**
+     * A builder for {@link ElasticsearchReporter} instances. Defaults to {@code http://localhost:9200},
+     * {@code metrics-} indices with document type {@code doc}, converting rates to events/second,
+     * converting durations to milliseconds, 5 MB bulk bodies sent at least every 30 seconds, two
+     * requests in flight, three retries starting at 500 ms and spilling to {@code /tmp/metrics-spill}.
+     */
+    public static class Builder {
+        private final MetricRegistry registry;
+        private String url;
+        private String indexPrefix;
+        private String documentType;
+        private String prefix;
+        private TimeUnit rateUnit;
+        private TimeUnit durationUnit;
+        private MetricFilter filter;
+        private int maxBulkBytes;
+        private long flushIntervalMillis;
+        private int maxInFlightRequests;
+        private int maxRetries;
+        private long initialBackoffMillis;
+        private int timeoutMillis;
+        private File spillDirectory;
+        private long maxSpillBytes;
+
+        private Builder(MetricRegistry registry) {
+            this.registry = registry;
+            this.url = "http://localhost:9200";
+            this.indexPrefix = "metrics-";
+            this.documentType = "doc";
+            this.prefix = "";
+            this.rateUnit = TimeUnit.SECONDS;
+            this.durationUnit = TimeUnit.MILLISECONDS;
+            this.filter = MetricFilter.ALL;
+            this.maxBulkBytes = 5 * 1024 * 1024;
+            this.flushIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+            this.maxInFlightRequests = 2;
+            this.maxRetries = 3;
+            this.initialBackoffMillis = 500;
+            this.timeoutMillis = 10000;
+            this.spillDirectory = new File("/tmp/metrics-spill");
+            this.maxSpillBytes = 100 * 1024 * 1024;
+        }
+
+        /**
+         * @param url the base url of Elasticsearch, e.g. {@code http://localhost:9200}
+         * @return {@code this}
+         */
+        public Builder sendTo(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * @param indexPrefix the prefix of the daily indices, followed by {@code yyyy.MM.dd}
+         * @return {@code this}
+         */
+        public Builder toIndicesPrefixedWith(String indexPrefix) {
+            this.indexPrefix = indexPrefix;
+            return this;
+        }
+
+        /**
+         * @param documentType the {@code _type} of the documents, {@code null} to omit it (Elasticsearch 7 and later)
+         * @return {@code this}
+         */
+        public Builder withDocumentType(String documentType) {
+            this.documentType = documentType;
+            return this;
+        }
+
+        /**
+         * @param prefix the prefix for all metric names
+         * @return {@code this}
+         */
+        public Builder prefixedWith(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * @param rateUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertRatesTo(TimeUnit rateUnit) {
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        /**
+         * @param durationUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertDurationsTo(TimeUnit durationUnit) {
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * @param filter a {@link MetricFilter}
+         * @return {@code this}
+         */
+        public Builder filter(MetricFilter filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * @param maxBulkBytes the uncompressed size at which a bulk body is sent
+         * @return {@code this}
+         */
+        public Builder withMaxBulkBytes(int maxBulkBytes) {
+            this.maxBulkBytes = maxBulkBytes;
+            return this;
+        }
+
+        /**
+         * @param flushInterval the time after which a bulk body is sent even if it is small
+         * @param unit          the unit of {@code flushInterval}
+         * @return {@code this}
+         */
+        public Builder withFlushInterval(long flushInterval, TimeUnit unit) {
+            this.flushIntervalMillis = unit.toMillis(flushInterval);
+            return this;
+        }
+
+        /**
+         * @param maxInFlightRequests the maximum number of concurrent bulk requests, beyond which reports wait
+         * @return {@code this}
+         */
+        public Builder withMaxInFlightRequests(int maxInFlightRequests) {
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * @param maxRetries           the number of retries of a failed bulk request
+         * @param initialBackoffMillis the delay before the first retry, doubled for every further retry
+         * @return {@code this}
+         */
+        public Builder withRetries(int maxRetries, long initialBackoffMillis) {
+            this.maxRetries = maxRetries;
+            this.initialBackoffMillis = initialBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param timeoutMillis the connect and read timeout of bulk requests
+         * @return {@code this}
+         */
+        public Builder withTimeout(int timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param spillDirectory the directory bulk bodies are spilled to while Elasticsearch is unavailable
+         * @param maxSpillBytes  the maximum size of spilled bodies, the oldest are deleted beyond it
+         * @return {@code this}
+         */
+        public Builder spillTo(File spillDirectory, long maxSpillBytes) {
+            this.spillDirectory = spillDirectory;
+            this.maxSpillBytes = maxSpillBytes;
+            return this;
+        }
+
+        /**
+         * Builds a {@link ElasticsearchReporter} with the given properties.
+         *
+         * @return a {@link ElasticsearchReporter}
+         */
+        public ElasticsearchReporter build() {
+            return new ElasticsearchReporter(this);
+        }
+    }
+
+    private final URL bulkUrl;
+    private final String indexPrefix;
+    private final String documentType;
+    private final MetricsJsonWriter jsonWriter;
+    private final int maxBulkBytes;
+    private final long flushIntervalMillis;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final int timeoutMillis;
+    private final File spillDirectory;
+    private final long maxSpillBytes;
+    private final ExecutorService sender;
+    private final Semaphore inFlight;
+    private final AtomicLong spillSequence = new AtomicLong();
+    private final Object spillLock = new Object();
+    /* a single sender replays the spilled bodies, so none is sent twice */
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    /* state of the pending bulk body, guarded by report() */
+    private final StringBuilder body = new StringBuilder(64 * 1024);
+    private long lastFlushMillis = System.currentTimeMillis();
+    private String actionLine;
+    private String timestampField;
+
+    private ElasticsearchReporter(Builder builder) {
+        super(builder.registry, "elasticsearch-reporter", builder.filter, builder.rateUnit, builder.durationUnit);
+        try {
+            this.bulkUrl = new URL(builder.url + "/_bulk");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid Elasticsearch url " + builder.url, e);
+        }
+        this.indexPrefix = builder.indexPrefix;
+        this.documentType = builder.documentType;
+        this.jsonWriter = new MetricsJsonWriter(builder.prefix, builder.rateUnit, builder.durationUnit);
+        this.maxBulkBytes = builder.maxBulkBytes;
+        this.flushIntervalMillis = builder.flushIntervalMillis;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.timeoutMillis = builder.timeoutMillis;
+        this.spillDirectory = builder.spillDirectory;
+        this.maxSpillBytes = builder.maxSpillBytes;
+        this.inFlight = new Semaphore(builder.maxInFlightRequests);
+        this.sender = Executors.newFixedThreadPool(builder.maxInFlightRequests, runnable -> {
+            final Thread thread = new Thread(runnable, "elasticsearch-reporter-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public synchronized void report(SortedMap<String, Gauge> gauges,
+                                    SortedMap<String, Counter> counters,
+                                    SortedMap<String, Histogram> histograms,
+                                    SortedMap<String, Meter> meters,
+                                    SortedMap<String, Timer> timers) {
+        startReport();
+        for (Entry<String, Gauge> entry : gauges.entrySet()) {
+            jsonWriter.writeGauge(startDocument(), entry.getKey(), entry.getValue());
+            endDocument();
+        }
+        for (Entry<String, Counter> entry : counters.entrySet()) {
+            jsonWriter.writeCounter(startDocument(), entry.getKey(), entry.getValue());
+            endDocument();
+        }
+        for (Entry<String, Histogram> entry : histograms.entrySet()) {
+            jsonWriter.writeHistogram(startDocument(), entry.getKey(), entry.getValue());
+            endDocument();
+        }
+        for (Entry<String, Meter> entry : meters.entrySet()) {
+            jsonWriter.writeMeter(startDocument(), entry.getKey(), entry.getValue());
+            endDocument();
+        }
+        for (Entry<String, Timer> entry : timers.entrySet()) {
+            jsonWriter.writeTimer(startDocument(), entry.getKey(), entry.getValue());
+            endDocument();
+        }
+        if (body.length() > 0 && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the pending bulk body, if any, and waits for in-flight requests to finish.
+     */
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (body.length() > 0) {
+                flush();
+            }
+        }
+        super.stop();
+        sender.shutdown();
+        try {
+            if (!sender.awaitTermination(timeoutMillis * (maxRetries + 1L), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Bulk requests to {} did not finish in time", bulkUrl);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* the index and timestamp are the same for all documents of a report */
+    private void startReport() {
+        final Instant now = Instant.now();
+        final StringBuilder action = new StringBuilder("{\"index\":{\"_index\":\"");
+        MetricsJsonWriter.escape(action, indexPrefix + INDEX_DATE.format(now));
+        action.append('"');
+        if (documentType != null && !documentType.isEmpty()) {
+            MetricsJsonWriter.field(action, "_type", documentType);
+        }
+        actionLine = action.append("}}\n").toString();
+        timestampField = ",\"@timestamp\":\"" + DateTimeFormatter.ISO_INSTANT.format(now) + "\"}\n";
+    }
+
+    private StringBuilder startDocument() {
+        return body.append(actionLine);
+    }
+
+    private void endDocument() {
+        // replace the closing brace of the metric object to add the timestamp
+        body.setLength(body.length() - 1);
+        body.append(timestampField);
+        if (body.length() >= maxBulkBytes) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        final byte[] compressed = gzip(body);
+        body.setLength(0);
+        lastFlushMillis = System.currentTimeMillis();
+        if (compressed == null) {
+            return;
+        }
+        try {
+            // backpressure on the reporting thread, bounded by the timeouts and retries of the requests in flight
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spill(compressed);
+            return;
+        }
+        sender.execute(() -> {
+            try {
+                if (sendWithRetries(compressed)) {
+                    replaySpilled();
+                } else {
+                    spill(compressed);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private boolean sendWithRetries(byte[] compressed) {
+        long backoff = initialBackoffMillis;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                final int status = send(compressed);
+                if (status < 300) {
+                    return true;
+                }
+                if (status != 429 && status < 500) {
+                    LOGGER.error("Elasticsearch rejected bulk request with status {}, dropping it", status);
+                    return true;
+                }
+                LOGGER.warn("Bulk request to {} failed with status {}", bulkUrl, status);
+            } catch (IOException e) {
+                LOGGER.warn("Bulk request to {} failed: {}", bulkUrl, e.toString());
+            }
+            if (attempt >= maxRetries) {
+                return false;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoff *= 2;
+        }
+    }
+
+    private int send(byte[] compressed) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) bulkUrl.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(compressed.length);
+        connection.setRequestProperty("Content-Type", "application/x-ndjson");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(compressed);
+        }
+        final int status = connection.getResponseCode();
+        final InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (response != null) {
+            final String content = read(response);
+            if (status < 300 && content.contains("\"errors\":true")) {
+                LOGGER.warn("Elasticsearch rejected some documents of a bulk request: {}", content);
+            }
+        }
+        return status;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] gzip(CharSequence content) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() / 4);
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes, 8192), StandardCharsets.UTF_8)) {
+            out.append(content);
+        } catch (IOException e) {
+            LOGGER.error("Could not compress bulk body", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private void spill(byte[] compressed) {
+        try {
+            Files.createDirectories(spillDirectory.toPath());
+            final String name = String.format("bulk-%013d-%06d.ndjson.gz", System.currentTimeMillis(), spillSequence.incrementAndGet() % 1000000);
+            Files.write(spillDirectory.toPath().resolve(name), compressed);
+            trimSpilled();
+        } catch (IOException e) {
+            LOGGER.error("Could not spill bulk body to {}, dropping it", spillDirectory, e);
+        }
+    }
+
+    /* deletes the oldest spilled bodies beyond maxSpillBytes */
+    private void trimSpilled() throws IOException {
+        synchronized (spillLock) {
+            final File[] files = spilledFiles();
+            long size = 0;
+            for (int i = files.length - 1; i >= 0; i--) {
+                size += files[i].length();
+                if (size > maxSpillBytes) {
+                    LOGGER.warn("Spilled bulk bodies exceed {} bytes, deleting {}", maxSpillBytes, files[i]);
+                    Files.deleteIfExists(files[i].toPath());
+                }
+            }
+        }
+    }
+
+    /* sends spilled bodies oldest first, until one fails, without holding up spill() while sending */
+    private void replaySpilled() {
+        if (!replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final File[] files;
+            synchronized (spillLock) {
+                files = spilledFiles();
+            }
+            for (File file : files) {
+                final Path path = file.toPath();
+                try {
+                    if (!sendWithRetries(Files.readAllBytes(path))) {
+                        return;
+                    }
+                    Files.deleteIfExists(path);
+                } catch (NoSuchFileException e) {
+                    // deleted by trimSpilled() in the meantime
+                } catch (IOException e) {
+                    LOGGER.error("Could not replay spilled bulk body {}", path, e);
+                    return;
+                }
+            }
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    private File[] spilledFiles() {
+        final File[] files = spillDirectory.listFiles((directory, name) -> name.startsWith("bulk-") && name.endsWith(".ndjson.gz"));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+}
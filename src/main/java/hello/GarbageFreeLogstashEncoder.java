@@ -0,0 +1,492 @@
+package hello;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import net.logstash.logback.argument.StructuredArgument;
+import net.logstash.logback.decorate.NullJsonFactoryDecorator;
+import net.logstash.logback.decorate.NullJsonGeneratorDecorator;
+import net.logstash.logback.fieldnames.LogstashFieldNames;
+import net.logstash.logback.marker.ObjectAppendingMarker;
+import net.logstash.logback.marker.RawJsonAppendingMarker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes the same JSON lines as {@link LogstashEncoderWithStructuredArguments} without allocating per event. The
+ * line is written into a byte buffer of the encoding thread that is reused for every event, field names are
+ * encoded once and cached as bytes, numbers are written from their primitive values (doubles as
+ * {@link StringBuilder#append(double)} formats them, which on JDK 8 to 18 does not create strings, except for values
+ * below about 0.003 like the rates of idle meters) and the {@code @timestamp} is formatted once per second. Raw
+ * JSON arguments, like the metrics of a {@code SNAPSHOT}, are copied as they are, without parsing them.
+ *
+ * Events carrying a marker, an exception, or arguments other than {@code keyValue} and {@code raw} with string,
+ * number or boolean values are written by the Jackson formatter, as are all events when the encoder is configured
+ * beyond the defaults of {@link net.logstash.logback.encoder.LogstashEncoder} other than field names, version and
+ * time zone. Context properties are those at the start of the encoder.
+ *
+ * The formatted message is that of the event. {@link RingBufferAppender} formats it on the logging thread when it
+ * defers the event, the only allocation left on the way to the file together with the event and the boxed values
+ * of its arguments.
+ */
+public class GarbageFreeLogstashEncoder extends LogstashEncoderWithStructuredArguments {
+
+    /* the values of structured arguments, which they only expose through a JsonGenerator */
+    private static final Field OBJECT = field(ObjectAppendingMarker.class, "object");
+    private static final Field RAW_JSON = field(RawJsonAppendingMarker.class, "rawJson");
+
+    private static final int MAX_CACHED_NAMES = 1024;
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    /* "name": of argument and MDC fields */
+    private final ConcurrentMap<String, byte[]> names = new ConcurrentHashMap<>();
+
+    /* the formatter cannot tell whether it has one */
+    private String timeZone;
+
+    private boolean garbageFree;
+    private ZoneId zone;
+    private byte[] timestampName;
+    private byte[] versionField;
+    private byte[] messageName;
+    private byte[] loggerName;
+    private byte[] threadName;
+    private byte[] levelName;
+    private byte[] levelValueName;
+    private byte[] contextFields;
+    private byte[] lineSeparator;
+
+    @Override
+    public void start() {
+        super.start();
+        final String unsupported = unsupportedConfiguration();
+        garbageFree = unsupported == null;
+        if (!garbageFree) {
+            addWarn("Writing all events with the Jackson formatter, " + unsupported);
+            return;
+        }
+        zone = timeZone == null ? ZoneId.systemDefault() : TimeZone.getTimeZone(timeZone).toZoneId();
+
+        final LogstashFieldNames fieldNames = getFieldNames();
+        timestampName = name(fieldNames.getTimestamp());
+        final Buffer version = new Buffer();
+        version.write(',');
+        version.write(name(fieldNames.getVersion()));
+        if (isWriteVersionAsString()) {
+            version.writeString(Integer.toString(getVersion()));
+        } else {
+            version.writeLong(getVersion());
+        }
+        versionField = version.toByteArray();
+        messageName = name(fieldNames.getMessage());
+        loggerName = name(fieldNames.getLogger());
+        threadName = name(fieldNames.getThread());
+        levelName = name(fieldNames.getLevel());
+        levelValueName = name(fieldNames.getLevelValue());
+
+        final Buffer context = new Buffer();
+        if (isIncludeContext()) {
+            for (Map.Entry<String, String> property : getContext().getCopyOfPropertyMap().entrySet()) {
+                if (property.getKey() != null && property.getValue() != null) {
+                    context.write(',');
+                    context.write(name(property.getKey()));
+                    context.writeString(property.getValue());
+                }
+            }
+        }
+        contextFields = context.toByteArray();
+        lineSeparator = getLineSeparator() == null ? new byte[0] : getLineSeparator().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void setTimeZone(String timeZone) {
+        super.setTimeZone(timeZone);
+        this.timeZone = timeZone;
+    }
+
+    private String unsupportedConfiguration() {
+        final LogstashFieldNames fieldNames = getFieldNames();
+        if (OBJECT == null || RAW_JSON == null) {
+            return "the fields of structured arguments are not accessible";
+        } else if (isIncludeCallerData() || getCustomFields() != null || getShortenedLoggerNameLength() >= 0
+                || isEnableContextMap() || getPrefix() != null || getSuffix() != null) {
+            return "caller data, custom fields, shortened logger names, the context map, prefix and suffix are not supported";
+        } else if (!getIncludeMdcKeyNames().isEmpty() || !getExcludeMdcKeyNames().isEmpty()) {
+            return "MDC keys are not filtered";
+        } else if (fieldNames.getTimestamp() == null || fieldNames.getVersion() == null || fieldNames.getMessage() == null
+                || fieldNames.getLogger() == null || fieldNames.getThread() == null || fieldNames.getLevel() == null
+                || fieldNames.getLevelValue() == null || fieldNames.getContext() != null || fieldNames.getMdc() != null) {
+            return "fields are only written at the top level";
+        } else if (!(getJsonGeneratorDecorator() instanceof NullJsonGeneratorDecorator)
+                || !(getJsonFactoryDecorator() instanceof NullJsonFactoryDecorator)) {
+            return "the JSON is not decorated";
+        } else if (!StandardCharsets.UTF_8.name().equalsIgnoreCase(getEncoding())) {
+            return "only UTF-8 is written";
+        }
+        return null;
+    }
+
+    @Override
+    public void doEncode(ILoggingEvent event) throws IOException {
+        if (!garbageFree || !writable(event)) {
+            super.doEncode(event);
+            return;
+        }
+        final Buffer buffer = buffers.get();
+        buffer.reset();
+        write(buffer, event);
+        buffer.write(lineSeparator);
+        buffer.writeTo(outputStream);
+        if (isImmediateFlush()) {
+            outputStream.flush();
+        }
+    }
+
+    private static boolean writable(ILoggingEvent event) {
+        if (event.getMarker() != null || event.getThrowableProxy() != null) {
+            return false;
+        }
+        final Object[] arguments = event.getArgumentArray();
+        for (int i = 0; arguments != null && i < arguments.length; i++) {
+            final Object argument = arguments[i];
+            if (argument instanceof StructuredArgument && argument.getClass() != RawJsonAppendingMarker.class
+                    && (argument.getClass() != ObjectAppendingMarker.class || !Buffer.writable(value(OBJECT, argument)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(Buffer buffer, ILoggingEvent event) {
+        buffer.write('{');
+        buffer.write(timestampName);
+        buffer.writeTimestamp(event.getTimeStamp(), zone);
+        buffer.write(versionField);
+        buffer.write(',');
+        buffer.write(messageName);
+        buffer.writeString(event.getFormattedMessage());
+        buffer.write(',');
+        buffer.write(loggerName);
+        buffer.writeString(event.getLoggerName());
+        buffer.write(',');
+        buffer.write(threadName);
+        buffer.writeString(event.getThreadName());
+        final Level level = event.getLevel();
+        buffer.write(',');
+        buffer.write(levelName);
+        buffer.writeString(level.toString());
+        buffer.write(',');
+        buffer.write(levelValueName);
+        buffer.writeLong(level.toInt());
+        buffer.write(contextFields);
+
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        if (isIncludeMdc() && mdc != null && !mdc.isEmpty()) {
+            for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                if (entry.getKey() != null) {
+                    buffer.write(',');
+                    buffer.write(cachedName(entry.getKey()));
+                    buffer.writeValue(entry.getValue());
+                }
+            }
+        }
+
+        final Object[] arguments = event.getArgumentArray();
+        for (int i = 0; arguments != null && i < arguments.length; i++) {
+            final Object argument = arguments[i];
+            if (argument instanceof ObjectAppendingMarker) {
+                buffer.write(',');
+                buffer.write(cachedName(((ObjectAppendingMarker) argument).getFieldName()));
+                buffer.writeValue(value(OBJECT, argument));
+            } else if (argument instanceof RawJsonAppendingMarker) {
+                buffer.write(',');
+                buffer.write(cachedName(((RawJsonAppendingMarker) argument).getFieldName()));
+                buffer.writeRaw((String) value(RAW_JSON, argument));
+            }
+        }
+        buffer.write('}');
+    }
+
+    private byte[] cachedName(String name) {
+        final byte[] cached = names.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final byte[] encoded = name(name);
+        if (names.size() < MAX_CACHED_NAMES) {
+            names.putIfAbsent(name, encoded);
+        }
+        return encoded;
+    }
+
+    /* "name": */
+    private static byte[] name(String name) {
+        final Buffer buffer = new Buffer();
+        buffer.writeString(name);
+        buffer.write(':');
+        return buffer.toByteArray();
+    }
+
+    private static Field field(Class<?> type, String name) {
+        try {
+            final Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static Object value(Field field, Object argument) {
+        try {
+            return field.get(argument);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* the line of one event, reused by the thread that encodes it */
+    private static final class Buffer {
+
+        /* a buffer grown beyond this by a large event is not kept */
+        private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+        private static final DateTimeFormatter SECOND = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.");
+
+        private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+        private byte[] bytes = new byte[8192];
+        private int size;
+
+        /* formats doubles, see StringBuilder#append(double) */
+        private final StringBuilder number = new StringBuilder(32);
+
+        /* the timestamp up to the millis and the zone offset of the last second written */
+        private long second = Long.MIN_VALUE;
+        private byte[] secondPrefix;
+        private byte[] offset;
+
+        static boolean writable(Object value) {
+            return value == null || value instanceof String || value instanceof Boolean || value instanceof Double
+                    || value instanceof Float || value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte;
+        }
+
+        void reset() {
+            if (bytes.length > MAX_RETAINED_SIZE) {
+                bytes = new byte[8192];
+            }
+            size = 0;
+        }
+
+        void write(char c) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) c;
+        }
+
+        void write(byte[] b) {
+            ensureCapacity(size + b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        /* the values of keyValue arguments as Jackson writes them */
+        void writeValue(Object value) {
+            if (value == null) {
+                writeAscii("null");
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Double) {
+                writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                writeAscii((Boolean) value ? "true" : "false");
+            } else {
+                writeLong(((Number) value).longValue());
+            }
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(size + 20);
+            if (value == Long.MIN_VALUE) {
+                writeAscii("-9223372036854775808");
+                return;
+            }
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+            final int start = size;
+            do {
+                bytes[size++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                final byte digit = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = digit;
+            }
+        }
+
+        /* NaN and infinity as strings, like Jackson's QUOTE_NON_NUMERIC_NUMBERS */
+        void writeDouble(double value) {
+            number.setLength(0);
+            writeNumber(number.append(value), Double.isNaN(value) || Double.isInfinite(value));
+        }
+
+        void writeFloat(float value) {
+            number.setLength(0);
+            writeNumber(number.append(value), Float.isNaN(value) || Float.isInfinite(value));
+        }
+
+        private void writeNumber(CharSequence digits, boolean quoted) {
+            ensureCapacity(size + digits.length() + 2);
+            if (quoted) {
+                bytes[size++] = '"';
+            }
+            for (int i = 0; i < digits.length(); i++) {
+                bytes[size++] = (byte) digits.charAt(i);
+            }
+            if (quoted) {
+                bytes[size++] = '"';
+            }
+        }
+
+        void writeTimestamp(long millis, ZoneId zone) {
+            final long epochSecond = Math.floorDiv(millis, 1000);
+            if (epochSecond != second) {
+                final ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone);
+                secondPrefix = SECOND.format(time).getBytes(StandardCharsets.US_ASCII);
+                final int offsetMinutes = time.getOffset().getTotalSeconds() / 60;
+                offset = String.format("%c%02d:%02d", offsetMinutes < 0 ? '-' : '+', Math.abs(offsetMinutes) / 60,
+                        Math.abs(offsetMinutes) % 60).getBytes(StandardCharsets.US_ASCII);
+                second = epochSecond;
+            }
+            final int millisOfSecond = (int) Math.floorMod(millis, 1000);
+            write('"');
+            write(secondPrefix);
+            ensureCapacity(size + 3);
+            bytes[size++] = (byte) ('0' + millisOfSecond / 100);
+            bytes[size++] = (byte) ('0' + millisOfSecond / 10 % 10);
+            bytes[size++] = (byte) ('0' + millisOfSecond % 10);
+            write(offset);
+            write('"');
+        }
+
+        /* a JSON string with the escapes of the formatter, which escapes non-ASCII chars */
+        void writeString(String value) {
+            ensureCapacity(size + 2 + value.length() * 6);
+            bytes[size++] = '"';
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    bytes[size++] = '\\';
+                    bytes[size++] = (byte) c;
+                } else if (c >= 0x20 && c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else {
+                    writeEscaped(c);
+                }
+            }
+            bytes[size++] = '"';
+        }
+
+        /* raw JSON, a value of its own, in UTF-8 */
+        void writeRaw(String json) {
+            ensureCapacity(size + json.length() * 3);
+            for (int i = 0; i < json.length(); i++) {
+                final char c = json.charAt(i);
+                if (c < 0x80) {
+                    bytes[size++] = (byte) c;
+                } else {
+                    i = writeUtf8(json, i);
+                }
+            }
+        }
+
+        private void writeAscii(String value) {
+            ensureCapacity(size + value.length());
+            for (int i = 0; i < value.length(); i++) {
+                bytes[size++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void writeEscaped(char c) {
+            bytes[size++] = '\\';
+            switch (c) {
+                case '\n':
+                    bytes[size++] = 'n';
+                    break;
+                case '\r':
+                    bytes[size++] = 'r';
+                    break;
+                case '\t':
+                    bytes[size++] = 't';
+                    break;
+                case '\b':
+                    bytes[size++] = 'b';
+                    break;
+                case '\f':
+                    bytes[size++] = 'f';
+                    break;
+                default:
+                    bytes[size++] = 'u';
+                    bytes[size++] = HEX[c >> 12];
+                    bytes[size++] = HEX[c >> 8 & 0xF];
+                    bytes[size++] = HEX[c >> 4 & 0xF];
+                    bytes[size++] = HEX[c & 0xF];
+            }
+        }
+
+        /* the non-ASCII char at index, a surrogate pair as one code point; returns the index of its last char */
+        private int writeUtf8(String value, int index) {
+            final char c = value.charAt(index);
+            if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | c >> 6);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+                bytes[size++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint & 0x3F);
+                return index + 1;
+            } else if (Character.isSurrogate(c)) {
+                bytes[size++] = '?';
+            } else {
+                bytes[size++] = (byte) (0xE0 | c >> 12);
+                bytes[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            }
+            return index;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+    }
+
+}
@@ -5,9 +5,22 @@ public class Greeting {
     private final long id;
     private final String content;
 
+    /* the parts of the content, when it was rendered by GreetingRenderer; only Jackson joins them */
+    private final String hello;
+    private final GreetingRenderer.Rendered rendered;
+
     public Greeting(long id, String content) {
         this.id = id;
         this.content = content;
+        this.hello = null;
+        this.rendered = null;
+    }
+
+    Greeting(long id, String hello, GreetingRenderer.Rendered rendered) {
+        this.id = id;
+        this.content = null;
+        this.hello = hello;
+        this.rendered = rendered;
     }
 
     public long getId() {
@@ -15,7 +28,15 @@ public class Greeting {
     }
 
     public String getContent() {
-        return content;
+        return rendered != null ? hello + rendered.getText() : content;
+    }
+
+    String hello() {
+        return hello;
+    }
+
+    GreetingRenderer.Rendered rendered() {
+        return rendered;
     }
 
 }
@@ -0,0 +1,65 @@
+package hello;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a {@link Greeting} as the same JSON Jackson would produce, {@code {"id":1,"content":"..."}}, without
+ * reflection. Only the id and the hello prefix are encoded per response; the greeting itself is copied
+ * from the bytes {@link GreetingRenderer} encoded, and possibly cached, for the name.
+ */
+public class GreetingHttpMessageConverter extends AbstractHttpMessageConverter<Greeting> {
+
+    private static final byte[] ID = "{\"id\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT = ",\"content\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL_CONTENT = ",\"content\":null}".getBytes(StandardCharsets.UTF_8);
+
+    public GreetingHttpMessageConverter() {
+        super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON, new MediaType("application", "*+json"));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return Greeting.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Greeting readInternal(Class<? extends Greeting> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Greetings are only written");
+    }
+
+    @Override
+    protected void writeInternal(Greeting greeting, HttpOutputMessage outputMessage) throws IOException {
+        final OutputStream body = outputMessage.getBody();
+        body.write(ID);
+        body.write(Long.toString(greeting.getId()).getBytes(StandardCharsets.US_ASCII));
+        final JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        if (greeting.rendered() != null) {
+            body.write(CONTENT);
+            body.write(encoder.quoteAsUTF8(greeting.hello()));
+            body.write(greeting.rendered().getJson());
+        } else if (greeting.getContent() != null) {
+            body.write(CONTENT);
+            body.write(encoder.quoteAsUTF8(greeting.getContent()));
+        } else {
+            body.write(NULL_CONTENT);
+            return;
+        }
+        body.write(END);
+    }
+
+}
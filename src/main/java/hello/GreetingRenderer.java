@@ -0,0 +1,90 @@
+package hello;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the greeting for a name with a precompiled {@link GreetingTemplate}, together with its JSON
+ * encoding for {@link GreetingHttpMessageConverter}.
+ *
+ * Most traffic repeats a small set of names, so rendered greetings are optionally kept in a bounded cache.
+ * Caffeine's TinyLFU admission keeps a burst of one-off names from evicting the frequent ones. Hit ratio,
+ * evictions and size are published as {@code greeting.cache.*} gauges.
+ */
+@Component
+public class GreetingRenderer {
+
+    static final String TEMPLATE = "Hello, %s!";
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Value("${greeting.cache.enabled:false}")
+    private boolean cacheEnabled;
+
+    @Value("${greeting.cache.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${greeting.cache.expire-after-write-seconds:600}")
+    private long expireAfterWriteSeconds;
+
+    private final GreetingTemplate template = new GreetingTemplate(TEMPLATE);
+
+    private Cache<String, Rendered> cache;
+
+    @PostConstruct
+    public void createCache() {
+        if (!cacheEnabled) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        metricRegistry.register("greeting.cache.hit-ratio", (Gauge<Double>) () -> cache.stats().hitRate());
+        metricRegistry.register("greeting.cache.eviction-count", (Gauge<Long>) () -> cache.stats().evictionCount());
+        metricRegistry.register("greeting.cache.size", (Gauge<Long>) cache::estimatedSize);
+    }
+
+    public Rendered render(String name) {
+        return cache != null ? cache.get(name, this::renderUncached) : renderUncached(name);
+    }
+
+    Rendered renderUncached(String name) {
+        final String text = template.format(name);
+        return new Rendered(text, JsonStringEncoder.getInstance().quoteAsUTF8(text));
+    }
+
+    /**
+     * A rendered greeting and its JSON string encoding as UTF-8 bytes, without the quotes.
+     */
+    public static final class Rendered {
+
+        private final String text;
+        private final byte[] json;
+
+        Rendered(String text, byte[] json) {
+            this.text = text;
+            this.json = json;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        byte[] getJson() {
+            return json;
+        }
+    }
+
+}
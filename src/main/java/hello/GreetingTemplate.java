@@ -0,0 +1,27 @@
+package hello;
+
+/**
+ * A template with a single {@code %s} placeholder, split once into the text before and after it, so
+ * rendering is a concatenation instead of parsing the format on every call like {@link String#format}.
+ */
+public class GreetingTemplate {
+
+    private final String prefix;
+    private final String suffix;
+
+    public GreetingTemplate(String template) {
+        final int placeholder = template.indexOf("%s");
+        if (placeholder < 0 || template.indexOf('%', placeholder + 2) >= 0 || template.lastIndexOf('%', placeholder - 1) >= 0) {
+            throw new IllegalArgumentException("template must contain exactly one %s and no other format specifiers: " + template);
+        }
+        this.prefix = template.substring(0, placeholder);
+        this.suffix = template.substring(placeholder + 2);
+    }
+
+    public String format(String name) {
+        final String value = String.valueOf(name);
+        return new StringBuilder(prefix.length() + value.length() + suffix.length())
+                .append(prefix).append(value).append(suffix).toString();
+    }
+
+}
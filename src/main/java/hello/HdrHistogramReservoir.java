@@ -0,0 +1,237 @@
+package hello;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.IntCountsHistogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Reservoir} backed by an HdrHistogram {@link Recorder}. Updates are wait-free and do not
+ * allocate; the recorder double-buffers interval histograms, which are swapped out when a snapshot is
+ * taken. Unlike the exponentially decaying default reservoir, percentiles are exact up to the configured
+ * number of significant digits.
+ *
+ * With a window, snapshots cover a sliding window of {@value #SLICES} slices: the values swapped out
+ * during the current slice and the two before it, so at least two thirds of the window. Without a window,
+ * snapshots cover all values since the start. Snapshots don't change the window, so any number of
+ * consumers get the same percentiles.
+ *
+ * Snapshots keep the recorded buckets rather than a copy of the histogram, and the same snapshot is
+ * returned without locking until new values are recorded or the window slides.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+    static final int SLICES = 3;
+
+    private final long highestTrackableValue;
+    private final long sliceNanos;
+    private final Clock clock;
+    private final Recorder recorder;
+    private final LongAdder count = new LongAdder();
+
+    /* guarded by this; the slices are the aggregate itself without a window */
+    private final AbstractHistogram[] slices;
+    private final AbstractHistogram aggregate;
+    private Histogram intervalHistogram;
+    private int current;
+    private long sliceStart;
+
+    private volatile HdrSnapshot snapshot;
+    private volatile long snapshotCount = -1;
+    private volatile long nextSlice = Long.MAX_VALUE;
+
+    /**
+     * @param lowestDiscernibleValue         the smallest value that is distinguished from 0
+     * @param highestTrackableValue          the highest value to be tracked, larger values are recorded as this value
+     * @param numberOfSignificantValueDigits the precision of recorded values, from 0 to 5
+     * @param window                         the time snapshots cover, 0 for all values since the start
+     * @param windowUnit                     the unit of {@code window}
+     */
+    public HdrHistogramReservoir(long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits,
+                                 long window, TimeUnit windowUnit) {
+        this(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits, window, windowUnit, Clock.defaultClock());
+    }
+
+    HdrHistogramReservoir(long lowestDiscernibleValue, long highestTrackableValue, int numberOfSignificantValueDigits,
+                          long window, TimeUnit windowUnit, Clock clock) {
+        this.highestTrackableValue = highestTrackableValue;
+        this.sliceNanos = windowUnit.toNanos(window) / SLICES;
+        this.clock = clock;
+        this.recorder = new Recorder(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+        this.intervalHistogram = recorder.getIntervalHistogram();
+        this.aggregate = new Histogram(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+        if (sliceNanos > 0) {
+            // a slice holds far fewer values than an int count
+            this.slices = new AbstractHistogram[SLICES];
+            for (int i = 0; i < SLICES; i++) {
+                slices[i] = new IntCountsHistogram(lowestDiscernibleValue, highestTrackableValue, numberOfSignificantValueDigits);
+            }
+            this.sliceStart = clock.getTick();
+        } else {
+            this.slices = new AbstractHistogram[] {aggregate};
+        }
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(count.sum(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        recorder.recordValue(value < 0 ? 0 : Math.min(value, highestTrackableValue));
+        count.increment();
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        final HdrSnapshot cached = snapshot;
+        if (cached != null && count.sum() == snapshotCount && clock.getTick() < nextSlice) {
+            return cached;
+        }
+        synchronized (this) {
+            // read before the swap, a value recorded in the meantime makes the next snapshot take the swap again
+            final long recorded = count.sum();
+            intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+            slide(clock.getTick());
+            // values are in the slice they were swapped out in, which is close enough with frequent snapshots
+            slices[current].add(intervalHistogram);
+            if (slices.length > 1) {
+                slices[0].copyInto(aggregate);
+                for (int i = 1; i < slices.length; i++) {
+                    aggregate.add(slices[i]);
+                }
+            }
+            final HdrSnapshot taken = new HdrSnapshot(aggregate);
+            snapshot = taken;
+            snapshotCount = recorded;
+            return taken;
+        }
+    }
+
+    /* starts a new slice for every slice length that passed, dropping the oldest */
+    private void slide(long now) {
+        if (sliceNanos <= 0) {
+            return;
+        }
+        final long passed = (now - sliceStart) / sliceNanos;
+        for (long i = 0; i < Math.min(passed, SLICES); i++) {
+            current = (current + 1) % SLICES;
+            slices[current].reset();
+        }
+        sliceStart += passed * sliceNanos;
+        nextSlice = sliceStart + sliceNanos;
+    }
+
+    /**
+     * A {@link Snapshot} of the recorded buckets of a histogram: their highest equivalent values and the
+     * number of values up to each of them.
+     */
+    static class HdrSnapshot extends Snapshot {
+
+        private final long[] values;
+        private final long[] counts;
+        private final long totalCount;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final double stdDev;
+
+        HdrSnapshot(AbstractHistogram histogram) {
+            totalCount = histogram.getTotalCount();
+            long[] values = new long[64];
+            long[] counts = new long[64];
+            int buckets = 0;
+            if (totalCount > 0) {
+                for (HistogramIterationValue value : histogram.recordedValues()) {
+                    if (buckets == values.length) {
+                        values = Arrays.copyOf(values, buckets * 2);
+                        counts = Arrays.copyOf(counts, buckets * 2);
+                    }
+                    values[buckets] = histogram.highestEquivalentValue(value.getValueIteratedTo());
+                    counts[buckets] = value.getTotalCountToThisValue();
+                    buckets++;
+                }
+            }
+            this.values = Arrays.copyOf(values, buckets);
+            this.counts = Arrays.copyOf(counts, buckets);
+            this.min = totalCount == 0 ? 0 : histogram.getMinValue();
+            this.max = totalCount == 0 ? 0 : histogram.getMaxValue();
+            this.mean = totalCount == 0 ? 0 : histogram.getMean();
+            this.stdDev = totalCount == 0 ? 0 : histogram.getStdDeviation();
+        }
+
+        /**
+         * The highest equivalent value of the bucket of the quantile, as
+         * {@link AbstractHistogram#getValueAtPercentile(double)} returns it.
+         */
+        @Override
+        public double getValue(double quantile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            if (quantile <= 0) {
+                return min;
+            }
+            final long countAtQuantile = Math.max(1, (long) (Math.min(quantile, 1.0) * totalCount + 0.5));
+            final int bucket = Arrays.binarySearch(counts, countAtQuantile);
+            return values[Math.min(bucket >= 0 ? bucket : -bucket - 1, values.length - 1)];
+        }
+
+        /**
+         * Returns one entry per recorded value bucket rather than per recorded value, which would be
+         * unbounded.
+         */
+        @Override
+        public long[] getValues() {
+            return values.clone();
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(totalCount, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return mean;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            for (long value : values) {
+                out.printf("%d%n", value);
+            }
+            out.flush();
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package hello;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a synchronous method of a Spring bean for hedged calls by {@link HedgingAspect}: when the first attempt
+ * has not returned after the {@link #percentile()} of the method's own latency, a second attempt is started and
+ * the first result wins. The call fails with a {@link DeadlineExceededException} after {@link #deadlineMillis()}.
+ *
+ * Only for idempotent methods, both attempts may run to completion.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Hedged {
+
+    /**
+     * The percentile of the method's latency, between 0 and 1, after which the hedge is started.
+     */
+    double percentile() default 0.95;
+
+    /**
+     * The time the caller waits for any attempt.
+     */
+    long deadlineMillis() default 1000;
+
+}
@@ -0,0 +1,220 @@
+package hello;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link Hedged} methods on the hedging executor and waits for them up to their deadline, starting a second
+ * attempt when the first is slower than usual. The loser is cancelled by interrupting it.
+ *
+ * The hedge delay is a percentile of the {@code hedging.<method>.first-attempts} timer, which records every first
+ * attempt until it returns, fails or is cancelled. Cancelled first attempts are the slow ones, so they are recorded
+ * with the time they ran for rather than dropped, which would hide the tail and lower the delay with every hedge;
+ * second attempts are not recorded, as they are cut short whenever the first attempt wins. Computing a percentile
+ * takes a snapshot, so delays are cached for {@code hedging.delay-refresh-millis}. Methods with fewer than
+ * {@code hedging.min-samples} first attempts are not hedged. The aspect is ordered outside
+ * {@link ServicePerformanceMonitor}, so the {@link ServiceTimers} timers record single attempts.
+ *
+ * Every call runs on a thread of the hedging executor while the calling thread waits for it, so a hedged method
+ * takes up to two threads per call, three while hedging. When all {@code hedging.max-threads} threads are busy,
+ * calls run on the calling thread without hedge and deadline, which the {@code rejected} meter counts.
+ *
+ * Hedging is off unless {@code hedging.enabled} is set; without this aspect, {@link Hedged} methods run on the
+ * calling thread without hedge and deadline, and their beans need no proxy for it.
+ *
+ * Per method, the meters {@code hedging.<method>.calls}, {@code hedges}, {@code hedge-wins},
+ * {@code deadline-exceeded} and {@code rejected} and the gauges {@code hedge-rate} (hedges per call) and
+ * {@code win-rate} (hedges that returned first), both over the last minute, tell whether the extra load pays off.
+ */
+@Aspect
+@Order(HedgingAspect.ORDER)
+public class HedgingAspect {
+
+    /* outside ServicePerformanceMonitor, which has the lowest precedence */
+    public static final int ORDER = 0;
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    @Qualifier("hedgingExecutor")
+    private ExecutorService hedgingExecutor;
+
+    @Value("${hedging.min-samples:100}")
+    private long minSamples;
+
+    @Value("${hedging.delay-refresh-millis:1000}")
+    private long delayRefreshMillis;
+
+    private final ConcurrentMap<Method, HedgeMetrics> metrics = new ConcurrentHashMap<>();
+
+    @Around("@annotation(hedged)")
+    public Object hedge(ProceedingJoinPoint joinPoint, Hedged hedged) throws Throwable {
+
+        final Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        final HedgeMetrics methodMetrics = metrics.computeIfAbsent(method, HedgeMetrics::new);
+        methodMetrics.calls.mark();
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedged.deadlineMillis());
+        final long hedgeDelay = hedgeDelayNanos(methodMetrics, hedged.percentile());
+        final Map<String, String> context = MDC.getCopyOfContextMap();
+        final Tracing.Scope trace = Tracing.capture();
+        final CompletionService<Object> attempts = new ExecutorCompletionService<>(hedgingExecutor);
+
+        final Future<Object> first;
+        try {
+            first = attempts.submit(attempt(joinPoint, context, trace, methodMetrics.firstAttempts));
+        } catch (RejectedExecutionException e) {
+            // no thread to wait on, call without hedge and deadline
+            methodMetrics.rejected.mark();
+            return joinPoint.proceed();
+        }
+        Future<Object> second = null;
+        try {
+            Future<Object> done = hedgeDelay > 0 ? attempts.poll(Math.min(hedgeDelay, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) : null;
+            if (done == null && hedgeDelay > 0 && System.nanoTime() < deadline) {
+                try {
+                    second = attempts.submit(attempt(joinPoint, context, trace, null));
+                    methodMetrics.hedges.mark();
+                } catch (RejectedExecutionException e) {
+                    // keep waiting for the first attempt
+                }
+            }
+            Throwable failure = null;
+            int pending = second != null ? 2 : 1;
+            while (pending > 0) {
+                if (done == null) {
+                    done = attempts.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (done == null) {
+                        methodMetrics.deadlineExceeded.mark();
+                        throw new DeadlineExceededException(method.getName() + " did not return within " + hedged.deadlineMillis() + " ms");
+                    }
+                }
+                pending--;
+                try {
+                    final Object result = done.get();
+                    if (done == second) {
+                        methodMetrics.hedgeWins.mark();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    // the other attempt may still succeed
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+
+    }
+
+    /* the timer, if any, records the attempt however it ends */
+    private static Callable<Object> attempt(ProceedingJoinPoint joinPoint, Map<String, String> context, Tracing.Scope trace, Timer timer) {
+        return () -> {
+            final Timer.Context timing = timer != null ? timer.time() : null;
+            if (context != null) {
+                MDC.setContextMap(context);
+            }
+            Tracing.attach(trace);
+            try {
+                return joinPoint.proceed();
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable throwable) {
+                throw new ExecutionException(throwable);
+            } finally {
+                if (timing != null) {
+                    timing.stop();
+                }
+                MDC.clear();
+                Tracing.detach();
+            }
+        };
+    }
+
+    /**
+     * @return the percentile of the first attempts in nanoseconds, or 0 when there are too few to hedge
+     */
+    private long hedgeDelayNanos(HedgeMetrics methodMetrics, double percentile) {
+        final Timer timer = methodMetrics.firstAttempts;
+        if (timer.getCount() < minSamples) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        if (now - methodMetrics.delayComputedAt > TimeUnit.MILLISECONDS.toNanos(delayRefreshMillis) || methodMetrics.delayNanos == 0) {
+            methodMetrics.delayNanos = Math.max(1, (long) timer.getSnapshot().getValue(percentile));
+            methodMetrics.delayComputedAt = now;
+        }
+        return methodMetrics.delayNanos;
+    }
+
+    private final class HedgeMetrics {
+
+        final Meter calls;
+        final Meter hedges;
+        final Meter hedgeWins;
+        final Meter deadlineExceeded;
+        final Meter rejected;
+        final Timer firstAttempts;
+
+        volatile long delayNanos;
+        volatile long delayComputedAt;
+
+        HedgeMetrics(Method method) {
+            final String prefix = MetricRegistry.name("hedging", method.getDeclaringClass().getSimpleName() + "." + method.getName());
+            calls = metricRegistry.meter(MetricRegistry.name(prefix, "calls"));
+            hedges = metricRegistry.meter(MetricRegistry.name(prefix, "hedges"));
+            hedgeWins = metricRegistry.meter(MetricRegistry.name(prefix, "hedge-wins"));
+            deadlineExceeded = metricRegistry.meter(MetricRegistry.name(prefix, "deadline-exceeded"));
+            rejected = metricRegistry.meter(MetricRegistry.name(prefix, "rejected"));
+            firstAttempts = metricRegistry.timer(MetricRegistry.name(prefix, "first-attempts"));
+            metricRegistry.register(MetricRegistry.name(prefix, "hedge-rate"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hedges.getOneMinuteRate(), calls.getOneMinuteRate());
+                }
+            });
+            metricRegistry.register(MetricRegistry.name(prefix, "win-rate"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hedgeWins.getOneMinuteRate(), hedges.getOneMinuteRate());
+                }
+            });
+        }
+    }
+
+}
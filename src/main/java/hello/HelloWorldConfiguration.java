@@ -1,24 +1,62 @@
 package hello;
 
 import com.codahale.metrics.MetricRegistry;
+import org.apache.coyote.AbstractProtocol;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.HttpMessageConverter;
 
 import javax.servlet.Filter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
 public class HelloWorldConfiguration {
 
-    @Autowired
-    private MetricRegistry metricRegistry;
+    @Value("${metrics.hdr.lowest-discernible-value}")
+    private long lowestDiscernibleValue;
+
+    @Value("${metrics.hdr.highest-trackable-value}")
+    private long highestTrackableValue;
+
+    @Value("${metrics.hdr.significant-digits}")
+    private int significantDigits;
+
+    @Value("${metrics.hdr.window-seconds}")
+    private long windowSeconds;
+
+    @Value("${metrics.reporter.format}")
+    private LogstashReporter.Format reporterFormat;
+
+    @Value("${metrics.reporter.snapshot-chunk-size}")
+    private int snapshotChunkSize;
+
+    @Value("${metrics.reporter.skip-unchanged}")
+    private boolean skipUnchanged;
+
+    @Value("${metrics.reporter.deltas}")
+    private boolean reportDeltas;
+
+    @Value("${metrics.reporter.keyframe-interval}")
+    private int keyframeInterval;
 
     /*
     @Bean
-    public ConsoleReporter consoleReporter() {
+    public ConsoleReporter consoleReporter(MetricRegistry metricRegistry) {
         ConsoleReporter reporter = ConsoleReporter.forRegistry(metricRegistry)
                 .convertRatesTo(TimeUnit.SECONDS)
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
@@ -30,32 +68,210 @@ public class HelloWorldConfiguration {
    */
 
     @Bean
+    public MetricRegistry metricRegistry() {
+        return new ReservoirMetricRegistry(() -> new HdrHistogramReservoir(lowestDiscernibleValue, highestTrackableValue, significantDigits, windowSeconds, TimeUnit.SECONDS));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "observability.fused-filter", havingValue = "true", matchIfMissing = true)
+    public Filter observabilityFilter() {
+        return new ObservabilityFilter();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "observability.fused-filter", havingValue = "false")
     public Filter pathFilter() {
         return new PathFilter();
     }
 
     @Bean
+    @ConditionalOnProperty(name = "observability.fused-filter", havingValue = "false")
     public Filter performanceFilter() {
         return new PerformanceFilter();
     }
 
     @Bean
+    @ConditionalOnProperty(name = "observability.fused-filter", havingValue = "false")
     public Filter requestIdFilter() {
         return new RequestIdFilter();
     }
 
+    /* the aspect woven into @Timed methods by ajc, a singleton of its own that is handed the timers */
+    @Bean
+    @ConditionalOnProperty(name = "performance.instrumentation", havingValue = "woven", matchIfMissing = true)
+    public TimedAspect timedAspect(ServiceTimers serviceTimers) {
+        TimedAspect aspect = TimedAspect.aspectOf();
+        aspect.setServiceTimers(serviceTimers);
+        return aspect;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "performance.instrumentation", havingValue = "proxy")
+    public ServicePerformanceMonitor servicePerformanceMonitor() {
+        return new ServicePerformanceMonitor();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "concurrency-limit.enabled", havingValue = "true")
+    public ConcurrencyLimitFilter concurrencyLimitFilter() {
+        return new ConcurrencyLimitFilter();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "tracing.enabled", havingValue = "true")
+    public TraceSampler traceSampler() {
+        return new TraceSampler();
+    }
+
+    /* picked up by Spring Boot ahead of the default Jackson converter */
+    @Bean
+    public HttpMessageConverter<Greeting> greetingHttpMessageConverter() {
+        return new GreetingHttpMessageConverter();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService latencyScheduler() {
+        return Executors.newScheduledThreadPool(1);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "hedging.enabled", havingValue = "true")
+    public HedgingAspect hedgingAspect() {
+        return new HedgingAspect();
+    }
+
+    /* attempts of hedged calls; when all threads are busy, calls are not hedged */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "hedging.enabled", havingValue = "true")
+    public ExecutorService hedgingExecutor(@Value("${hedging.max-threads}") int maxThreads,
+                                           @Value("${virtual-threads.enabled}") boolean virtualThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        if (virtualThreads) {
+            executor.setThreadFactory(VirtualThreads.newThreadFactory("hedging-"));
+        }
+        return executor;
+    }
+
+    /* a virtual thread per request instead of Tomcat's pool of server.tomcat.max-threads platform threads */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+    public ExecutorService requestExecutor() {
+        return VirtualThreads.newThreadPerTaskExecutor("http-virtual-");
+    }
+
     @Bean
-    public LogstashReporter logstashReporter() {
+    @ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+    public EmbeddedServletContainerCustomizer virtualThreadsCustomizer(@Qualifier("requestExecutor") ExecutorService requestExecutor) {
+        return container -> ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(
+                connector -> ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(requestExecutor));
+    }
+
+    @Bean
+    public LogstashReporter logstashReporter(MetricRegistry metricRegistry) {
         LogstashReporter reporter = LogstashReporter.forRegistry(metricRegistry)
                 .outputTo(LoggerFactory.getLogger("metrics"))
                 .withLoggingLevel(LogstashReporter.LoggingLevel.INFO)
                 .convertRatesTo(TimeUnit.SECONDS)
                 .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .withFormat(reporterFormat)
+                .withSnapshotChunkSize(snapshotChunkSize)
+                .skipUnchanged(skipUnchanged)
+                .reportDeltas(reportDeltas)
+                .withKeyframeInterval(keyframeInterval)
                 .build();
         reporter.start(5, TimeUnit.SECONDS);
         return reporter;
     }
 
+    @Bean
+    @ConditionalOnProperty("metrics.history.enabled")
+    public MetricHistory metricHistory(MetricRegistry metricRegistry,
+                                       @Value("${metrics.history.capacity}") int capacity,
+                                       @Value("${metrics.history.interval-seconds}") long intervalSeconds,
+                                       @Value("${metrics.history.max-metrics}") int maxMetrics) {
+        MetricHistory history = MetricHistory.forRegistry(metricRegistry)
+                .withCapacity(capacity)
+                .withMaxMetrics(maxMetrics)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        history.start(intervalSeconds, TimeUnit.SECONDS);
+        return history;
+    }
+
+    @Bean
+    @ConditionalOnProperty("metrics.history.enabled")
+    public MetricHistoryMvcEndpoint metricHistoryMvcEndpoint(MetricHistory metricHistory) {
+        return new MetricHistoryMvcEndpoint(metricHistory);
+    }
+
+    @Bean
+    public OpenMetricsMvcEndpoint openMetricsMvcEndpoint(MetricRegistry metricRegistry) {
+        return new OpenMetricsMvcEndpoint(metricRegistry);
+    }
+
+    @Bean
+    @ConditionalOnProperty("metrics.counters.enabled")
+    public MappedCountersReporter mappedCountersReporter(MetricRegistry metricRegistry,
+                                                         @Value("${metrics.counters.file}") String file,
+                                                         @Value("${metrics.counters.capacity}") int capacity,
+                                                         @Value("${metrics.counters.interval-millis}") long intervalMillis,
+                                                         @Value("${metrics.counters.summary-interval-millis}") long summaryIntervalMillis) throws IOException {
+        MappedCountersReporter reporter = MappedCountersReporter.forRegistry(metricRegistry)
+                .mirrorTo(Paths.get(file))
+                .withCapacity(capacity)
+                .summarizeEvery(summaryIntervalMillis, TimeUnit.MILLISECONDS)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .build();
+        reporter.start(intervalMillis, TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    @Bean
+    @ConditionalOnProperty("elasticsearch.reporter.enabled")
+    public ElasticsearchReporter elasticsearchReporter(MetricRegistry metricRegistry,
+                                                       @Value("${elasticsearch.reporter.url}") String url,
+                                                       @Value("${elasticsearch.reporter.index-prefix}") String indexPrefix,
+                                                       @Value("${elasticsearch.reporter.max-bulk-bytes}") int maxBulkBytes,
+                                                       @Value("${elasticsearch.reporter.flush-interval-seconds}") long flushIntervalSeconds,
+                                                       @Value("${elasticsearch.reporter.max-in-flight-requests}") int maxInFlightRequests,
+                                                       @Value("${elasticsearch.reporter.spill-directory}") File spillDirectory) {
+        ElasticsearchReporter reporter = ElasticsearchReporter.forRegistry(metricRegistry)
+                .sendTo(url)
+                .toIndicesPrefixedWith(indexPrefix)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .withMaxBulkBytes(maxBulkBytes)
+                .withFlushInterval(flushIntervalSeconds, TimeUnit.SECONDS)
+                .withMaxInFlightRequests(maxInFlightRequests)
+                .spillTo(spillDirectory, 100 * 1024 * 1024)
+                .build();
+        reporter.start(5, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty("log-shipper.enabled")
+    public LogShipper logShipper(MetricRegistry metricRegistry,
+                                 @Value("${log-shipper.segments}") String segments,
+                                 @Value("${log-shipper.checkpoint}") String checkpoint,
+                                 @Value("${log-shipper.sink}") String sink,
+                                 @Value("${log-shipper.index-prefix}") String indexPrefix,
+                                 @Value("${log-shipper.document-type}") String documentType,
+                                 @Value("${log-shipper.max-batch-events}") int maxBatchEvents,
+                                 @Value("${log-shipper.max-batch-bytes}") int maxBatchBytes,
+                                 @Value("${log-shipper.poll-millis}") long pollMillis) throws IOException {
+        LogShipper shipper = LogShipper.forSegments(segments)
+                .checkpointTo(Paths.get(checkpoint))
+                .shipTo(LogSink.forTarget(sink, indexPrefix, documentType))
+                .withMaxBatch(maxBatchEvents, maxBatchBytes)
+                .pollEvery(pollMillis, TimeUnit.MILLISECONDS)
+                .build();
+        shipper.registerMetrics(metricRegistry, "log-shipper");
+        shipper.start();
+        return shipper;
+    }
 
     public static void main(String[] args) {
         SpringApplication.run(HelloWorldConfiguration.class, args);
@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -14,12 +15,17 @@ import java.util.concurrent.atomic.AtomicLong;
 @RequestMapping("/hello-world")
 public class HelloWorldController {
 
-    private static final String template = "Hello, %s!";
     private final AtomicLong counter = new AtomicLong();
 
     @Autowired
     private HelloWorldService service;
 
+    @Autowired
+    private SimulatedLatency latency;
+
+    @Autowired
+    private GreetingRenderer renderer;
+
     @RequestMapping(method = RequestMethod.GET)
     @ResponseBody
     Greeting sayHello(@RequestParam(value = "name", required = false, defaultValue = "Stranger") String name) {
@@ -28,7 +34,15 @@ public class HelloWorldController {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        return new Greeting(counter.incrementAndGet(), service.hello() + String.format(template, name));
+        return new Greeting(counter.incrementAndGet(), service.hello(), renderer.render(name));
+    }
+
+    @RequestMapping(value = "/async", method = RequestMethod.GET)
+    @ResponseBody
+    CompletableFuture<Greeting> sayHelloAsync(@RequestParam(value = "name", required = false, defaultValue = "Stranger") String name) {
+        return latency.delay()
+                .thenCompose(ignored -> service.helloAsync())
+                .thenApply(hello -> new Greeting(counter.incrementAndGet(), hello, renderer.render(name)));
     }
 
 }
@@ -1,7 +1,10 @@
 package hello;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -10,13 +13,25 @@ import java.util.concurrent.ThreadLocalRandom;
 @Service
 public class HelloWorldService {
 
+    @Autowired
+    private SimulatedLatency latency;
+
+    @Timed
+    @Hedged(percentile = 0.9, deadlineMillis = 1000)
     public String hello() {
         try {
             Thread.sleep(ThreadLocalRandom.current().nextLong(500));
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            // cancelled, e.g. the losing attempt of a hedged call
+            Thread.currentThread().interrupt();
+            throw new CancellationException("hello() was interrupted");
         }
         return "hi ";
     }
 
+    @Timed
+    public CompletableFuture<String> helloAsync() {
+        return latency.delay().thenApply(ignored -> "hi ");
+    }
+
 }
@@ -0,0 +1,55 @@
+package hello;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The segments of a {@link SegmentFileAppender} {@code fileNamePattern} like {@code /tmp/log.%i.json}, for readers
+ * of the log. A segment is written under its plain name and then replaced by {@code <segment>.gz}; it is never
+ * renamed otherwise, so its sequence number identifies it.
+ */
+class LogSegments {
+
+    private final Path directory;
+    private final Pattern segmentFile;
+
+    LogSegments(String fileNamePattern) {
+        final String[] parts = fileNamePattern.split("%i", -1);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("fileNamePattern must contain %i once: " + fileNamePattern);
+        }
+        final Path prefix = Paths.get(parts[0]).toAbsolutePath();
+        this.directory = prefix.getParent();
+        this.segmentFile = Pattern.compile(Pattern.quote(prefix.getFileName().toString()) + "(\\d+)" + Pattern.quote(parts[1]) + "(\\.gz)?");
+    }
+
+    /**
+     * @return the segments after the given sequence number by sequence; a compressed segment replaces the plain one
+     */
+    TreeMap<Long, Path> after(long sequence) throws IOException {
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                final Matcher matcher = segmentFile.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    final long number = Long.parseLong(matcher.group(1));
+                    if (number > sequence && (matcher.group(2) != null || !segments.containsKey(number))) {
+                        segments.put(number, path);
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+
+    static boolean isCompressed(Path segment) {
+        return segment.getFileName().toString().endsWith(".gz");
+    }
+
+}
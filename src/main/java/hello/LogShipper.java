@@ -0,0 +1,617 @@
+package hello;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Ships the JSON lines of the {@link SegmentFileAppender} segments to a {@link LogSink}, in place of the file input
+ * of Logstash. It runs embedded in the application with {@code log-shipper.enabled=true}, or on its own:
+ *
+ * <pre>
+ * java -Dloader.main=hello.LogShipper -cp target/gs-actuator-service-0.1.0.jar \
+ *     org.springframework.boot.loader.PropertiesLauncher [--sink stdout|file:&lt;path&gt;|http://localhost:9200] \
+ *     [--index-prefix metrics-] [--document-type doc] [--checkpoint /tmp/log-shipper.checkpoint] [--poll-millis 200] /tmp/log.%i.json
+ * </pre>
+ *
+ * Segments are shipped in order of their sequence numbers, the active one through read-only memory mappings of
+ * what was written since the last poll, and compressed ones through {@link GZIPInputStream}. Only complete lines
+ * are shipped, and a NUL byte, the padding of a preallocated segment, ends the written part. A segment is done
+ * once a later one exists, as the appender finishes a segment before it opens the next.
+ *
+ * After every batch the sink accepted, the sequence number, the offset in the segment and the file key (the inode)
+ * of the segment are written to the checkpoint file and forced to disk, so a restarted shipper continues after the
+ * last shipped event. A segment that was compressed in the meantime is read from the same offset of its
+ * uncompressed bytes; one whose file key changed, or a checkpoint ahead of all segments, means the log was
+ * recreated and is shipped from its start. A batch the sink fails to take is sent again with exponential backoff.
+ *
+ * The lag is the number of bytes written but not shipped yet, and the age of the oldest of these events by its
+ * {@code @timestamp}.
+ */
+public class LogShipper {
+
+    /**
+     * Returns a new {@link Builder} for {@link LogShipper}.
+     *
+     * @param fileNamePattern the {@code fileNamePattern} of the {@link SegmentFileAppender}, e.g. {@code /tmp/log.%i.json}
+     * @return a {@link Builder} instance for a {@link LogShipper}
+     */
+    public static Builder forSegments(String fileNamePattern) {
+        return new Builder(fileNamePattern);
+    }
+
+    /**
+     * A builder for {@link LogShipper} instances. Defaults to shipping to standard out, checkpointing to
+     * {@code /tmp/log-shipper.checkpoint}, batches of up to 1000 events or 1 MB and polling every 200 ms.
+     */
+    public static class Builder {
+        private final String fileNamePattern;
+        private Path checkpoint;
+        private LogSink sink;
+        private int maxBatchEvents;
+        private int maxBatchBytes;
+        private long pollMillis;
+        private long maxBackoffMillis;
+
+        private Builder(String fileNamePattern) {
+            this.fileNamePattern = fileNamePattern;
+            this.checkpoint = Paths.get("/tmp/log-shipper.checkpoint");
+            this.maxBatchEvents = 1000;
+            this.maxBatchBytes = 1024 * 1024;
+            this.pollMillis = 200;
+            this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(30);
+        }
+
+        /**
+         * @param checkpoint the file the shipped position is kept in
+         * @return {@code this}
+         */
+        public Builder checkpointTo(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            return this;
+        }
+
+        /**
+         * @param sink where the events go
+         * @return {@code this}
+         */
+        public Builder shipTo(LogSink sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * @param maxEvents events per batch
+         * @param maxBytes  bytes per batch, a larger event is a batch of its own
+         * @return {@code this}
+         */
+        public Builder withMaxBatch(int maxEvents, int maxBytes) {
+            this.maxBatchEvents = maxEvents;
+            this.maxBatchBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param poll how long to wait for new events once all are shipped, and the first backoff after a failure
+         * @param unit the unit of {@code poll}
+         * @return {@code this}
+         */
+        public Builder pollEvery(long poll, TimeUnit unit) {
+            this.pollMillis = unit.toMillis(poll);
+            return this;
+        }
+
+        /**
+         * Builds a {@link LogShipper} with the given properties, continuing from the checkpoint if there is one.
+         *
+         * @return a {@link LogShipper}
+         */
+        public LogShipper build() throws IOException {
+            return new LogShipper(this, sink != null ? sink : LogSink.forTarget("stdout", null, null));
+        }
+    }
+
+    private static final byte[] TIMESTAMP = "\"@timestamp\":\"".getBytes(StandardCharsets.US_ASCII);
+
+    /* the mapped window of the active segment */
+    private static final int MAX_MAPPED_BYTES = 64 * 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(LogShipper.class);
+
+    private final LogSegments segments;
+    private final Path checkpoint;
+    private final LogSink sink;
+    private final int maxBatchEvents;
+    private final int maxBatchBytes;
+    private final long pollMillis;
+    private final long maxBackoffMillis;
+
+    private final LogSink.Batch batch = new LogSink.Batch();
+    private final Counter shippedEvents = new Counter();
+
+    /* the position after the last shipped event, 0 before the first segment */
+    private long sequence;
+    private long position;
+    private String fileKey;
+
+    /* the plain segment being read, open while it is compressed and deleted */
+    private FileChannel channel;
+
+    private volatile long lagBytes;
+    private volatile long oldestUnshippedMillis = -1;
+    private long lastShippedMillis = -1;
+
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private Thread thread;
+
+    private LogShipper(Builder builder, LogSink sink) throws IOException {
+        this.segments = new LogSegments(builder.fileNamePattern);
+        this.checkpoint = builder.checkpoint;
+        this.sink = sink;
+        this.maxBatchEvents = builder.maxBatchEvents;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.pollMillis = builder.pollMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        readCheckpoint();
+    }
+
+    public static void main(String[] args) throws Exception {
+        // the log of the application must not be configured here, its appender would compress the active segment
+        System.setProperty("logback.configurationFile", "logback-shipper.xml");
+        String target = "stdout";
+        String indexPrefix = "metrics-";
+        String documentType = "doc";
+        Path checkpoint = Paths.get("/tmp/log-shipper.checkpoint");
+        long pollMillis = 200;
+        String fileNamePattern = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--sink".equals(args[i]) && i + 1 < args.length) {
+                target = args[++i];
+            } else if ("--index-prefix".equals(args[i]) && i + 1 < args.length) {
+                indexPrefix = args[++i];
+            } else if ("--document-type".equals(args[i]) && i + 1 < args.length) {
+                documentType = args[++i];
+            } else if ("--checkpoint".equals(args[i]) && i + 1 < args.length) {
+                checkpoint = Paths.get(args[++i]);
+            } else if ("--poll-millis".equals(args[i]) && i + 1 < args.length) {
+                pollMillis = Long.parseLong(args[++i]);
+            } else if (args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            } else {
+                fileNamePattern = args[i];
+            }
+        }
+        if (fileNamePattern == null) {
+            System.err.println("usage: LogShipper [--sink stdout|file:<path>|<elasticsearch url>] [--index-prefix metrics-] "
+                    + "[--document-type doc] [--checkpoint /tmp/log-shipper.checkpoint] [--poll-millis 200] <fileNamePattern with %i>");
+            System.exit(1);
+        }
+
+        final LogShipper shipper = forSegments(fileNamePattern)
+                .shipTo(LogSink.forTarget(target, indexPrefix, documentType))
+                .checkpointTo(checkpoint)
+                .pollEvery(pollMillis, TimeUnit.MILLISECONDS)
+                .build();
+        Runtime.getRuntime().addShutdownHook(new Thread(shipper::stop, "log-shipper-shutdown"));
+        shipper.run();
+    }
+
+    /**
+     * Registers the lag and the number of shipped events as {@code <prefix>.lag-bytes}, {@code <prefix>.lag-seconds}
+     * and {@code <prefix>.events}.
+     */
+    public void registerMetrics(MetricRegistry registry, String prefix) {
+        registry.register(MetricRegistry.name(prefix, "lag-bytes"), (Gauge<Long>) this::getLagBytes);
+        registry.register(MetricRegistry.name(prefix, "lag-seconds"), (Gauge<Double>) this::getLagSeconds);
+        registry.register(MetricRegistry.name(prefix, "events"), shippedEvents);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "log-shipper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops shipping after the batch in flight and closes the sink.
+     */
+    public void stop() {
+        stopped.countDown();
+        final Thread shipping;
+        synchronized (this) {
+            shipping = thread;
+            thread = null;
+        }
+        if (shipping != null && shipping != Thread.currentThread()) {
+            try {
+                shipping.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeChannel();
+            try {
+                sink.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the log sink", e);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes written to the segments but not shipped yet, as of the last poll
+     */
+    public long getLagBytes() {
+        return lagBytes;
+    }
+
+    /**
+     * @return the age of the oldest event not shipped yet, 0 when all are shipped
+     */
+    public double getLagSeconds() {
+        final long oldest = oldestUnshippedMillis;
+        return lagBytes == 0 || oldest < 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest) / 1000.0;
+    }
+
+    public long getShippedEvents() {
+        return shippedEvents.getCount();
+    }
+
+    /* ships until stopped, the batch in flight is not interrupted */
+    private void run() {
+        long backoffMillis = pollMillis;
+        try {
+            while (stopped.getCount() > 0) {
+                try {
+                    final int shipped = shipAvailable();
+                    backoffMillis = pollMillis;
+                    if (shipped == 0) {
+                        stopped.await(pollMillis, TimeUnit.MILLISECONDS);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Failed to ship the log, retrying in {} ms", backoffMillis, e);
+                    stopped.await(backoffMillis, TimeUnit.MILLISECONDS);
+                    backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ships the complete events written since the last call and measures the lag.
+     *
+     * @return the number of events shipped
+     */
+    synchronized int shipAvailable() throws IOException {
+        final long shippedBefore = shippedEvents.getCount();
+        try {
+            while (true) {
+                final TreeMap<Long, Path> pending = segments.after(sequence - 1);
+                if (pending.isEmpty()) {
+                    if (sequence > 0 && !segments.after(0).isEmpty()) {
+                        logger.warn("The log segments were recreated behind checkpoint {}:{}, shipping them from the start", sequence, position);
+                        moveTo(0);
+                        continue;
+                    }
+                    return (int) (shippedEvents.getCount() - shippedBefore);
+                }
+                if (pending.firstKey() != sequence) {
+                    if (sequence > 0) {
+                        logger.warn("Log segment {} was deleted before it was shipped from {}", sequence, position);
+                    }
+                    moveTo(pending.firstKey());
+                }
+                final Path path = pending.get(sequence);
+                // the appender finishes a segment before it opens the next
+                final boolean finished = pending.size() > 1;
+                if (LogSegments.isCompressed(path)) {
+                    closeChannel();
+                    if (position < uncompressedSize(path)) {
+                        shipCompressed(path);
+                    }
+                } else if (!shipPlain(path)) {
+                    // compressed in the meantime
+                    continue;
+                }
+                if (!finished) {
+                    return (int) (shippedEvents.getCount() - shippedBefore);
+                }
+                moveTo(pending.higherKey(sequence));
+            }
+        } finally {
+            measureLag();
+        }
+    }
+
+    private void moveTo(long next) {
+        closeChannel();
+        sequence = next;
+        position = 0;
+        fileKey = null;
+    }
+
+    /* returns false if the segment no longer exists */
+    private boolean shipPlain(Path path) throws IOException {
+        if (channel == null) {
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            final String key = fileKey(path);
+            if (fileKey != null && !fileKey.equals(key)) {
+                logger.warn("Log segment {} was recreated, shipping it from the start", path);
+                position = 0;
+            }
+            fileKey = key;
+        }
+        while (true) {
+            final long size = channel.size();
+            if (position >= size) {
+                return true;
+            }
+            final int window = (int) Math.min(size - position, MAX_MAPPED_BYTES);
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+            final int consumed;
+            try {
+                consumed = shipLines(mapped);
+            } finally {
+                SegmentFileAppender.unmap(mapped);
+            }
+            // an incomplete line or the padding of a preallocated segment
+            if (consumed < window || consumed == 0) {
+                return true;
+            }
+        }
+    }
+
+    private void shipCompressed(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path), 64 * 1024)) {
+            long skip = position;
+            while (skip > 0) {
+                final long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    return;
+                }
+                skip -= skipped;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+            int read;
+            while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                buffer.position(buffer.position() + read);
+                buffer.flip();
+                final int consumed = shipLines(buffer);
+                if (consumed < buffer.limit() && buffer.get(consumed) == 0) {
+                    return;
+                }
+                buffer.position(consumed);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    // a single event, such as a snapshot of the whole registry, fills the buffer
+                    if (buffer.capacity() >= MAX_MAPPED_BYTES) {
+                        throw new IOException("Event longer than " + buffer.capacity() + " bytes at " + path + ":" + position);
+                    }
+                    buffer.flip();
+                    buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_MAPPED_BYTES)).put(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ships the complete lines from the start of the buffer, which holds the segment from {@link #position}, in
+     * batches.
+     *
+     * @return the number of bytes shipped
+     */
+    private int shipLines(ByteBuffer buffer) throws IOException {
+        final int start = buffer.position();
+        int lineStart = start;
+        batch.reset(sequence, position);
+        for (int i = start; i < buffer.limit(); i++) {
+            final byte b = buffer.get(i);
+            if (b == 0 && i == lineStart) {
+                break;
+            }
+            if (b == '\n') {
+                if (batch.lines() > 0 && (batch.lines() == maxBatchEvents || batch.length() + i + 1 - lineStart > maxBatchBytes)) {
+                    ship();
+                }
+                buffer.position(lineStart);
+                batch.add(buffer, i + 1 - lineStart);
+                lineStart = i + 1;
+            }
+        }
+        ship();
+        return lineStart - start;
+    }
+
+    private void ship() throws IOException {
+        if (batch.lines() == 0) {
+            return;
+        }
+        sink.send(batch);
+        position += batch.length();
+        shippedEvents.inc(batch.lines());
+        lastShippedMillis = timestamp(batch.bytes(), batch.lineStart(batch.lines() - 1), batch.length());
+        writeCheckpoint();
+        batch.reset(sequence, position);
+    }
+
+    private void measureLag() {
+        try {
+            long lag = 0;
+            for (Map.Entry<Long, Path> segment : segments.after(sequence - 1).entrySet()) {
+                final long from = segment.getKey() == sequence ? position : 0;
+                final Path path = segment.getValue();
+                final long size = LogSegments.isCompressed(path) ? uncompressedSize(path)
+                        : segment.getKey() == sequence && channel != null ? writtenSize(channel, from) : writtenSize(path, from);
+                lag += Math.max(0, size - from);
+            }
+            lagBytes = lag;
+            oldestUnshippedMillis = lag > 0 ? nextTimestamp() : -1;
+        } catch (IOException e) {
+            logger.debug("Failed to measure the lag of the log shipper", e);
+        }
+    }
+
+    /* the @timestamp of the next event in the plain segment, else that of the last shipped one */
+    private long nextTimestamp() throws IOException {
+        if (channel != null) {
+            final ByteBuffer start = ByteBuffer.allocate(128);
+            channel.read(start, position);
+            final long timestamp = timestamp(start.array(), 0, start.position());
+            if (timestamp >= 0) {
+                return timestamp;
+            }
+        }
+        return lastShippedMillis;
+    }
+
+    /**
+     * @return the {@code @timestamp} of the event in the given bytes in epoch millis, or -1
+     */
+    static long timestamp(byte[] bytes, int start, int end) {
+        for (int i = start; i + TIMESTAMP.length < end; i++) {
+            if (regionMatches(bytes, i, TIMESTAMP)) {
+                final int from = i + TIMESTAMP.length;
+                int to = from;
+                while (to < end && bytes[to] != '"') {
+                    to++;
+                }
+                try {
+                    return OffsetDateTime.parse(new String(bytes, from, to - from, StandardCharsets.US_ASCII)).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, byte[] region) {
+        for (int i = 0; i < region.length; i++) {
+            if (bytes[offset + i] != region[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long writtenSize(Path path, long from) throws IOException {
+        try (FileChannel segment = FileChannel.open(path, StandardOpenOption.READ)) {
+            return writtenSize(segment, from);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    /* events never contain NUL bytes, so the written part ends where the padding of a preallocated segment starts */
+    private static long writtenSize(FileChannel segment, long from) throws IOException {
+        final ByteBuffer one = ByteBuffer.allocate(1);
+        long low = from;
+        long high = segment.size();
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            one.clear();
+            if (segment.read(one, middle) == 1 && one.get(0) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /* the size gzip keeps in the last 4 bytes, modulo 4 GB, which is far more than a segment */
+    private static long uncompressedSize(Path path) throws IOException {
+        try (FileChannel compressed = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            compressed.read(trailer, Math.max(0, compressed.size() - 4));
+            return trailer.position() == 4 ? trailer.getInt(0) & 0xFFFFFFFFL : 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private static String fileKey(Path path) throws IOException {
+        final Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        return key != null ? key.toString() : null;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // read-only
+            }
+            channel = null;
+        }
+    }
+
+    private void readCheckpoint() throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpoint)) {
+            properties.load(in);
+        }
+        sequence = Long.parseLong(properties.getProperty("sequence", "0"));
+        position = Long.parseLong(properties.getProperty("position", "0"));
+        fileKey = properties.getProperty("fileKey");
+    }
+
+    /* written next to the checkpoint, forced to disk and moved over it */
+    private void writeCheckpoint() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("sequence", Long.toString(sequence));
+        properties.setProperty("position", Long.toString(position));
+        if (fileKey != null) {
+            properties.setProperty("fileKey", fileKey);
+        }
+        final Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final OutputStream out = Channels.newOutputStream(file);
+            properties.store(out, null);
+            out.flush();
+            file.force(true);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
@@ -0,0 +1,297 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Where {@link LogShipper} sends the events of the log. {@link #send(Batch)} returns once the batch is stored at
+ * the destination; the shipper only then moves its checkpoint past it, and sends the batch again after a failure.
+ */
+public interface LogSink extends Closeable {
+
+    void send(Batch batch) throws IOException;
+
+    /**
+     * @param target      {@code stdout}, {@code file:<path>} or the url of Elasticsearch, e.g. {@code http://localhost:9200}
+     * @param indexPrefix  the prefix of the daily indices of Elasticsearch
+     * @param documentType the {@code _type} of the documents in Elasticsearch, {@code null} to omit it (Elasticsearch 7 and later)
+     * @return the sink for the target
+     */
+    static LogSink forTarget(String target, String indexPrefix, String documentType) throws IOException {
+        if ("stdout".equals(target)) {
+            return new StreamSink(new FileOutputStream(FileDescriptor.out));
+        } else if (target.startsWith("file:")) {
+            return new FileSink(Paths.get(target.substring("file:".length())));
+        } else if (target.startsWith("http://") || target.startsWith("https://")) {
+            return new BulkSink(target, indexPrefix, documentType, 10000);
+        }
+        throw new IllegalArgumentException("Unknown log sink " + target);
+    }
+
+    /**
+     * Consecutive lines of one segment, each a JSON event ending with a newline. The bytes are reused for the next
+     * batch once {@link #send(Batch)} returns.
+     */
+    final class Batch {
+
+        private byte[] bytes = new byte[64 * 1024];
+        private int length;
+        private int[] lineStarts = new int[1024];
+        private int lines;
+        private long sequence;
+        private long position;
+
+        /** the events, {@code length()} bytes of complete lines */
+        public byte[] bytes() {
+            return bytes;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int lines() {
+            return lines;
+        }
+
+        /** the offset of a line in {@link #bytes()} */
+        public int lineStart(int line) {
+            return lineStarts[line];
+        }
+
+        /** the sequence number of the segment */
+        public long sequence() {
+            return sequence;
+        }
+
+        /** the offset of the first line in the segment; with the sequence number, lines have a unique position */
+        public long position() {
+            return position;
+        }
+
+        void reset(long sequence, long position) {
+            this.sequence = sequence;
+            this.position = position;
+            length = 0;
+            lines = 0;
+        }
+
+        void add(ByteBuffer source, int lineLength) {
+            if (length + lineLength > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + lineLength, bytes.length * 2));
+            }
+            if (lines == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lines * 2);
+            }
+            lineStarts[lines++] = length;
+            source.get(bytes, length, lineLength);
+            length += lineLength;
+        }
+    }
+
+    /* standard out, or another stream that is durable once flushed */
+    class StreamSink implements LogSink {
+
+        private final OutputStream out;
+
+        StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void send(Batch batch) throws IOException {
+            out.write(batch.bytes(), 0, batch.length());
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /* appends to a file and forces the lines to disk */
+    class FileSink implements LogSink {
+
+        private final FileChannel channel;
+
+        FileSink(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public void send(Batch batch) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(batch.bytes(), 0, batch.length());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Indexes the events with the Elasticsearch {@code _bulk} API into daily indices by their {@code @timestamp}, like
+     * the Logstash pipeline, with gzipped bodies. The id of a document is the position of its line, so a batch
+     * sent again after a failure overwrites the documents it already created instead of duplicating them.
+     *
+     * Like the split filter of {@code logstash.conf}, a {@code SNAPSHOT} event of the {@link LogstashReporter} becomes a
+     * document per metric with the fields of the event and the metric, and without {@code metrics} and {@code size}.
+     * Its documents have the id of the line followed by the index of the metric.
+     */
+    class BulkSink implements LogSink {
+
+        private static final DateTimeFormatter INDEX_DATE = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+
+        private static final byte[] SNAPSHOT = "\"type\":\"SNAPSHOT\"".getBytes(StandardCharsets.US_ASCII);
+
+        private final String url;
+        private final String indexPrefix;
+        private final String typeField;
+        private final int timeoutMillis;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(256 * 1024);
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        BulkSink(String url, String indexPrefix, String documentType, int timeoutMillis) {
+            this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            this.indexPrefix = indexPrefix;
+            this.typeField = documentType == null || documentType.isEmpty() ? "" : ",\"_type\":\"" + documentType + "\"";
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void send(Batch batch) throws IOException {
+            body.reset();
+            try (OutputStream out = new GZIPOutputStream(body, 64 * 1024)) {
+                for (int line = 0; line < batch.lines(); line++) {
+                    final int start = batch.lineStart(line);
+                    final int end = line + 1 < batch.lines() ? batch.lineStart(line + 1) : batch.length();
+                    final String index = indexPrefix + indexDate(batch.bytes(), start, end);
+                    final String id = batch.sequence() + "-" + (batch.position() + start);
+                    if (contains(batch.bytes(), start, end, SNAPSHOT)) {
+                        writeSnapshot(out, index, id, batch.bytes(), start, end);
+                    } else {
+                        writeAction(out, index, id);
+                        out.write(batch.bytes(), start, end - start);
+                    }
+                }
+            }
+
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url + "/_bulk").openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-ndjson");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(body.size());
+            try {
+                try (OutputStream out = connection.getOutputStream()) {
+                    body.writeTo(out);
+                }
+                final int status = connection.getResponseCode();
+                final String response = read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+                // items that failed are in the response of an otherwise successful request
+                if (status / 100 != 2 || response.contains("\"errors\":true")) {
+                    throw new IOException("Bulk request failed with status " + status + ": "
+                            + response.substring(0, Math.min(response.length(), 500)));
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void writeAction(OutputStream out, String index, String id) throws IOException {
+            out.write(("{\"index\":{\"_index\":\"" + index + "\"" + typeField + ",\"_id\":\"" + id + "\"}}\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        /* a document per metric of a SNAPSHOT event */
+        private void writeSnapshot(OutputStream out, String index, String id, byte[] bytes, int start, int end) throws IOException {
+            final JsonNode event = objectMapper.readTree(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            if (!(event instanceof ObjectNode) || !event.path("metrics").isArray()) {
+                writeAction(out, index, id);
+                out.write(bytes, start, end - start);
+                return;
+            }
+            final ObjectNode fields = (ObjectNode) event;
+            final JsonNode metrics = fields.remove("metrics");
+            fields.remove("size");
+            for (int i = 0; i < metrics.size(); i++) {
+                final ObjectNode document = fields.deepCopy();
+                if (metrics.get(i).isObject()) {
+                    document.setAll((ObjectNode) metrics.get(i));
+                }
+                writeAction(out, index, id + "-" + i);
+                out.write(objectMapper.writeValueAsBytes(document));
+                out.write('\n');
+            }
+        }
+
+        private static boolean contains(byte[] bytes, int start, int end, byte[] value) {
+            outer:
+            for (int i = start; i <= end - value.length; i++) {
+                for (int j = 0; j < value.length; j++) {
+                    if (bytes[i + j] != value[j]) {
+                        continue outer;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /* the UTC date of the @timestamp of a line, or of now */
+        private static String indexDate(byte[] bytes, int start, int end) {
+            final long timestamp = LogShipper.timestamp(bytes, start, end);
+            final Instant instant = timestamp >= 0 ? Instant.ofEpochMilli(timestamp) : Instant.now();
+            return INDEX_DATE.format(instant);
+        }
+
+        private static String read(InputStream in) throws IOException {
+            if (in == null) {
+                return "";
+            }
+            try (InputStream stream = in) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
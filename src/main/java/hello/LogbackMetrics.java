@@ -0,0 +1,54 @@
+package hello;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Registers gauges for the {@link RingBufferAppender}s configured in {@code logback.xml}, which are created
+ * by logback before the {@link MetricRegistry} exists.
+ */
+@Component
+public class LogbackMetrics {
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @PostConstruct
+    public void registerAppenderGauges() {
+        final ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+        if (!(loggerFactory instanceof LoggerContext)) {
+            return;
+        }
+        final Map<RingBufferAppender, Boolean> registered = new IdentityHashMap<>();
+        for (Logger logger : ((LoggerContext) loggerFactory).getLoggerList()) {
+            final Iterator<Appender<ILoggingEvent>> appenders = logger.iteratorForAppenders();
+            while (appenders.hasNext()) {
+                final Appender<ILoggingEvent> appender = appenders.next();
+                if (appender instanceof RingBufferAppender && registered.put((RingBufferAppender) appender, Boolean.TRUE) == null) {
+                    register((RingBufferAppender) appender);
+                }
+            }
+        }
+    }
+
+    private void register(RingBufferAppender appender) {
+        final String prefix = MetricRegistry.name("logback", appender.getName());
+        metricRegistry.register(MetricRegistry.name(prefix, "queue-depth"), (Gauge<Integer>) appender::getQueueDepth);
+        metricRegistry.register(MetricRegistry.name(prefix, "capacity"), (Gauge<Integer>) appender::getCapacity);
+        metricRegistry.register(MetricRegistry.name(prefix, "dropped"), (Gauge<Long>) appender::getDroppedCount);
+    }
+
+}
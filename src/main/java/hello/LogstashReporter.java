@@ -5,11 +5,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.SortedMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static net.logstash.logback.argument.StructuredArguments.raw;
 
 /**
  * A reporter class for logging metrics values to a SLF4J {@link Logger} periodically, similar to
@@ -30,6 +35,13 @@ public class LogstashReporter extends ScheduledReporter {
 
     public enum LoggingLevel {TRACE, DEBUG, INFO, WARN, ERROR}
 
+    /**
+     * {@code EVENT_PER_METRIC} logs one event per metric. {@code SNAPSHOT} logs the whole registry as one
+     * event per tick (or per chunk of metrics), carrying the metrics as a raw JSON array in its
+     * {@code metrics} field.
+     */
+    public enum Format {EVENT_PER_METRIC, SNAPSHOT}
+
     /**
      * A builder for {@link hello.LogstashReporter} instances. Defaults to logging to {@code metrics}, not
      * using a marker, converting rates to events/second, converting durations to milliseconds, and
@@ -44,6 +56,11 @@ public class LogstashReporter extends ScheduledReporter {
         private TimeUnit rateUnit;
         private TimeUnit durationUnit;
         private MetricFilter filter;
+        private hello.LogstashReporter.Format format;
+        private int snapshotChunkSize;
+        private boolean skipUnchanged;
+        private boolean reportDeltas;
+        private int keyframeInterval;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -54,6 +71,11 @@ public class LogstashReporter extends ScheduledReporter {
             this.durationUnit = TimeUnit.MILLISECONDS;
             this.filter = MetricFilter.ALL;
             this.loggingLevel = hello.LogstashReporter.LoggingLevel.INFO;
+            this.format = hello.LogstashReporter.Format.EVENT_PER_METRIC;
+            this.snapshotChunkSize = 0;
+            this.skipUnchanged = false;
+            this.reportDeltas = false;
+            this.keyframeInterval = 0;
         }
 
         /**
@@ -133,6 +155,65 @@ public class LogstashReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Use the given format when reporting.
+         *
+         * @param format a {@link LogstashReporter.Format}
+         * @return {@code this}
+         */
+        public hello.LogstashReporter.Builder withFormat(hello.LogstashReporter.Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Split {@link Format#SNAPSHOT} reports into events of at most the given number of metrics.
+         *
+         * @param snapshotChunkSize metrics per event, {@code 0} for a single event per report
+         * @return {@code this}
+         */
+        public hello.LogstashReporter.Builder withSnapshotChunkSize(int snapshotChunkSize) {
+            this.snapshotChunkSize = snapshotChunkSize;
+            return this;
+        }
+
+        /**
+         * Do not report metrics whose count (or gauge value) did not change since the previous report.
+         *
+         * @param skipUnchanged whether to skip unchanged metrics
+         * @return {@code this}
+         */
+        public hello.LogstashReporter.Builder skipUnchanged(boolean skipUnchanged) {
+            this.skipUnchanged = skipUnchanged;
+            return this;
+        }
+
+        /**
+         * Report changed counters, histograms, meters and timers as {@code DELTA} events with the count
+         * delta and the rate over the report interval instead of their cumulative values. Unchanged
+         * metrics are skipped.
+         *
+         * @param reportDeltas whether to report deltas
+         * @return {@code this}
+         */
+        public hello.LogstashReporter.Builder reportDeltas(boolean reportDeltas) {
+            this.reportDeltas = reportDeltas;
+            return this;
+        }
+
+        /**
+         * When skipping unchanged metrics or reporting deltas, report every metric in full every given
+         * number of reports, so downstream consumers can recover the cumulative values. The first
+         * report is always a keyframe.
+         *
+         * @param keyframeInterval reports between keyframes, {@code 0} for only the first report
+         * @return {@code this}
+         */
+        public hello.LogstashReporter.Builder withKeyframeInterval(int keyframeInterval) {
+            this.keyframeInterval = keyframeInterval;
+            return this;
+        }
+
         /**
          * Builds a {@link hello.LogstashReporter} with the given properties.
          *
@@ -158,13 +239,35 @@ public class LogstashReporter extends ScheduledReporter {
                     loggerProxy = new hello.LogstashReporter.DebugLoggerProxy(logger);
                     break;
             }
-            return new hello.LogstashReporter(registry, loggerProxy, marker, prefix, rateUnit, durationUnit, filter);
+            return new hello.LogstashReporter(registry, loggerProxy, marker, prefix, rateUnit, durationUnit, filter, format, snapshotChunkSize,
+                    skipUnchanged, reportDeltas, keyframeInterval);
         }
     }
 
+    /* the state of a metric at the previous report it was in */
+    private static final class PreviousValue {
+        private long count;
+        private Object value;
+        private long report;
+    }
+
     private final hello.LogstashReporter.LoggerProxy loggerProxy;
     private final Marker marker;
     private final String prefix;
+    private final hello.LogstashReporter.Format format;
+    private final int snapshotChunkSize;
+    private final MetricsJsonWriter jsonWriter;
+    private final boolean trackChanges;
+    private final boolean reportDeltas;
+    private final int keyframeInterval;
+
+    /* state of the current report, guarded by report() */
+    private final StringBuilder snapshotBuffer = new StringBuilder(64 * 1024);
+    private final Map<String, PreviousValue> previousValues = new HashMap<>();
+    private long reports;
+    private long lastReportNanos = System.nanoTime();
+    private double intervalSeconds;
+    private boolean keyframe;
 
     private LogstashReporter(MetricRegistry registry,
                              hello.LogstashReporter.LoggerProxy loggerProxy,
@@ -172,42 +275,260 @@ public class LogstashReporter extends ScheduledReporter {
                              String prefix,
                              TimeUnit rateUnit,
                              TimeUnit durationUnit,
-                             MetricFilter filter) {
+                             MetricFilter filter,
+                             hello.LogstashReporter.Format format,
+                             int snapshotChunkSize,
+                             boolean skipUnchanged,
+                             boolean reportDeltas,
+                             int keyframeInterval) {
         super(registry, "logger-reporter", filter, rateUnit, durationUnit);
         this.loggerProxy = loggerProxy;
         this.marker = marker;
         this.prefix = prefix;
+        this.format = format;
+        this.snapshotChunkSize = snapshotChunkSize > 0 ? snapshotChunkSize : Integer.MAX_VALUE;
+        this.jsonWriter = new MetricsJsonWriter(prefix, rateUnit, durationUnit);
+        this.trackChanges = skipUnchanged || reportDeltas;
+        this.reportDeltas = reportDeltas;
+        this.keyframeInterval = keyframeInterval;
     }
 
     @Override
-    public void report(SortedMap<String, Gauge> gauges,
-                       SortedMap<String, Counter> counters,
-                       SortedMap<String, Histogram> histograms,
-                       SortedMap<String, Meter> meters,
-                       SortedMap<String, Timer> timers) {
-        if (loggerProxy.isEnabled(marker)) {
-            for (Entry<String, Gauge> entry : gauges.entrySet()) {
-                logGauge(entry.getKey(), entry.getValue());
+    public synchronized void report(SortedMap<String, Gauge> gauges,
+                                    SortedMap<String, Counter> counters,
+                                    SortedMap<String, Histogram> histograms,
+                                    SortedMap<String, Meter> meters,
+                                    SortedMap<String, Timer> timers) {
+        startReport();
+        if (!loggerProxy.isEnabled(marker)) {
+            return;
+        }
+        final Output output = format == hello.LogstashReporter.Format.SNAPSHOT ? new SnapshotOutput() : new EventOutput();
+        for (Entry<String, Gauge> entry : gauges.entrySet()) {
+            if (changed(entry.getKey(), entry.getValue().getValue())) {
+                output.gauge(entry.getKey(), entry.getValue());
             }
+        }
+        reportCounted(counters, "COUNTER", output, output::counter);
+        reportCounted(histograms, "HISTOGRAM", output, output::histogram);
+        reportCounted(meters, "METER", output, output::meter);
+        reportCounted(timers, "TIMER", output, output::timer);
+        output.end();
+        evictRemoved();
+    }
 
-            for (Entry<String, Counter> entry : counters.entrySet()) {
-                logCounter(entry.getKey(), entry.getValue());
+    /**
+     * Reports metrics with a count in full on keyframes and when changes are not tracked, not at all
+     * when their count did not change, and otherwise in full or as delta.
+     */
+    private <T extends Counting> void reportCounted(SortedMap<String, T> metrics, String metricType, Output output, BiConsumer<String, T> full) {
+        for (Entry<String, T> entry : metrics.entrySet()) {
+            final String name = entry.getKey();
+            final long delta = delta(name, entry.getValue().getCount());
+            if (keyframe || !trackChanges) {
+                full.accept(name, entry.getValue());
+            } else if (delta != 0) {
+                if (reportDeltas) {
+                    output.delta(metricType, name, delta);
+                } else {
+                    full.accept(name, entry.getValue());
+                }
             }
+        }
+    }
 
-            for (Entry<String, Histogram> entry : histograms.entrySet()) {
-                logHistogram(entry.getKey(), entry.getValue());
-            }
+    /**
+     * Decides whether the current report is a keyframe, which logs every metric in full, and measures
+     * the interval since the previous report for interval rates.
+     */
+    private void startReport() {
+        final long now = System.nanoTime();
+        intervalSeconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+        keyframe = reports == 0 || (keyframeInterval > 0 && reports % keyframeInterval == 0);
+        reports++;
+    }
+
+    /**
+     * Remembers the count of a metric and returns its change since the previous report, the whole count
+     * for a new metric.
+     */
+    private long delta(String name, long count) {
+        if (!trackChanges) {
+            return count;
+        }
+        final PreviousValue previous = previousValues.computeIfAbsent(name, key -> new PreviousValue());
+        final long delta = count - previous.count;
+        previous.count = count;
+        previous.report = reports;
+        return delta;
+    }
+
+    /**
+     * Gauges have no count, they are reported in full whenever their value changed.
+     */
+    private boolean changed(String name, Object value) {
+        if (!trackChanges) {
+            return true;
+        }
+        final PreviousValue previous = previousValues.computeIfAbsent(name, key -> new PreviousValue());
+        // reports start at 1, so a new metric was never reported
+        final boolean changed = previous.report == 0 || !Objects.equals(previous.value, value);
+        previous.value = value;
+        previous.report = reports;
+        return keyframe || changed;
+    }
+
+    /* forgets metrics that were removed from the registry or no longer match the filter */
+    private void evictRemoved() {
+        if (trackChanges) {
+            previousValues.values().removeIf(previous -> previous.report != reports);
+        }
+    }
+
+    private double intervalRate(long delta) {
+        return intervalSeconds > 0 ? convertRate(delta / intervalSeconds) : 0;
+    }
 
-            for (Entry<String, Meter> entry : meters.entrySet()) {
-                logMeter(entry.getKey(), entry.getValue());
+    /* where a report goes */
+    private interface Output {
+
+        void gauge(String name, Gauge gauge);
+
+        void counter(String name, Counter counter);
+
+        void histogram(String name, Histogram histogram);
+
+        void meter(String name, Meter meter);
+
+        void timer(String name, Timer timer);
+
+        void delta(String metricType, String name, long delta);
+
+        void end();
+    }
+
+    /* one event per metric */
+    private final class EventOutput implements Output {
+
+        @Override
+        public void gauge(String name, Gauge gauge) {
+            logGauge(name, gauge);
+        }
+
+        @Override
+        public void counter(String name, Counter counter) {
+            logCounter(name, counter);
+        }
+
+        @Override
+        public void histogram(String name, Histogram histogram) {
+            logHistogram(name, histogram);
+        }
+
+        @Override
+        public void meter(String name, Meter meter) {
+            logMeter(name, meter);
+        }
+
+        @Override
+        public void timer(String name, Timer timer) {
+            logTimer(name, timer);
+        }
+
+        @Override
+        public void delta(String metricType, String name, long delta) {
+            logDelta(metricType, name, delta);
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    /* the metrics array of SNAPSHOT events, logged whenever a chunk is full */
+    private final class SnapshotOutput implements Output {
+
+        private final StringBuilder out = snapshotBuffer;
+        private int chunk;
+
+        SnapshotOutput() {
+            out.setLength(0);
+        }
+
+        @Override
+        public void gauge(String name, Gauge gauge) {
+            jsonWriter.writeGauge(separate(), name, gauge);
+            next();
+        }
+
+        @Override
+        public void counter(String name, Counter counter) {
+            jsonWriter.writeCounter(separate(), name, counter);
+            next();
+        }
+
+        @Override
+        public void histogram(String name, Histogram histogram) {
+            jsonWriter.writeHistogram(separate(), name, histogram);
+            next();
+        }
+
+        @Override
+        public void meter(String name, Meter meter) {
+            jsonWriter.writeMeter(separate(), name, meter);
+            next();
+        }
+
+        @Override
+        public void timer(String name, Timer timer) {
+            jsonWriter.writeTimer(separate(), name, timer);
+            next();
+        }
+
+        @Override
+        public void delta(String metricType, String name, long delta) {
+            jsonWriter.writeDelta(separate(), metricType, name, delta, intervalRate(delta));
+            next();
+        }
+
+        @Override
+        public void end() {
+            if (chunk > 0) {
+                logSnapshot(out, chunk);
             }
+        }
+
+        private StringBuilder separate() {
+            out.append(out.length() == 0 ? '[' : ',');
+            return out;
+        }
 
-            for (Entry<String, Timer> entry : timers.entrySet()) {
-                logTimer(entry.getKey(), entry.getValue());
+        private void next() {
+            if (++chunk == snapshotChunkSize) {
+                logSnapshot(out, chunk);
+                chunk = 0;
             }
         }
     }
 
+    private void logSnapshot(StringBuilder out, int size) {
+        out.append(']');
+        loggerProxy.log(marker, "SNAPSHOT: {}, {}", keyValue("type", "SNAPSHOT"), keyValue("size", size), raw("metrics", out.toString()));
+        out.setLength(0);
+    }
+
+    private void logDelta(String metricType, String name, long delta) {
+        loggerProxy.log(marker,
+                "DELTA: {}, {}, {}, {}, {}, {}",
+                keyValue("type", "DELTA"),
+                keyValue("metric_type", metricType),
+                keyValue("name", prefix(name)),
+                keyValue("count_delta", delta),
+                keyValue("interval_rate", intervalRate(delta)),
+                keyValue("rate_unit", getRateUnit()));
+    }
+
     private void logTimer(String name, Timer timer) {
         final Snapshot snapshot = timer.getSnapshot();
         loggerProxy.log(marker,
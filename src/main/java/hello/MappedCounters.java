@@ -0,0 +1,404 @@
+package hello;
+
+import sun.misc.Unsafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A memory-mapped file of metric values with a fixed layout, written in place by {@link MappedCountersReporter}
+ * and read by other processes on the host without any coordination with the writer:
+ *
+ * <pre>
+ * java -Dloader.main=hello.MappedCounters -cp target/gs-actuator-service-0.1.0.jar \
+ *     org.springframework.boot.loader.PropertiesLauncher [--watch &lt;seconds&gt;] [--prefix &lt;name&gt;] /tmp/metrics.counters
+ * </pre>
+ *
+ * The file is a 128 byte header followed by {@code capacity} records of 256 bytes, all in native byte order:
+ *
+ * <pre>
+ * header   0 int magic   4 int layout version   8 int capacity   12 int records in use
+ *         16 long start time millis   24 long pid   32 int rate unit   36 int duration unit (TimeUnit ordinals)
+ * record   0 int type   4 int label length   8 label, UTF-8, up to 120 bytes
+ *        128 long sequence   136 15 long values, the count as a long, other fields as double bits
+ * </pre>
+ *
+ * The header is complete once the magic is set, and a record once the number of records in use covers it; neither
+ * changes afterwards. The values are guarded by a sequence lock: the single writer makes the sequence odd, writes
+ * the values and makes it even again, so a reader that sees the same even sequence before and after copying the
+ * values has a consistent copy and otherwise tries again. The values of a record share its last two cache lines
+ * with the sequence and nothing else. A new file replaces the old one rather than overwriting it, so a reader
+ * holding the old mapping keeps seeing the last values of the previous run.
+ */
+public class MappedCounters implements Closeable {
+
+    static final String[] GAUGE_FIELDS = {"value"};
+    static final String[] COUNTER_FIELDS = {"count"};
+    static final String[] METER_FIELDS = {"count", "mean_rate", "m1", "m5", "m15"};
+    static final String[] HISTOGRAM_FIELDS = {"count", "min", "max", "mean", "stddev", "median", "p75", "p95", "p98", "p99", "p999"};
+    static final String[] TIMER_FIELDS = {"count", "min", "max", "mean", "stddev", "median", "p75", "p95", "p98", "p99", "p999",
+            "mean_rate", "m1", "m5", "m15"};
+
+    /* by the type of a record */
+    private static final String[] TYPES = {"GAUGE", "COUNTER", "METER", "HISTOGRAM", "TIMER"};
+    private static final String[][] FIELDS = {GAUGE_FIELDS, COUNTER_FIELDS, METER_FIELDS, HISTOGRAM_FIELDS, TIMER_FIELDS};
+
+    static final int MAGIC = 0x4D435452;
+    static final int LAYOUT_VERSION = 1;
+
+    static final int HEADER_LENGTH = 128;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int RECORDS_OFFSET = 12;
+    private static final int START_TIME_OFFSET = 16;
+    private static final int PID_OFFSET = 24;
+    private static final int RATE_UNIT_OFFSET = 32;
+    private static final int DURATION_UNIT_OFFSET = 36;
+
+    static final int RECORD_LENGTH = 256;
+    private static final int TYPE_OFFSET = 0;
+    private static final int LABEL_LENGTH_OFFSET = 4;
+    private static final int LABEL_OFFSET = 8;
+    static final int MAX_LABEL_LENGTH = 120;
+    private static final int SEQUENCE_OFFSET = 128;
+    private static final int VALUES_OFFSET = 136;
+    static final int MAX_VALUES = 15;
+
+    /* spins of a reader on a record the writer is updating before it gives up, e.g. because the writer died */
+    private static final int MAX_READ_ATTEMPTS = 10_000;
+
+    private static final Unsafe UNSAFE;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            final Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            UNSAFE = (Unsafe) theUnsafe.get(null);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final int capacity;
+    private final boolean writable;
+
+    private MappedCounters(MappedByteBuffer buffer, int capacity, boolean writable) {
+        this.buffer = buffer;
+        this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+        this.capacity = capacity;
+        this.writable = writable;
+    }
+
+    /**
+     * Creates a new file for the writer, replacing an existing one.
+     */
+    public static MappedCounters create(Path path, int capacity, TimeUnit rateUnit, TimeUnit durationUnit) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) capacity * RECORD_LENGTH);
+        }
+        final MappedCounters counters = new MappedCounters(buffer, capacity, true);
+        UNSAFE.putInt(counters.address + VERSION_OFFSET, LAYOUT_VERSION);
+        UNSAFE.putInt(counters.address + CAPACITY_OFFSET, capacity);
+        UNSAFE.putLong(counters.address + START_TIME_OFFSET, System.currentTimeMillis());
+        UNSAFE.putLong(counters.address + PID_OFFSET, currentPid());
+        UNSAFE.putInt(counters.address + RATE_UNIT_OFFSET, rateUnit.ordinal());
+        UNSAFE.putInt(counters.address + DURATION_UNIT_OFFSET, durationUnit.ordinal());
+        UNSAFE.putOrderedInt(null, counters.address + MAGIC_OFFSET, MAGIC);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return counters;
+    }
+
+    /**
+     * Opens the file of a writer for reading.
+     */
+    public static MappedCounters open(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) {
+                throw new IOException("Not a counters file: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final long address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+        final int magic = UNSAFE.getIntVolatile(null, address + MAGIC_OFFSET);
+        final int version = UNSAFE.getInt(address + VERSION_OFFSET);
+        final int capacity = UNSAFE.getInt(address + CAPACITY_OFFSET);
+        if (magic != MAGIC || version != LAYOUT_VERSION || HEADER_LENGTH + (long) capacity * RECORD_LENGTH > buffer.capacity()) {
+            SegmentFileAppender.unmap(buffer);
+            throw new IOException("Not a counters file of layout " + LAYOUT_VERSION + ": " + path);
+        }
+        return new MappedCounters(buffer, capacity, false);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of records in use, each of them complete
+     */
+    public int records() {
+        return UNSAFE.getIntVolatile(null, address + RECORDS_OFFSET);
+    }
+
+    public long startTime() {
+        return UNSAFE.getLong(address + START_TIME_OFFSET);
+    }
+
+    public long pid() {
+        return UNSAFE.getLong(address + PID_OFFSET);
+    }
+
+    public TimeUnit rateUnit() {
+        return TimeUnit.values()[UNSAFE.getInt(address + RATE_UNIT_OFFSET)];
+    }
+
+    public TimeUnit durationUnit() {
+        return TimeUnit.values()[UNSAFE.getInt(address + DURATION_UNIT_OFFSET)];
+    }
+
+    public String type(int record) {
+        return TYPES[UNSAFE.getInt(recordAddress(record) + TYPE_OFFSET)];
+    }
+
+    public String[] fields(int record) {
+        return FIELDS[UNSAFE.getInt(recordAddress(record) + TYPE_OFFSET)];
+    }
+
+    public String label(int record) {
+        final long recordAddress = recordAddress(record);
+        final byte[] label = new byte[UNSAFE.getInt(recordAddress + LABEL_LENGTH_OFFSET)];
+        for (int i = 0; i < label.length; i++) {
+            label[i] = UNSAFE.getByte(recordAddress + LABEL_OFFSET + i);
+        }
+        return new String(label, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds a record. Labels longer than {@value #MAX_LABEL_LENGTH} bytes are cut and end in {@code ~} and the hash
+     * of the whole label, so long labels that only differ at the end stay apart.
+     *
+     * @param type   {@code GAUGE}, {@code COUNTER}, {@code METER}, {@code HISTOGRAM} or {@code TIMER}
+     * @param label  the name of the metric
+     * @return the new record, or -1 when all records are in use
+     */
+    public int add(String type, String label) {
+        checkWritable();
+        final int record = records();
+        if (record == capacity) {
+            return -1;
+        }
+        final int typeIndex = Arrays.asList(TYPES).indexOf(type);
+        if (typeIndex < 0) {
+            throw new IllegalArgumentException("Unknown metric type " + type);
+        }
+        final byte[] bytes = cut(label);
+        final int length = bytes.length;
+        final long recordAddress = recordAddress(record);
+        UNSAFE.putInt(recordAddress + TYPE_OFFSET, typeIndex);
+        UNSAFE.putInt(recordAddress + LABEL_LENGTH_OFFSET, length);
+        for (int i = 0; i < length; i++) {
+            UNSAFE.putByte(recordAddress + LABEL_OFFSET + i, bytes[i]);
+        }
+        UNSAFE.putOrderedInt(null, address + RECORDS_OFFSET, record + 1);
+        return record;
+    }
+
+    /* the label in UTF-8, cut to MAX_LABEL_LENGTH bytes with the hash of the whole label */
+    private static byte[] cut(String label) {
+        final byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_LABEL_LENGTH) {
+            return bytes;
+        }
+        final byte[] hash = String.format("~%08x", label.hashCode()).getBytes(StandardCharsets.US_ASCII);
+        int length = MAX_LABEL_LENGTH - hash.length;
+        // not within the bytes of a character
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        final byte[] cut = Arrays.copyOf(bytes, length + hash.length);
+        System.arraycopy(hash, 0, cut, length, hash.length);
+        return cut;
+    }
+
+    /**
+     * Starts an update of the values of a record, readers try again until {@link #end(int)}.
+     */
+    public void begin(int record) {
+        checkWritable();
+        final long sequence = recordAddress(record) + SEQUENCE_OFFSET;
+        UNSAFE.putOrderedLong(null, sequence, UNSAFE.getLong(sequence) + 1);
+        // the odd sequence is visible before any of the values
+        UNSAFE.storeFence();
+    }
+
+    public void putLong(int record, int field, long value) {
+        UNSAFE.putLong(valueAddress(record, field), value);
+    }
+
+    public void putDouble(int record, int field, double value) {
+        UNSAFE.putLong(valueAddress(record, field), Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Publishes the values written since {@link #begin(int)}.
+     */
+    public void end(int record) {
+        checkWritable();
+        final long sequence = recordAddress(record) + SEQUENCE_OFFSET;
+        UNSAFE.putOrderedLong(null, sequence, UNSAFE.getLong(sequence) + 1);
+    }
+
+    /**
+     * Copies a consistent set of the values of a record, the count as a long and the other fields as double bits.
+     *
+     * @param values at least as long as {@link #fields(int)}
+     * @return {@code false} if the writer did not finish an update in time
+     */
+    public boolean read(int record, long[] values) {
+        final int length = fields(record).length;
+        final long sequenceAddress = recordAddress(record) + SEQUENCE_OFFSET;
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            final long before = UNSAFE.getLongVolatile(null, sequenceAddress);
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            for (int field = 0; field < length; field++) {
+                values[field] = UNSAFE.getLong(sequenceAddress + 8 + field * 8L);
+            }
+            // the values are read before the sequence is read again
+            UNSAFE.loadFence();
+            if (UNSAFE.getLongVolatile(null, sequenceAddress) == before) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        SegmentFileAppender.unmap(buffer);
+    }
+
+    private long recordAddress(int record) {
+        if (record < 0 || record >= capacity) {
+            throw new IndexOutOfBoundsException("record " + record + " of " + capacity);
+        }
+        return address + HEADER_LENGTH + (long) record * RECORD_LENGTH;
+    }
+
+    private long valueAddress(int record, int field) {
+        checkWritable();
+        if (field < 0 || field >= MAX_VALUES) {
+            throw new IndexOutOfBoundsException("field " + field);
+        }
+        return recordAddress(record) + VALUES_OFFSET + field * 8L;
+    }
+
+    /* a write to a read-only mapping crashes the JVM */
+    private void checkWritable() {
+        if (!writable) {
+            throw new IllegalStateException("Opened for reading");
+        }
+    }
+
+    private static long currentPid() {
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('@')));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Prints the metrics of a counters file, once or every {@code --watch} seconds.
+     */
+    public static void main(String[] args) throws Exception {
+        long watchSeconds = 0;
+        String prefix = "";
+        Path path = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--watch".equals(args[i]) && i + 1 < args.length) {
+                watchSeconds = Long.parseLong(args[++i]);
+            } else if ("--prefix".equals(args[i]) && i + 1 < args.length) {
+                prefix = args[++i];
+            } else if (args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            } else {
+                path = Paths.get(args[i]);
+            }
+        }
+        if (path == null) {
+            System.err.println("usage: MappedCounters [--watch <seconds>] [--prefix <name>] <file>");
+            System.exit(1);
+        }
+        while (true) {
+            // opened again every time, a restarted writer replaces the file
+            try (MappedCounters counters = open(path)) {
+                print(counters, prefix, System.out);
+            }
+            if (watchSeconds <= 0) {
+                return;
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(watchSeconds));
+            System.out.println();
+        }
+    }
+
+    static void print(MappedCounters counters, String prefix, PrintStream out) {
+        out.println("# pid " + counters.pid() + " started " + Instant.ofEpochMilli(counters.startTime()) + ", rates per "
+                + counters.rateUnit().toString().toLowerCase() + ", durations in " + counters.durationUnit().toString().toLowerCase());
+        final long[] values = new long[MAX_VALUES];
+        final int records = counters.records();
+        for (int record = 0; record < records; record++) {
+            final String label = counters.label(record);
+            if (!label.startsWith(prefix)) {
+                continue;
+            }
+            final StringBuilder line = new StringBuilder(label).append(' ').append(counters.type(record));
+            if (!counters.read(record, values)) {
+                out.println(line.append(" (being written)"));
+                continue;
+            }
+            final String[] fields = counters.fields(record);
+            for (int field = 0; field < fields.length; field++) {
+                line.append(' ').append(fields[field]).append('=');
+                if ("count".equals(fields[field])) {
+                    line.append(values[field]);
+                } else {
+                    line.append(Double.longBitsToDouble(values[field]));
+                }
+            }
+            out.println(line);
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package hello;
+
+import com.codahale.metrics.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mirrors the registry into a {@link MappedCounters} file, so a sidecar or {@code MappedCounters} on the same host
+ * reads the live values without going through the actuator endpoints, JMX or the log. Every report updates the
+ * records in place; a metric gets its record the first time it is reported and keeps it, also after it was removed
+ * from the registry. Once all records are in use, new metrics are not mirrored.
+ *
+ * Counts, rates and gauges are updated on every report. The snapshot of a histogram or timer is what a report
+ * spends most of its time on, so their minimum, maximum, mean and percentiles are only updated once per summary
+ * interval, and only when the count changed since their last update. A report allocates nothing but the registry's
+ * sorted maps and those snapshots, and readers never slow it down.
+ */
+public class MappedCountersReporter extends ScheduledReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedCountersReporter.class);
+
+    /**
+     * Returns a new {@link Builder} for {@link MappedCountersReporter}.
+     *
+     * @param registry the registry to report
+     * @return a {@link Builder} instance for a {@link MappedCountersReporter}
+     */
+    public static Builder forRegistry(MetricRegistry registry) {
+        return new Builder(registry);
+    }
+
+    /**
+     * A builder for {@link MappedCountersReporter} instances. Defaults to {@code /tmp/metrics.counters} with 4096
+     * records, summaries every 10 seconds, converting rates to events/second, converting durations to milliseconds,
+     * and not filtering metrics.
+     */
+    public static class Builder {
+        private final MetricRegistry registry;
+        private Path path;
+        private int capacity;
+        private long summaryIntervalNanos;
+        private TimeUnit rateUnit;
+        private TimeUnit durationUnit;
+        private MetricFilter filter;
+
+        private Builder(MetricRegistry registry) {
+            this.registry = registry;
+            this.path = Paths.get("/tmp/metrics.counters");
+            this.capacity = 4096;
+            this.summaryIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+            this.rateUnit = TimeUnit.SECONDS;
+            this.durationUnit = TimeUnit.MILLISECONDS;
+            this.filter = MetricFilter.ALL;
+        }
+
+        /**
+         * @param path the counters file, replaced when the reporter is built
+         * @return {@code this}
+         */
+        public Builder mirrorTo(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * @param capacity the number of metrics the file holds, 256 bytes each
+         * @return {@code this}
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Update the summaries of histograms and timers at most once per the given interval, the first report
+         * always updates them.
+         *
+         * @param interval the time between summaries
+         * @param unit     the unit of {@code interval}
+         * @return {@code this}
+         */
+        public Builder summarizeEvery(long interval, TimeUnit unit) {
+            this.summaryIntervalNanos = unit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Convert rates to the given time unit.
+         *
+         * @param rateUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertRatesTo(TimeUnit rateUnit) {
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        /**
+         * Convert durations to the given time unit.
+         *
+         * @param durationUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertDurationsTo(TimeUnit durationUnit) {
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * Only mirror metrics which match the given filter.
+         *
+         * @param filter a {@link MetricFilter}
+         * @return {@code this}
+         */
+        public Builder filter(MetricFilter filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Builds a {@link MappedCountersReporter} with the given properties and creates its file.
+         *
+         * @return a {@link MappedCountersReporter}
+         */
+        public MappedCountersReporter build() throws IOException {
+            return new MappedCountersReporter(registry, MappedCounters.create(path, capacity, rateUnit, durationUnit),
+                    summaryIntervalNanos, rateUnit, durationUnit, filter);
+        }
+    }
+
+    private final MappedCounters mapped;
+    private final long summaryIntervalNanos;
+    private final Map<String, Integer> records = new HashMap<>();
+    /* the count of each histogram and timer record at its last summary */
+    private final long[] summarizedCounts;
+    private long lastSummaryNanos;
+    private boolean summarized;
+    private boolean full;
+    private boolean closed;
+
+    private MappedCountersReporter(MetricRegistry registry, MappedCounters mapped, long summaryIntervalNanos,
+                                   TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter) {
+        super(registry, "mapped-counters-reporter", filter, rateUnit, durationUnit);
+        this.mapped = mapped;
+        this.summaryIntervalNanos = summaryIntervalNanos;
+        this.summarizedCounts = new long[mapped.capacity()];
+    }
+
+    @Override
+    public synchronized void report(SortedMap<String, Gauge> gauges,
+                                    SortedMap<String, Counter> counters,
+                                    SortedMap<String, Histogram> histograms,
+                                    SortedMap<String, Meter> meters,
+                                    SortedMap<String, Timer> timers) {
+        if (closed) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final boolean summarize = !summarized || now - lastSummaryNanos >= summaryIntervalNanos;
+        if (summarize) {
+            summarized = true;
+            lastSummaryNanos = now;
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            final Object value = entry.getValue().getValue();
+            final int record;
+            if (value instanceof Number && (record = record(entry.getKey(), "GAUGE")) >= 0) {
+                mapped.begin(record);
+                mapped.putDouble(record, 0, ((Number) value).doubleValue());
+                mapped.end(record);
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            final int record = record(entry.getKey(), "COUNTER");
+            if (record >= 0) {
+                mapped.begin(record);
+                mapped.putLong(record, 0, entry.getValue().getCount());
+                mapped.end(record);
+            }
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final int record = record(entry.getKey(), "HISTOGRAM");
+            if (record >= 0) {
+                final Histogram histogram = entry.getValue();
+                final long count = histogram.getCount();
+                mapped.begin(record);
+                mapped.putLong(record, 0, count);
+                if (summarize && count != summarizedCounts[record]) {
+                    putSummary(record, histogram.getSnapshot(), false);
+                    summarizedCounts[record] = count;
+                }
+                mapped.end(record);
+            }
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            final int record = record(entry.getKey(), "METER");
+            if (record >= 0) {
+                final Meter meter = entry.getValue();
+                mapped.begin(record);
+                mapped.putLong(record, 0, meter.getCount());
+                putRates(record, 1, meter);
+                mapped.end(record);
+            }
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            final int record = record(entry.getKey(), "TIMER");
+            if (record >= 0) {
+                final Timer timer = entry.getValue();
+                final long count = timer.getCount();
+                mapped.begin(record);
+                mapped.putLong(record, 0, count);
+                if (summarize && count != summarizedCounts[record]) {
+                    putSummary(record, timer.getSnapshot(), true);
+                    summarizedCounts[record] = count;
+                }
+                putRates(record, 11, timer);
+                mapped.end(record);
+            }
+        }
+    }
+
+    /* the minimum, maximum, mean, standard deviation and percentiles in fields 1 to 10 */
+    private void putSummary(int record, Snapshot snapshot, boolean durations) {
+        mapped.putDouble(record, 1, summaryValue(snapshot.getMin(), durations));
+        mapped.putDouble(record, 2, summaryValue(snapshot.getMax(), durations));
+        mapped.putDouble(record, 3, summaryValue(snapshot.getMean(), durations));
+        mapped.putDouble(record, 4, summaryValue(snapshot.getStdDev(), durations));
+        mapped.putDouble(record, 5, summaryValue(snapshot.getMedian(), durations));
+        mapped.putDouble(record, 6, summaryValue(snapshot.get75thPercentile(), durations));
+        mapped.putDouble(record, 7, summaryValue(snapshot.get95thPercentile(), durations));
+        mapped.putDouble(record, 8, summaryValue(snapshot.get98thPercentile(), durations));
+        mapped.putDouble(record, 9, summaryValue(snapshot.get99thPercentile(), durations));
+        mapped.putDouble(record, 10, summaryValue(snapshot.get999thPercentile(), durations));
+    }
+
+    private double summaryValue(double value, boolean durations) {
+        return durations ? convertDuration(value) : value;
+    }
+
+    /* the mean and the moving average rates from the field first */
+    private void putRates(int record, int first, Metered metered) {
+        mapped.putDouble(record, first, convertRate(metered.getMeanRate()));
+        mapped.putDouble(record, first + 1, convertRate(metered.getOneMinuteRate()));
+        mapped.putDouble(record, first + 2, convertRate(metered.getFiveMinuteRate()));
+        mapped.putDouble(record, first + 3, convertRate(metered.getFifteenMinuteRate()));
+    }
+
+    /* the record of a metric, a metric whose type changed gets a new one */
+    private int record(String name, String type) {
+        final Integer record = records.get(name);
+        if (record != null && mapped.type(record).equals(type)) {
+            return record;
+        }
+        if (full) {
+            return -1;
+        }
+        final int added = mapped.add(type, name);
+        if (added < 0) {
+            full = true;
+            LOGGER.warn("All {} records of the counters file are in use, new metrics like {} are not mirrored", mapped.capacity(), name);
+            return -1;
+        }
+        records.put(name, added);
+        return added;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        synchronized (this) {
+            if (!closed) {
+                closed = true;
+                mapped.close();
+            }
+        }
+    }
+
+}
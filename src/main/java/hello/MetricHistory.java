@@ -0,0 +1,510 @@
+package hello;
+
+import com.codahale.metrics.*;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the recent history of every registry metric in memory, so a node can be troubleshot without the
+ * Logstash and Elasticsearch pipeline. {@link MetricHistoryMvcEndpoint} queries it on the management port.
+ *
+ * Every report fills one slot of a ring of {@code capacity} slots; 720 slots at the 5 second interval hold one
+ * hour. A series is one field of a metric, like the p99 of a timer, and is a {@code double[]} of the ring's
+ * size next to the shared {@code long[]} of slot timestamps. The footprint is fixed at 8 bytes per slot and
+ * series, and a report allocates nothing but the registry's snapshots. A slot a metric missed holds
+ * {@code NaN}. Series of metrics that were removed from the registry are dropped once the ring has no value of
+ * them left.
+ *
+ * A timer takes 40 KB at 720 slots, so at most {@code maxMetrics} metrics are recorded. Once that many are, new
+ * metrics are left out until removed ones were dropped; the metrics recorded first keep their history.
+ */
+public class MetricHistory extends ScheduledReporter {
+
+    /**
+     * Returns a new {@link Builder} for {@link MetricHistory}.
+     *
+     * @param registry the registry to record
+     * @return a {@link Builder} instance for a {@link MetricHistory}
+     */
+    public static Builder forRegistry(MetricRegistry registry) {
+        return new Builder(registry);
+    }
+
+    /**
+     * How the values of a downsampling step, or of the whole range for a top-N query, are combined.
+     */
+    public enum Aggregation {AVG, MIN, MAX, LAST}
+
+    static final String[] GAUGE_FIELDS = {"value"};
+    static final String[] COUNTER_FIELDS = {"count"};
+    static final String[] METER_FIELDS = {"count", "m1"};
+    static final String[] HISTOGRAM_FIELDS = {"count", "mean", "median", "p95", "p99", "max"};
+    static final String[] TIMER_FIELDS = {"count", "m1", "mean", "median", "p95", "p99", "max"};
+
+    /**
+     * A builder for {@link MetricHistory} instances. Defaults to 720 slots, at most 500 metrics, converting rates
+     * to events/second, converting durations to milliseconds, and not filtering metrics.
+     */
+    public static class Builder {
+        private final MetricRegistry registry;
+        private int capacity;
+        private int maxMetrics;
+        private Clock clock;
+        private TimeUnit rateUnit;
+        private TimeUnit durationUnit;
+        private MetricFilter filter;
+
+        private Builder(MetricRegistry registry) {
+            this.registry = registry;
+            this.capacity = 720;
+            this.maxMetrics = 500;
+            this.clock = Clock.defaultClock();
+            this.rateUnit = TimeUnit.SECONDS;
+            this.durationUnit = TimeUnit.MILLISECONDS;
+            this.filter = MetricFilter.ALL;
+        }
+
+        /**
+         * Keeps the last {@code capacity} reports.
+         *
+         * @param capacity the number of slots of every series
+         * @return {@code this}
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Records at most {@code maxMetrics} metrics.
+         *
+         * @param maxMetrics the maximum number of metrics with a history
+         * @return {@code this}
+         */
+        public Builder withMaxMetrics(int maxMetrics) {
+            this.maxMetrics = maxMetrics;
+            return this;
+        }
+
+        /**
+         * Use the given {@link Clock} for the timestamps of the reports.
+         *
+         * @param clock a {@link Clock} instance
+         * @return {@code this}
+         */
+        public Builder withClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Convert rates to the given time unit.
+         *
+         * @param rateUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertRatesTo(TimeUnit rateUnit) {
+            this.rateUnit = rateUnit;
+            return this;
+        }
+
+        /**
+         * Convert durations to the given time unit.
+         *
+         * @param durationUnit a unit of time
+         * @return {@code this}
+         */
+        public Builder convertDurationsTo(TimeUnit durationUnit) {
+            this.durationUnit = durationUnit;
+            return this;
+        }
+
+        /**
+         * Only record metrics which match the given filter.
+         *
+         * @param filter a {@link MetricFilter}
+         * @return {@code this}
+         */
+        public Builder filter(MetricFilter filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Builds a {@link MetricHistory} with the given properties.
+         *
+         * @return a {@link MetricHistory}
+         */
+        public MetricHistory build() {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            if (maxMetrics < 0) {
+                throw new IllegalArgumentException("maxMetrics must not be negative: " + maxMetrics);
+            }
+            return new MetricHistory(registry, capacity, maxMetrics, clock, rateUnit, durationUnit, filter);
+        }
+    }
+
+    private final int capacity;
+    private final int maxMetrics;
+    private final Clock clock;
+    private final long[] timestamps;
+    private final Map<String, Series> series = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /* reports recorded so far, the next one goes to slot ticks % capacity */
+    private long ticks;
+
+    private MetricHistory(MetricRegistry registry, int capacity, int maxMetrics, Clock clock, TimeUnit rateUnit, TimeUnit durationUnit,
+                          MetricFilter filter) {
+        super(registry, "metric-history", filter, rateUnit, durationUnit);
+        this.capacity = capacity;
+        this.maxMetrics = maxMetrics;
+        this.clock = clock;
+        this.timestamps = new long[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void report(SortedMap<String, Gauge> gauges,
+                       SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms,
+                       SortedMap<String, Meter> meters,
+                       SortedMap<String, Timer> timers) {
+        final long timestamp = clock.getTime();
+        lock.writeLock().lock();
+        try {
+            final int slot = (int) (ticks % capacity);
+            timestamps[slot] = timestamp;
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                final Object value = entry.getValue().getValue();
+                final Series values = value instanceof Number ? series(entry.getKey(), "GAUGE", GAUGE_FIELDS) : null;
+                if (values != null) {
+                    values.set(0, slot, ((Number) value).doubleValue());
+                }
+            }
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                final Series values = series(entry.getKey(), "COUNTER", COUNTER_FIELDS);
+                if (values != null) {
+                    values.set(0, slot, entry.getValue().getCount());
+                }
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                final Series values = series(entry.getKey(), "HISTOGRAM", HISTOGRAM_FIELDS);
+                if (values == null) {
+                    continue;
+                }
+                final Histogram histogram = entry.getValue();
+                final Snapshot snapshot = histogram.getSnapshot();
+                values.set(0, slot, histogram.getCount());
+                values.set(1, slot, snapshot.getMean());
+                values.set(2, slot, snapshot.getMedian());
+                values.set(3, slot, snapshot.get95thPercentile());
+                values.set(4, slot, snapshot.get99thPercentile());
+                values.set(5, slot, snapshot.getMax());
+            }
+            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+                final Series values = series(entry.getKey(), "METER", METER_FIELDS);
+                if (values == null) {
+                    continue;
+                }
+                final Meter meter = entry.getValue();
+                values.set(0, slot, meter.getCount());
+                values.set(1, slot, convertRate(meter.getOneMinuteRate()));
+            }
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                final Series values = series(entry.getKey(), "TIMER", TIMER_FIELDS);
+                if (values == null) {
+                    continue;
+                }
+                final Timer timer = entry.getValue();
+                final Snapshot snapshot = timer.getSnapshot();
+                values.set(0, slot, timer.getCount());
+                values.set(1, slot, convertRate(timer.getOneMinuteRate()));
+                values.set(2, slot, convertDuration(snapshot.getMean()));
+                values.set(3, slot, convertDuration(snapshot.getMedian()));
+                values.set(4, slot, convertDuration(snapshot.get95thPercentile()));
+                values.set(5, slot, convertDuration(snapshot.get99thPercentile()));
+                values.set(6, slot, convertDuration(snapshot.getMax()));
+            }
+            final Iterator<Series> iterator = series.values().iterator();
+            while (iterator.hasNext()) {
+                final Series values = iterator.next();
+                if (values.lastTick != ticks) {
+                    if (ticks - values.lastTick >= capacity) {
+                        iterator.remove();
+                    } else {
+                        values.clear(slot);
+                    }
+                }
+            }
+            ticks++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* the series of the metric, null if it isn't recorded yet and maxMetrics are */
+    private Series series(String name, String type, String[] fields) {
+        Series values = series.get(name);
+        if (values == null && series.size() >= maxMetrics) {
+            return null;
+        }
+        if (values == null || values.fields != fields) {
+            values = new Series(type, fields, capacity);
+            series.put(name, values);
+        }
+        values.lastTick = ticks;
+        return values;
+    }
+
+    /**
+     * @return the type of every recorded metric by name
+     */
+    public SortedMap<String, String> types() {
+        lock.readLock().lock();
+        try {
+            final SortedMap<String, String> types = new TreeMap<>();
+            for (Map.Entry<String, Series> entry : series.entrySet()) {
+                types.put(entry.getKey(), entry.getValue().type);
+            }
+            return types;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the recorded fields of metrics of the type
+     */
+    public static List<String> fields(String type) {
+        switch (type) {
+            case "GAUGE":
+                return Arrays.asList(GAUGE_FIELDS);
+            case "COUNTER":
+                return Arrays.asList(COUNTER_FIELDS);
+            case "HISTOGRAM":
+                return Arrays.asList(HISTOGRAM_FIELDS);
+            case "METER":
+                return Arrays.asList(METER_FIELDS);
+            case "TIMER":
+                return Arrays.asList(TIMER_FIELDS);
+            default:
+                throw new IllegalArgumentException("Unknown metric type " + type);
+        }
+    }
+
+    /**
+     * The values of one field of a metric between two timestamps, both inclusive. With a positive {@code step},
+     * the values are downsampled to one aggregated point per step, at the start of the step counted from
+     * {@code from}; otherwise every recorded value is a point. Slots without a value are left out.
+     *
+     * @return the points, or {@code null} if the metric isn't recorded or has no such field
+     */
+    public Points query(String name, String field, long from, long to, long step, Aggregation aggregation) {
+        lock.readLock().lock();
+        try {
+            final Series values = series.get(name);
+            final int index = values == null ? -1 : values.indexOf(field);
+            if (index < 0) {
+                return null;
+            }
+            final Points points = new Points(available());
+            final Aggregator aggregator = new Aggregator(aggregation);
+            long bucket = Long.MIN_VALUE;
+            for (long tick = Math.max(0, ticks - capacity); tick < ticks; tick++) {
+                final int slot = (int) (tick % capacity);
+                final long timestamp = timestamps[slot];
+                final double value = values.values[index][slot];
+                if (timestamp < from || timestamp > to || Double.isNaN(value)) {
+                    continue;
+                }
+                final long start = step > 0 ? from + (timestamp - from) / step * step : timestamp;
+                if (start != bucket && aggregator.count > 0) {
+                    points.add(bucket, aggregator.result());
+                }
+                if (start != bucket) {
+                    bucket = start;
+                    aggregator.reset();
+                }
+                aggregator.add(value);
+            }
+            if (aggregator.count > 0) {
+                points.add(bucket, aggregator.result());
+            }
+            return points;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The metrics with the highest values of a field between two timestamps, for example the routes with the
+     * highest p99, each value aggregated over the whole range.
+     *
+     * @return at most {@code n} metric names and their aggregated values, highest first
+     * @throws IllegalArgumentException if {@code n} isn't positive
+     */
+    public List<Map.Entry<String, Double>> top(String field, int n, long from, long to, Aggregation aggregation) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        final List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            final Aggregator aggregator = new Aggregator(aggregation);
+            for (Map.Entry<String, Series> entry : series.entrySet()) {
+                final int index = entry.getValue().indexOf(field);
+                if (index < 0) {
+                    continue;
+                }
+                aggregator.reset();
+                for (long tick = Math.max(0, ticks - capacity); tick < ticks; tick++) {
+                    final int slot = (int) (tick % capacity);
+                    final double value = entry.getValue().values[index][slot];
+                    if (timestamps[slot] >= from && timestamps[slot] <= to && !Double.isNaN(value)) {
+                        aggregator.add(value);
+                    }
+                }
+                if (aggregator.count > 0) {
+                    ranked.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), aggregator.result()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+        return ranked.size() > n ? ranked.subList(0, n) : ranked;
+    }
+
+    private int available() {
+        return (int) Math.min(ticks, capacity);
+    }
+
+    /**
+     * Timestamps and values of a query result, in parallel arrays.
+     */
+    public static final class Points {
+
+        private final long[] timestamps;
+        private final double[] values;
+        private int size;
+
+        Points(int capacity) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+        }
+
+        void add(long timestamp, double value) {
+            timestamps[size] = timestamp;
+            values[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long timestamp(int index) {
+            return timestamps[index];
+        }
+
+        public double value(int index) {
+            return values[index];
+        }
+    }
+
+    private static final class Series {
+
+        final String type;
+        final String[] fields;
+        final double[][] values;
+        long lastTick;
+
+        Series(String type, String[] fields, int capacity) {
+            this.type = type;
+            this.fields = fields;
+            this.values = new double[fields.length][capacity];
+            for (double[] field : values) {
+                Arrays.fill(field, Double.NaN);
+            }
+        }
+
+        void set(int field, int slot, double value) {
+            values[field][slot] = value;
+        }
+
+        void clear(int slot) {
+            for (double[] field : values) {
+                field[slot] = Double.NaN;
+            }
+        }
+
+        int indexOf(String field) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].equals(field)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Aggregator {
+
+        final Aggregation aggregation;
+        double result;
+        int count;
+
+        Aggregator(Aggregation aggregation) {
+            this.aggregation = aggregation;
+        }
+
+        void reset() {
+            result = 0;
+            count = 0;
+        }
+
+        void add(double value) {
+            if (count == 0) {
+                result = value;
+            } else {
+                switch (aggregation) {
+                    case AVG:
+                        result += value;
+                        break;
+                    case MIN:
+                        result = Math.min(result, value);
+                        break;
+                    case MAX:
+                        result = Math.max(result, value);
+                        break;
+                    case LAST:
+                        result = value;
+                        break;
+                }
+            }
+            count++;
+        }
+
+        double result() {
+            return aggregation == Aggregation.AVG ? result / count : result;
+        }
+    }
+
+}
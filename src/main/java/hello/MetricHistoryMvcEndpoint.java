@@ -0,0 +1,205 @@
+package hello;
+
+import org.springframework.boot.actuate.endpoint.mvc.AbstractNamedMvcEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries the {@link MetricHistory} on the management port:
+ *
+ * <ul>
+ * <li>{@code GET /history} lists the recorded metrics and their fields.</li>
+ * <li>{@code GET /history/query?name=/hello-world&field=p99&from=-15m&step=1m&aggregation=max} returns the values
+ * of a field of one or more metrics ({@code name} may repeat), downsampled to one point per step.</li>
+ * <li>{@code GET /history/top?field=p99&n=10&from=-15m} returns the metrics with the highest values of a field,
+ * aggregated over the range, by default with {@code max}.</li>
+ * </ul>
+ *
+ * {@code from} and {@code to} are epoch milliseconds or durations before now like {@code -90s}, {@code -15m} or
+ * {@code -1h}, and default to the whole history. Points are {@code [timestamp, value]} pairs.
+ */
+@ConfigurationProperties(prefix = "endpoints.history")
+public class MetricHistoryMvcEndpoint extends AbstractNamedMvcEndpoint {
+
+    private final MetricHistory history;
+
+    public MetricHistoryMvcEndpoint(MetricHistory history) {
+        super("history", "/history", false);
+        this.history = history;
+    }
+
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Object metrics() {
+        if (!isEnabled()) {
+            return disabled();
+        }
+        final Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : history.types().entrySet()) {
+            final Map<String, Object> metric = new LinkedHashMap<>();
+            metric.put("type", entry.getValue());
+            metric.put("fields", MetricHistory.fields(entry.getValue()));
+            metrics.put(entry.getKey(), metric);
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capacity", history.getCapacity());
+        result.put("metrics", metrics);
+        return result;
+    }
+
+    @RequestMapping(value = "/query", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Object query(@RequestParam("name") List<String> names,
+                        @RequestParam(value = "field", defaultValue = "p99") String field,
+                        @RequestParam(value = "from", required = false) String from,
+                        @RequestParam(value = "to", required = false) String to,
+                        @RequestParam(value = "step", required = false) String step,
+                        @RequestParam(value = "aggregation", defaultValue = "avg") String aggregation) {
+        if (!isEnabled()) {
+            return disabled();
+        }
+        final long now = System.currentTimeMillis();
+        final long fromMillis;
+        final long toMillis;
+        final long stepMillis;
+        final MetricHistory.Aggregation parsedAggregation;
+        try {
+            fromMillis = parseTime(from, now, 0);
+            toMillis = parseTime(to, now, Long.MAX_VALUE);
+            stepMillis = step == null ? 0 : parseDuration(step);
+            parsedAggregation = parseAggregation(aggregation);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        }
+        final Map<String, Object> series = new LinkedHashMap<>();
+        for (String name : names) {
+            final MetricHistory.Points points = history.query(name, field, fromMillis, toMillis, stepMillis, parsedAggregation);
+            if (points != null) {
+                final List<Object[]> values = new ArrayList<>(points.size());
+                for (int i = 0; i < points.size(); i++) {
+                    values.add(new Object[]{points.timestamp(i), points.value(i)});
+                }
+                series.put(name, values);
+            }
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("field", field);
+        result.put("step", stepMillis);
+        result.put("aggregation", aggregation.toLowerCase(Locale.ROOT));
+        result.put("series", series);
+        return result;
+    }
+
+    @RequestMapping(value = "/top", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public Object top(@RequestParam(value = "field", defaultValue = "p99") String field,
+                      @RequestParam(value = "n", defaultValue = "10") int n,
+                      @RequestParam(value = "from", required = false) String from,
+                      @RequestParam(value = "to", required = false) String to,
+                      @RequestParam(value = "aggregation", defaultValue = "max") String aggregation) {
+        if (!isEnabled()) {
+            return disabled();
+        }
+        final long now = System.currentTimeMillis();
+        final List<Map.Entry<String, Double>> ranked;
+        try {
+            ranked = history.top(field, n, parseTime(from, now, 0), parseTime(to, now, Long.MAX_VALUE), parseAggregation(aggregation));
+        } catch (IllegalArgumentException e) {
+            return badRequest(e);
+        }
+        final List<Object> top = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : ranked) {
+            final Map<String, Object> metric = new LinkedHashMap<>();
+            metric.put("name", entry.getKey());
+            metric.put("value", entry.getValue());
+            top.add(metric);
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("field", field);
+        result.put("aggregation", aggregation.toLowerCase(Locale.ROOT));
+        result.put("top", top);
+        return result;
+    }
+
+    private static ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return new ResponseEntity<>(Collections.singletonMap("message", e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
+
+    private static ResponseEntity<Map<String, String>> disabled() {
+        return new ResponseEntity<>(Collections.singletonMap("message", "This endpoint is disabled"), HttpStatus.NOT_FOUND);
+    }
+
+    static MetricHistory.Aggregation parseAggregation(String aggregation) {
+        try {
+            return MetricHistory.Aggregation.valueOf(aggregation.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("aggregation must be one of avg, min, max or last: " + aggregation);
+        }
+    }
+
+    /**
+     * @return epoch milliseconds, {@code -<duration>} counting back from now
+     */
+    static long parseTime(String time, long now, long defaultValue) {
+        if (time == null || time.isEmpty()) {
+            return defaultValue;
+        }
+        if (time.startsWith("-")) {
+            return now - parseDuration(time.substring(1));
+        }
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not epoch milliseconds or a duration before now like -15m: " + time);
+        }
+    }
+
+    /**
+     * @return milliseconds of a duration like {@code 500ms}, {@code 30s}, {@code 15m} or {@code 1h}, plain numbers
+     * are milliseconds
+     */
+    static long parseDuration(String duration) {
+        int end = duration.length();
+        while (end > 0 && !Character.isDigit(duration.charAt(end - 1))) {
+            end--;
+        }
+        final TimeUnit unit;
+        switch (duration.substring(end)) {
+            case "":
+            case "ms":
+                unit = TimeUnit.MILLISECONDS;
+                break;
+            case "s":
+                unit = TimeUnit.SECONDS;
+                break;
+            case "m":
+                unit = TimeUnit.MINUTES;
+                break;
+            case "h":
+                unit = TimeUnit.HOURS;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a duration like 500ms, 30s, 15m or 1h: " + duration);
+        }
+        try {
+            return unit.toMillis(Long.parseLong(duration.substring(0, end)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a duration like 500ms, 30s, 15m or 1h: " + duration);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package hello;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends metrics as compact JSON objects to a caller-supplied {@link StringBuilder}, using the same field
+ * names as the per-metric events of {@link LogstashReporter}. Writing does not go through Jackson or
+ * StructuredArguments, so a reused buffer keeps allocations per metric close to zero.
+ */
+public class MetricsJsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String prefix;
+    private final double rateFactor;
+    private final double durationFactor;
+    private final String rateUnit;
+    private final String durationUnit;
+
+    /**
+     * @param prefix       prefix for all metric names, may be empty
+     * @param rateUnit     the unit rates are converted to
+     * @param durationUnit the unit durations are converted to
+     */
+    public MetricsJsonWriter(String prefix, TimeUnit rateUnit, TimeUnit durationUnit) {
+        this.prefix = prefix;
+        this.rateFactor = rateUnit.toSeconds(1);
+        this.durationFactor = 1.0 / durationUnit.toNanos(1);
+        final String rate = rateUnit.toString().toLowerCase(Locale.US);
+        this.rateUnit = "events/" + rate.substring(0, rate.length() - 1);
+        this.durationUnit = durationUnit.toString().toLowerCase(Locale.US);
+    }
+
+    public void writeGauge(StringBuilder out, String name, Gauge gauge) {
+        start(out, "GAUGE", name);
+        out.append(",\"value\":");
+        value(out, gauge.getValue());
+        out.append('}');
+    }
+
+    public void writeCounter(StringBuilder out, String name, Counter counter) {
+        start(out, "COUNTER", name);
+        field(out, "count", counter.getCount());
+        out.append('}');
+    }
+
+    public void writeHistogram(StringBuilder out, String name, Histogram histogram) {
+        final Snapshot snapshot = histogram.getSnapshot();
+        start(out, "HISTOGRAM", name);
+        field(out, "count", histogram.getCount());
+        field(out, "min", snapshot.getMin());
+        field(out, "max", snapshot.getMax());
+        field(out, "mean", snapshot.getMean());
+        field(out, "stddev", snapshot.getStdDev());
+        field(out, "median", snapshot.getMedian());
+        field(out, "p75", snapshot.get75thPercentile());
+        field(out, "p95", snapshot.get95thPercentile());
+        field(out, "p98", snapshot.get98thPercentile());
+        field(out, "p99", snapshot.get99thPercentile());
+        field(out, "p999", snapshot.get999thPercentile());
+        out.append('}');
+    }
+
+    public void writeMeter(StringBuilder out, String name, Meter meter) {
+        start(out, "METER", name);
+        field(out, "count", meter.getCount());
+        field(out, "mean_rate", meter.getMeanRate() * rateFactor);
+        field(out, "m1", meter.getOneMinuteRate() * rateFactor);
+        field(out, "m5", meter.getFiveMinuteRate() * rateFactor);
+        field(out, "m15", meter.getFifteenMinuteRate() * rateFactor);
+        field(out, "rate_unit", rateUnit);
+        out.append('}');
+    }
+
+    public void writeTimer(StringBuilder out, String name, Timer timer) {
+        final Snapshot snapshot = timer.getSnapshot();
+        start(out, "TIMER", name);
+        field(out, "count", timer.getCount());
+        field(out, "min", snapshot.getMin() * durationFactor);
+        field(out, "max", snapshot.getMax() * durationFactor);
+        field(out, "mean", snapshot.getMean() * durationFactor);
+        field(out, "stddev", snapshot.getStdDev() * durationFactor);
+        field(out, "median", snapshot.getMedian() * durationFactor);
+        field(out, "p75", snapshot.get75thPercentile() * durationFactor);
+        field(out, "p95", snapshot.get95thPercentile() * durationFactor);
+        field(out, "p98", snapshot.get98thPercentile() * durationFactor);
+        field(out, "p99", snapshot.get99thPercentile() * durationFactor);
+        field(out, "p999", snapshot.get999thPercentile() * durationFactor);
+        field(out, "mean_rate", timer.getMeanRate() * rateFactor);
+        field(out, "m1", timer.getOneMinuteRate() * rateFactor);
+        field(out, "m5", timer.getFiveMinuteRate() * rateFactor);
+        field(out, "m15", timer.getFifteenMinuteRate() * rateFactor);
+        field(out, "rate_unit", rateUnit);
+        field(out, "duration_unit", durationUnit);
+        out.append('}');
+    }
+
+    /**
+     * Writes a {@code DELTA} entry with the change of a metric's count over one report interval.
+     */
+    public void writeDelta(StringBuilder out, String metricType, String name, long countDelta, double intervalRate) {
+        start(out, "DELTA", name);
+        field(out, "metric_type", metricType);
+        field(out, "count_delta", countDelta);
+        field(out, "interval_rate", intervalRate);
+        field(out, "rate_unit", rateUnit);
+        out.append('}');
+    }
+
+    private void start(StringBuilder out, String type, String name) {
+        out.append("{\"type\":\"").append(type).append("\",\"name\":\"");
+        if (!prefix.isEmpty()) {
+            escape(out, prefix);
+            out.append('.');
+        }
+        escape(out, name);
+        out.append('"');
+    }
+
+    static void field(StringBuilder out, String name, long value) {
+        out.append(",\"").append(name).append("\":").append(value);
+    }
+
+    static void field(StringBuilder out, String name, double value) {
+        out.append(",\"").append(name).append("\":");
+        number(out, value);
+    }
+
+    static void field(StringBuilder out, String name, String value) {
+        out.append(",\"").append(name).append("\":\"");
+        escape(out, value);
+        out.append('"');
+    }
+
+    static void value(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Double || value instanceof Float) {
+            number(out, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            out.append(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue());
+        } else {
+            out.append('"');
+            escape(out, value.toString());
+            out.append('"');
+        }
+    }
+
+    /* JSON has no representation for NaN and infinity */
+    static void number(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(value);
+        }
+    }
+
+    static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+}
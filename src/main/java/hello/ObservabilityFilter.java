@@ -0,0 +1,142 @@
+package hello;
+
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Does the work of {@link RequestIdFilter}, {@link PathFilter} and {@link PerformanceFilter} in a single
+ * filter: assigns the request id, puts it and the path into the MDC under the same keys and times the
+ * request on the timer of its handler pattern. It runs before all other filters, so their log lines carry
+ * the MDC and their time is included.
+ *
+ * The state of a request lives in a {@link RequestContext} that is reused by the requests of a thread.
+ * Only an async request, whose async dispatch may run on another thread, gets its own copy. A virtual thread
+ * serves a single request, so there it is created per request instead of reused.
+ */
+public class ObservabilityFilter extends OncePerRequestFilter implements Ordered {
+
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 1;
+
+    private static final String CONTEXT_ATTRIBUTE = ObservabilityFilter.class.getName() + ".context";
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Value("${performance.max-routes:100}")
+    private int maxRoutes;
+
+    @Autowired(required = false)
+    private List<RequestLatencyListener> latencyListeners = Collections.emptyList();
+
+    @Autowired(required = false)
+    private TraceSampler traceSampler;
+
+    @Value("${request-id.node:-1}")
+    private int node = -1;
+
+    private RequestRecorder recorder;
+
+    private RequestIdGenerator requestIdGenerator;
+
+    private final ThreadLocal<RequestContext> contexts = ThreadLocal.withInitial(RequestContext::new);
+
+    @Override
+    protected void initFilterBean() {
+        recorder = new RequestRecorder(metricRegistry, maxRoutes, latencyListeners, traceSampler);
+        requestIdGenerator = RequestIdGenerator.forConfiguredNode(node);
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    /**
+     * Also run on the async dispatch that renders a deferred result, with the context of the initial dispatch.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
+
+        RequestContext context = (RequestContext) httpServletRequest.getAttribute(CONTEXT_ATTRIBUTE);
+        final boolean initialDispatch = context == null;
+        if (initialDispatch) {
+            context = VirtualThreads.isCurrentThreadVirtual() ? new RequestContext() : contexts.get();
+            context.start = System.nanoTime();
+            context.path = String.valueOf(httpServletRequest.getRequestURI());
+            context.requestId = httpServletRequest.getHeader(RequestIdFilter.REQUEST_ID_HEADER);
+            if (!RequestIdFilter.isValid(context.requestId)) {
+                context.requestId = requestIdGenerator.next();
+            }
+            httpServletResponse.setHeader(RequestIdFilter.REQUEST_ID_HEADER, context.requestId);
+            context.trace = recorder.startTrace(context.path, context.requestId, context.start);
+        }
+
+        try {
+            MDC.put(RequestIdFilter.REQUEST_ID, context.requestId);
+            MDC.put(PathFilter.PATH, context.path);
+            filterChain.doFilter(httpServletRequest, httpServletResponse);
+        } finally {
+            MDC.remove(PathFilter.PATH);
+            MDC.remove(RequestIdFilter.REQUEST_ID);
+            if (initialDispatch) {
+                if (httpServletRequest.isAsyncStarted()) {
+                    final RequestContext asyncContext = context.copy();
+                    httpServletRequest.setAttribute(CONTEXT_ATTRIBUTE, asyncContext);
+                    httpServletRequest.getAsyncContext().addListener(recorder.recordOnComplete(httpServletRequest, asyncContext.start, asyncContext.trace));
+                    if (context.trace != null) {
+                        Tracing.handOff();
+                    }
+                } else {
+                    recorder.record(httpServletRequest, context.start, context.trace);
+                    if (context.trace != null) {
+                        Tracing.leave();
+                    }
+                }
+                context.clear();
+            }
+        }
+
+    }
+
+    /* the request id, path, start time and trace of the request a thread is currently filtering */
+    private static final class RequestContext {
+
+        String requestId;
+        String path;
+        long start;
+        Tracing.Trace trace;
+
+        RequestContext copy() {
+            final RequestContext copy = new RequestContext();
+            copy.requestId = requestId;
+            copy.path = path;
+            copy.start = start;
+            copy.trace = trace;
+            return copy;
+        }
+
+        void clear() {
+            requestId = null;
+            path = null;
+            trace = null;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package hello;
+
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractNamedMvcEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serves the registry in the OpenMetrics text format for Prometheus on the management port, streamed by
+ * {@link OpenMetricsWriter} straight to the response instead of through the map of all metrics that
+ * {@code /metrics} builds:
+ *
+ * <ul>
+ * <li>{@code GET /openmetrics} writes every metric.</li>
+ * <li>{@code GET /openmetrics?prefix=/hello-world&name=requests} writes the metrics whose registry names start with
+ * one of the prefixes or equal one of the names; both may repeat.</li>
+ * </ul>
+ */
+@ConfigurationProperties(prefix = "endpoints.openmetrics")
+public class OpenMetricsMvcEndpoint extends AbstractNamedMvcEndpoint {
+
+    private final OpenMetricsWriter writer;
+
+    public OpenMetricsMvcEndpoint(MetricRegistry registry) {
+        super("openmetrics", "/openmetrics", false);
+        this.writer = new OpenMetricsWriter(registry);
+    }
+
+    @RequestMapping(method = RequestMethod.GET)
+    public void metrics(@RequestParam(value = "name", required = false) List<String> names,
+                        @RequestParam(value = "prefix", required = false) List<String> prefixes,
+                        HttpServletResponse response) throws IOException {
+        if (!isEnabled()) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "This endpoint is disabled");
+            return;
+        }
+        response.setContentType(OpenMetricsWriter.CONTENT_TYPE);
+        writer.write(names, prefixes, response.getOutputStream());
+    }
+
+}
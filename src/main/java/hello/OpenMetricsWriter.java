@@ -0,0 +1,409 @@
+package hello;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Streams the metrics of a registry in the OpenMetrics text format to an {@link OutputStream}, without building a
+ * model of the registry first. Counters and meters are counters, numeric gauges are gauges, and histograms and
+ * timers are summaries with the quantiles of their snapshot; timers are in seconds.
+ *
+ * Metric names become OpenMetrics names by dropping leading characters other than letters, digits and {@code _}
+ * and replacing every other run of them with {@code _}, so {@code /hello-world#hello} is {@code hello_world_hello}.
+ * A timer's name ends in {@code _seconds}. A name is taken together with the names of its samples, like
+ * {@code _total} of a counter and {@code _count} of a summary, and a metric whose names are already taken by
+ * another one gets a {@code _2}, {@code _3}, ... suffix.
+ *
+ * The writer listens to the registry and keeps its metrics, with their encoded names, in a sorted index, so
+ * writing the metrics of a prefix only visits those metrics. Names are released when their metric is removed.
+ * Lines are written through a reused buffer of each thread, so a scrape allocates little beyond the snapshots of
+ * the histograms and timers.
+ */
+public class OpenMetricsWriter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final byte[] TYPE = ascii("# TYPE ");
+    private static final byte[] UNIT = ascii("# UNIT ");
+    private static final byte[] COUNTER = ascii(" counter\n");
+    private static final byte[] GAUGE = ascii(" gauge\n");
+    private static final byte[] SUMMARY = ascii(" summary\n");
+    private static final byte[] SECONDS_UNIT = ascii(" seconds\n");
+    private static final byte[] TOTAL = ascii("_total ");
+    private static final byte[] COUNT = ascii("_count ");
+    private static final byte[] EOF = ascii("# EOF\n");
+    private static final byte[][] QUANTILES = {ascii("{quantile=\"0.5\"} "), ascii("{quantile=\"0.75\"} "),
+            ascii("{quantile=\"0.95\"} "), ascii("{quantile=\"0.98\"} "), ascii("{quantile=\"0.99\"} "), ascii("{quantile=\"0.999\"} ")};
+
+    private static final double SECONDS_PER_NANOSECOND = 1e-9;
+
+    /* the metrics of the registry by metric name, and the metric name by every OpenMetrics name it takes */
+    private final ConcurrentNavigableMap<String, Indexed> index = new ConcurrentSkipListMap<>();
+    private final Map<String, String> owners = new HashMap<>();
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    /**
+     * Indexes the metrics of the registry, now and as they are added and removed, for as long as the registry lives.
+     */
+    public OpenMetricsWriter(MetricRegistry registry) {
+        registry.addListener(new IndexListener());
+    }
+
+    /**
+     * Writes every metric, followed by {@code # EOF}. The stream is flushed but not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        write(null, null, out);
+    }
+
+    /**
+     * Writes the metrics whose registry names equal one of the names or start with one of the prefixes, followed by
+     * {@code # EOF}, or every metric when both are empty. The stream is flushed but not closed.
+     */
+    public void write(Collection<String> names, Collection<String> prefixes, OutputStream out) throws IOException {
+        final Buffer buffer = buffers.get();
+        buffer.out = out;
+        try {
+            if ((names == null || names.isEmpty()) && (prefixes == null || prefixes.isEmpty())) {
+                for (Indexed metric : index.values()) {
+                    write(buffer, metric);
+                }
+            } else {
+                final List<String> starts = distinctPrefixes(prefixes);
+                for (String prefix : starts) {
+                    for (Map.Entry<String, Indexed> entry : index.tailMap(prefix).entrySet()) {
+                        if (!entry.getKey().startsWith(prefix)) {
+                            break;
+                        }
+                        write(buffer, entry.getValue());
+                    }
+                }
+                if (names != null) {
+                    for (String name : new HashSet<>(names)) {
+                        final Indexed metric = index.get(name);
+                        if (metric != null && !startsWithAny(name, starts)) {
+                            write(buffer, metric);
+                        }
+                    }
+                }
+            }
+            buffer.write(EOF);
+            buffer.flush();
+        } finally {
+            buffer.out = null;
+            // the rest of a failed scrape
+            buffer.length = 0;
+        }
+    }
+
+    /* the prefixes that no other prefix covers, so no metric is written twice */
+    private static List<String> distinctPrefixes(Collection<String> prefixes) {
+        if (prefixes == null || prefixes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> sorted = new ArrayList<>(prefixes);
+        Collections.sort(sorted);
+        final List<String> distinct = new ArrayList<>(sorted.size());
+        for (String prefix : sorted) {
+            if (!startsWithAny(prefix, distinct)) {
+                distinct.add(prefix);
+            }
+        }
+        return distinct;
+    }
+
+    private static boolean startsWithAny(String name, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(Buffer buffer, Indexed indexed) throws IOException {
+        final Metric metric = indexed.metric;
+        if (metric instanceof Counter) {
+            writeCounter(buffer, indexed.name, ((Counter) metric).getCount());
+        } else if (metric instanceof Meter) {
+            writeCounter(buffer, indexed.name, ((Meter) metric).getCount());
+        } else if (metric instanceof Timer) {
+            final Timer timer = (Timer) metric;
+            writeSummary(buffer, indexed.name, true, timer.getSnapshot(), timer.getCount());
+        } else if (metric instanceof Histogram) {
+            final Histogram histogram = (Histogram) metric;
+            writeSummary(buffer, indexed.name, false, histogram.getSnapshot(), histogram.getCount());
+        } else if (metric instanceof Gauge) {
+            final Object value = ((Gauge) metric).getValue();
+            if (value instanceof Number) {
+                writeGauge(buffer, indexed.name, ((Number) value).doubleValue());
+            }
+        }
+    }
+
+    private static void writeCounter(Buffer buffer, byte[] name, long count) throws IOException {
+        buffer.write(TYPE);
+        buffer.write(name);
+        buffer.write(COUNTER);
+        buffer.write(name);
+        buffer.write(TOTAL);
+        buffer.writeLong(count);
+        buffer.write('\n');
+    }
+
+    private static void writeGauge(Buffer buffer, byte[] name, double value) throws IOException {
+        buffer.write(TYPE);
+        buffer.write(name);
+        buffer.write(GAUGE);
+        buffer.write(name);
+        buffer.write(' ');
+        buffer.writeDouble(value);
+        buffer.write('\n');
+    }
+
+    private static void writeSummary(Buffer buffer, byte[] name, boolean seconds, Snapshot snapshot, long count) throws IOException {
+        final double factor = seconds ? SECONDS_PER_NANOSECOND : 1;
+        buffer.write(TYPE);
+        buffer.write(name);
+        buffer.write(SUMMARY);
+        if (seconds) {
+            buffer.write(UNIT);
+            buffer.write(name);
+            buffer.write(SECONDS_UNIT);
+        }
+        writeQuantile(buffer, name, 0, snapshot.getMedian() * factor);
+        writeQuantile(buffer, name, 1, snapshot.get75thPercentile() * factor);
+        writeQuantile(buffer, name, 2, snapshot.get95thPercentile() * factor);
+        writeQuantile(buffer, name, 3, snapshot.get98thPercentile() * factor);
+        writeQuantile(buffer, name, 4, snapshot.get99thPercentile() * factor);
+        writeQuantile(buffer, name, 5, snapshot.get999thPercentile() * factor);
+        buffer.write(name);
+        buffer.write(COUNT);
+        buffer.writeLong(count);
+        buffer.write('\n');
+    }
+
+    private static void writeQuantile(Buffer buffer, byte[] name, int quantile, double value) throws IOException {
+        buffer.write(name);
+        buffer.write(QUANTILES[quantile]);
+        buffer.writeDouble(value);
+        buffer.write('\n');
+    }
+
+    /* takes the OpenMetrics name and the sample names of a new metric */
+    private synchronized void add(String metricName, Metric metric, String unit, String... samples) {
+        final String sanitized = sanitize(metricName);
+        final String[] taken = new String[samples.length + 1];
+        for (int suffix = 1; ; suffix++) {
+            final String name = (suffix == 1 ? sanitized : sanitized + '_' + suffix) + unit;
+            taken[0] = name;
+            for (int i = 0; i < samples.length; i++) {
+                taken[i + 1] = name + samples[i];
+            }
+            if (free(taken)) {
+                for (String owned : taken) {
+                    owners.put(owned, metricName);
+                }
+                index.put(metricName, new Indexed(metric, ascii(name), taken));
+                return;
+            }
+        }
+    }
+
+    private boolean free(String[] names) {
+        for (String name : names) {
+            if (owners.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void remove(String metricName) {
+        final Indexed removed = index.remove(metricName);
+        if (removed != null) {
+            for (String owned : removed.taken) {
+                owners.remove(owned);
+            }
+        }
+    }
+
+    static String sanitize(String metricName) {
+        final StringBuilder name = new StringBuilder(metricName.length());
+        boolean separator = false;
+        for (int i = 0; i < metricName.length(); i++) {
+            final char c = metricName.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_') {
+                if (separator && name.length() > 0) {
+                    name.append('_');
+                }
+                separator = false;
+                name.append(c);
+            } else {
+                separator = true;
+            }
+        }
+        if (name.length() == 0 || (name.charAt(0) >= '0' && name.charAt(0) <= '9')) {
+            name.insert(0, '_');
+        }
+        return name.toString();
+    }
+
+    /* a metric of the registry with its encoded OpenMetrics name and all names it takes */
+    private static final class Indexed {
+
+        final Metric metric;
+        final byte[] name;
+        final String[] taken;
+
+        Indexed(Metric metric, byte[] name, String[] taken) {
+            this.metric = metric;
+            this.name = name;
+            this.taken = taken;
+        }
+    }
+
+    private final class IndexListener implements MetricRegistryListener {
+
+        @Override
+        public void onGaugeAdded(String name, Gauge<?> gauge) {
+            add(name, gauge, "");
+        }
+
+        @Override
+        public void onGaugeRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onCounterAdded(String name, Counter counter) {
+            add(name, counter, "", "_total");
+        }
+
+        @Override
+        public void onCounterRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onHistogramAdded(String name, Histogram histogram) {
+            add(name, histogram, "", "_count");
+        }
+
+        @Override
+        public void onHistogramRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onMeterAdded(String name, Meter meter) {
+            add(name, meter, "", "_total");
+        }
+
+        @Override
+        public void onMeterRemoved(String name) {
+            remove(name);
+        }
+
+        @Override
+        public void onTimerAdded(String name, Timer timer) {
+            add(name, timer, "_seconds", "_count");
+        }
+
+        @Override
+        public void onTimerRemoved(String name) {
+            remove(name);
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /* the lines of one scrape, flushed to the stream whenever the buffer is full */
+    private static final class Buffer {
+
+        private final byte[] bytes = new byte[16 * 1024];
+        private final StringBuilder number = new StringBuilder(32);
+        private int length;
+        private OutputStream out;
+
+        void write(byte[] value) throws IOException {
+            if (length + value.length > bytes.length) {
+                flushBuffer();
+                if (value.length > bytes.length) {
+                    out.write(value);
+                    return;
+                }
+            }
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        void write(char c) throws IOException {
+            if (length == bytes.length) {
+                flushBuffer();
+            }
+            bytes[length++] = (byte) c;
+        }
+
+        void writeLong(long value) throws IOException {
+            number.setLength(0);
+            number.append(value);
+            writeNumber();
+        }
+
+        void writeDouble(double value) throws IOException {
+            number.setLength(0);
+            if (Double.isNaN(value)) {
+                number.append("NaN");
+            } else if (Double.isInfinite(value)) {
+                number.append(value > 0 ? "+Inf" : "-Inf");
+            } else {
+                number.append(value);
+            }
+            writeNumber();
+        }
+
+        private void writeNumber() throws IOException {
+            if (length + number.length() > bytes.length) {
+                flushBuffer();
+            }
+            for (int i = 0; i < number.length(); i++) {
+                bytes[length++] = (byte) number.charAt(i);
+            }
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(bytes, 0, length);
+            length = 0;
+        }
+    }
+
+}
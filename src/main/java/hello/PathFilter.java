@@ -16,6 +16,14 @@ public class PathFilter extends OncePerRequestFilter {
 
     public static final String PATH = "PATH";
 
+    /**
+     * Also run on the async dispatch that renders a deferred result, so its log lines carry the path.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
 
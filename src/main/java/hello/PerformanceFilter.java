@@ -1,8 +1,9 @@
 package hello;
 
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.Timer;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.FilterChain;
@@ -10,25 +11,58 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by osiefart on 04.02.17.
  */
 public class PerformanceFilter extends OncePerRequestFilter {
 
+    /**
+     * Route used for requests that no Spring MVC handler pattern matched.
+     */
+    public static final String UNMATCHED_ROUTE = "unmatched";
+
     @Autowired
     private MetricRegistry metricRegistry;
 
+    @Value("${performance.max-routes:100}")
+    private int maxRoutes;
+
+    @Autowired(required = false)
+    private List<RequestLatencyListener> latencyListeners = Collections.emptyList();
+
+    @Autowired(required = false)
+    private TraceSampler traceSampler;
+
+    private RequestRecorder recorder;
+
+    @Override
+    protected void initFilterBean() {
+        recorder = new RequestRecorder(metricRegistry, maxRoutes, latencyListeners, traceSampler);
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
 
-        final Timer timer = metricRegistry.timer(httpServletRequest.getRequestURI());
-        final Timer.Context context = timer.time();
+        final long start = System.nanoTime();
+        final Tracing.Trace trace = recorder.startTrace(String.valueOf(httpServletRequest.getRequestURI()), MDC.get(RequestIdFilter.REQUEST_ID), start);
 
         try {
             filterChain.doFilter(httpServletRequest, httpServletResponse);
         } finally {
-            context.stop();
+            if (httpServletRequest.isAsyncStarted()) {
+                httpServletRequest.getAsyncContext().addListener(recorder.recordOnComplete(httpServletRequest, start, trace));
+                if (trace != null) {
+                    Tracing.handOff();
+                }
+            } else {
+                recorder.record(httpServletRequest, start, trace);
+                if (trace != null) {
+                    Tracing.leave();
+                }
+            }
         }
 
     }
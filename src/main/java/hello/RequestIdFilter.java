@@ -1,6 +1,8 @@
 package hello;
 
 import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.FilterChain;
@@ -8,23 +10,65 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by osiefart on 04.02.17.
+ *
+ * Runs before all other filters like the {@link ObservabilityFilter}, so the request id is in the MDC when the
+ * {@link PerformanceFilter} starts the trace of the request.
  */
-public class RequestIdFilter extends OncePerRequestFilter {
+public class RequestIdFilter extends OncePerRequestFilter implements Ordered {
 
-    private static final String REQUEST_ID = "requestId";
+    /**
+     * Header carrying the request id from upstream and back to the client.
+     */
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
 
-    private static AtomicInteger requestIdCounter = new AtomicInteger();
+    static final String REQUEST_ID = "requestId";
+
+    private static final String REQUEST_ID_ATTRIBUTE = RequestIdFilter.class.getName() + "." + REQUEST_ID;
+
+    private static final int MAX_REQUEST_ID_LENGTH = 64;
+
+    /* node id for generated request ids, random when negative */
+    @Value("${request-id.node:-1}")
+    private int node = -1;
+
+    private RequestIdGenerator requestIdGenerator;
+
+    @Override
+    protected void initFilterBean() {
+        requestIdGenerator = RequestIdGenerator.forConfiguredNode(node);
+    }
+
+    @Override
+    public int getOrder() {
+        return ObservabilityFilter.ORDER;
+    }
+
+    /**
+     * Also run on the async dispatch that renders a deferred result; the id assigned on the initial
+     * dispatch is reused from a request attribute.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
 
     @Override
     protected void doFilterInternal(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, FilterChain filterChain) throws ServletException, IOException {
 
-        int requestId = requestIdCounter.getAndIncrement();
+        String requestId = (String) httpServletRequest.getAttribute(REQUEST_ID_ATTRIBUTE);
+        if (requestId == null) {
+            requestId = httpServletRequest.getHeader(REQUEST_ID_HEADER);
+            if (!isValid(requestId)) {
+                requestId = requestIdGenerator.next();
+            }
+            httpServletRequest.setAttribute(REQUEST_ID_ATTRIBUTE, requestId);
+            httpServletResponse.setHeader(REQUEST_ID_HEADER, requestId);
+        }
         try {
-            MDC.put(REQUEST_ID, String.valueOf(requestId));
+            MDC.put(REQUEST_ID, requestId);
             filterChain.doFilter(httpServletRequest, httpServletResponse);
         } finally {
             MDC.remove(REQUEST_ID);
@@ -32,4 +76,21 @@ public class RequestIdFilter extends OncePerRequestFilter {
 
     }
 
+    /**
+     * Accepts ids from upstream of up to 64 letters, digits and {@code - _ . :}, so a client cannot inject
+     * arbitrary content into the logs and the response header.
+     */
+    static boolean isValid(String requestId) {
+        if (requestId == null || requestId.isEmpty() || requestId.length() > MAX_REQUEST_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < requestId.length(); i++) {
+            final char c = requestId.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.' || c == ':')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
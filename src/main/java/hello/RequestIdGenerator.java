@@ -0,0 +1,112 @@
+package hello;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64-bit request ids made of a 16-bit node id and a 48-bit sequence, formatted as 16 hex digits.
+ *
+ * Threads take blocks of {@link #BLOCK_SIZE} sequence numbers from a shared counter and hand out ids from
+ * their block without further synchronization, so only one in {@link #BLOCK_SIZE} ids touches the shared
+ * counter. Ids are therefore unique but only roughly ordered. The sequence starts at the startup time in
+ * milliseconds times 128, so a restarted node doesn't reuse the ids of its previous run unless it handed
+ * out more than 128 ids per millisecond on average.
+ *
+ * A virtual thread handles a single request, so a block would be thrown away after one id and burn through the
+ * sequence a thousand times faster. Virtual threads take their ids from the shared counter one at a time and
+ * format them in a fresh buffer instead of filling their thread locals.
+ *
+ * Without a configured node id, instances pick a random one. Of 16 bits, two out of a few dozen instances
+ * likely share it and hand out the same ids, so every instance behind a load balancer should be configured
+ * with its own {@code request-id.node}.
+ */
+public class RequestIdGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestIdGenerator.class);
+
+    static final int BLOCK_SIZE = 1024;
+
+    private static final long SEQUENCE_MASK = (1L << 48) - 1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long node;
+
+    private final AtomicLong nextBlock;
+
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    private final ThreadLocal<char[]> chars = ThreadLocal.withInitial(() -> new char[16]);
+
+    /**
+     * @param node the node id in the upper 16 bits of every id, unique per instance behind a load balancer
+     */
+    public RequestIdGenerator(int node) {
+        if (node < 0 || node > 0xffff) {
+            throw new IllegalArgumentException("node must be between 0 and 65535: " + node);
+        }
+        this.node = (long) node << 48;
+        this.nextBlock = new AtomicLong((System.currentTimeMillis() << 7) & SEQUENCE_MASK);
+    }
+
+    /**
+     * A generator for the configured node id, or for a random one with a warning if none is configured.
+     *
+     * @param node the configured node id, negative if none is
+     */
+    public static RequestIdGenerator forConfiguredNode(int node) {
+        if (node >= 0) {
+            LOGGER.info("Generating request ids of node {}", node);
+            return new RequestIdGenerator(node);
+        }
+        final int randomNode = defaultNode();
+        LOGGER.warn("Generating request ids of random node {}, set request-id.node to a node id unique per instance "
+                + "so that instances don't hand out the same ids", randomNode);
+        return new RequestIdGenerator(randomNode);
+    }
+
+    /**
+     * A random node id, for instances without a configured node id. Unlike one derived from the process id and
+     * host name, it doesn't repeat for containers that all run as pid 1 on similar host names.
+     */
+    public static int defaultNode() {
+        return new SecureRandom().nextInt(0x10000);
+    }
+
+    public long nextId() {
+        if (VirtualThreads.isCurrentThreadVirtual()) {
+            return node | (nextBlock.getAndIncrement() & SEQUENCE_MASK);
+        }
+        final Block block = blocks.get();
+        if (block.next == block.end) {
+            block.next = nextBlock.getAndAdd(BLOCK_SIZE);
+            block.end = block.next + BLOCK_SIZE;
+        }
+        return node | (block.next++ & SEQUENCE_MASK);
+    }
+
+    /**
+     * The next id as 16 hex digits, formatted in a reused buffer so the only allocation is the string.
+     */
+    public String next() {
+        return format(nextId());
+    }
+
+    String format(long id) {
+        final char[] buffer = VirtualThreads.isCurrentThreadVirtual() ? new char[16] : chars.get();
+        for (int i = buffer.length - 1; i >= 0; i--) {
+            buffer[i] = HEX[(int) id & 0xf];
+            id >>>= 4;
+        }
+        return new String(buffer);
+    }
+
+    private static final class Block {
+        long next;
+        long end;
+    }
+
+}
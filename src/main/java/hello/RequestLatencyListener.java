@@ -0,0 +1,13 @@
+package hello;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Receives the latency samples {@link ObservabilityFilter} and {@link PerformanceFilter} record on the route
+ * timers, once a request has completed.
+ */
+public interface RequestLatencyListener {
+
+    void onRequestComplete(HttpServletRequest request, String route, long durationNanos);
+
+}
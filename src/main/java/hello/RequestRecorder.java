@@ -0,0 +1,100 @@
+package hello;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of finished requests for {@link PerformanceFilter} and {@link ObservabilityFilter}: on the
+ * timer of the matched handler pattern (e.g. {@code /hello-world}), which is only known once the request has been
+ * dispatched, then for the {@link RequestLatencyListener}s and the {@link TraceSampler}.
+ */
+class RequestRecorder {
+
+    private final RouteTimerCache timers;
+    private final List<RequestLatencyListener> latencyListeners;
+    private final TraceSampler traceSampler;
+
+    /**
+     * @param traceSampler the sampler of the traces of the requests, {@code null} without tracing
+     */
+    RequestRecorder(MetricRegistry metricRegistry, int maxRoutes, List<RequestLatencyListener> latencyListeners, TraceSampler traceSampler) {
+        this.timers = new RouteTimerCache(metricRegistry, maxRoutes, "");
+        this.latencyListeners = latencyListeners;
+        this.traceSampler = traceSampler;
+    }
+
+    /**
+     * @return the trace of a request starting now, or {@code null} without tracing
+     */
+    Tracing.Trace startTrace(String path, String requestId, long start) {
+        return traceSampler != null ? traceSampler.start(path, requestId, start) : null;
+    }
+
+    void record(HttpServletRequest httpServletRequest, long start, Tracing.Trace trace) {
+        final Object pattern = httpServletRequest.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        final String route = pattern != null ? normalize((String) pattern) : PerformanceFilter.UNMATCHED_ROUTE;
+        final long duration = System.nanoTime() - start;
+        final Timer timer = timers.get(route);
+        timer.update(duration, TimeUnit.NANOSECONDS);
+        if (trace != null) {
+            traceSampler.finish(trace, route, duration, timer);
+        }
+        for (RequestLatencyListener listener : latencyListeners) {
+            listener.onRequestComplete(httpServletRequest, route, duration);
+        }
+    }
+
+    /**
+     * Records an async request once it has completed, so the duration covers the whole async lifetime and not
+     * only the initial dispatch. The container calls {@code onComplete} after timeouts and errors as well.
+     */
+    AsyncListener recordOnComplete(HttpServletRequest httpServletRequest, long start, Tracing.Trace trace) {
+        return new RecordDurationListener(httpServletRequest, start, trace);
+    }
+
+    /**
+     * Spring MVC appends a slash to the pattern when a request matched through trailing slash matching.
+     */
+    static String normalize(String pattern) {
+        final int last = pattern.length() - 1;
+        return last > 0 && pattern.charAt(last) == '/' ? pattern.substring(0, last) : pattern;
+    }
+
+    private class RecordDurationListener implements AsyncListener {
+
+        private final HttpServletRequest request;
+        private final long start;
+        private final Tracing.Trace trace;
+
+        RecordDurationListener(HttpServletRequest request, long start, Tracing.Trace trace) {
+            this.request = request;
+            this.start = start;
+            this.trace = trace;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent asyncEvent) {
+            record(request, start, trace);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent asyncEvent) {
+        }
+
+        @Override
+        public void onError(AsyncEvent asyncEvent) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent asyncEvent) {
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package hello;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+
+import java.util.function.Supplier;
+
+/**
+ * A {@link MetricRegistry} that creates its {@link Timer}s with reservoirs from a pluggable factory instead
+ * of the default exponentially decaying reservoir. Histograms are left alone, as their values are not
+ * necessarily durations in nanoseconds.
+ */
+public class ReservoirMetricRegistry extends MetricRegistry {
+
+    private final Supplier<Reservoir> reservoirFactory;
+
+    public ReservoirMetricRegistry(Supplier<Reservoir> reservoirFactory) {
+        this.reservoirFactory = reservoirFactory;
+    }
+
+    @Override
+    public Timer timer(String name) {
+        return getOrAdd(name, Timer.class, () -> new Timer(reservoirFactory.get()));
+    }
+
+    private <T extends Metric> T getOrAdd(String name, Class<T> type, Supplier<T> factory) {
+        Metric metric = getMetrics().get(name);
+        if (metric == null) {
+            try {
+                return register(name, factory.get());
+            } catch (IllegalArgumentException e) {
+                // registered concurrently
+                metric = getMetrics().get(name);
+            }
+        }
+        if (type.isInstance(metric)) {
+            return type.cast(metric);
+        }
+        throw new IllegalArgumentException(name + " is already used for a different type of metric");
+    }
+
+}
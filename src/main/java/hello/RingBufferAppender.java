@@ -0,0 +1,325 @@
+package hello;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous appender that hands events to its attached appenders through a bounded lock-free
+ * {@link RingBuffer}. Logging threads never wait on a lock or a slow disk; a single worker thread drains
+ * the ring in batches and flushes attached {@link OutputStreamAppender}s and {@link Flushable} appenders
+ * once per batch, so they can run with {@code immediateFlush} disabled.
+ *
+ * When the ring is full the {@link OverflowPolicy} decides which event is dropped. Queue depth and drop
+ * counts are exposed as gauges by {@link LogbackMetrics}.
+ *
+ * Several ring buffers may share attached appenders, like one file. Stopping detaches them once the worker
+ * drained the ring, and only the last ring buffer to stop stops a shared appender, so the events the others
+ * still drain are not lost. While the worker is still draining after {@code maxFlushTimeMillis}, the attached
+ * appenders are left alone.
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+
+    public enum OverflowPolicy {DROP_NEWEST, DROP_OLDEST, BLOCK}
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /* context object counting the started ring buffers each appender is attached to */
+    private static final String USERS_KEY = RingBufferAppender.class.getName() + ".users";
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private int capacity = 8192;
+    private int batchSize = 256;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long blockTimeoutMillis = 100;
+    private long maxFlushTimeMillis = 1000;
+    private boolean includeCallerData = false;
+
+    private RingBuffer<ILoggingEvent> ringBuffer;
+    private Thread worker;
+    private volatile boolean workerParked;
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (batchSize < 1) {
+            addError("batchSize must be positive for appender named [" + name + "]");
+            return;
+        }
+        ringBuffer = new RingBuffer<>(capacity);
+        final Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            use(iterator.next(), 1);
+        }
+        running = true;
+        worker = new Thread(this::drain, "RingBufferAppender-" + getName());
+        worker.setDaemon(true);
+        worker.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(maxFlushTimeMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            addWarn("Worker of appender named [" + name + "] did not drain the queue within " + maxFlushTimeMillis + " ms, "
+                    + ringBuffer.size() + " events are left to it and may be lost");
+            return;
+        }
+        final Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            final Appender<ILoggingEvent> appender = iterator.next();
+            appenders.detachAppender(appender);
+            if (use(appender, -1) == 0) {
+                appender.stop();
+            }
+        }
+    }
+
+    /**
+     * Counts the started ring buffers the appender is attached to.
+     *
+     * @return the ring buffers still using the appender
+     */
+    private int use(Appender<ILoggingEvent> appender, int delta) {
+        final Map<Appender<?>, Integer> users;
+        synchronized (context) {
+            @SuppressWarnings("unchecked")
+            Map<Appender<?>, Integer> existing = (Map<Appender<?>, Integer>) context.getObject(USERS_KEY);
+            if (existing == null) {
+                existing = new IdentityHashMap<>();
+                context.putObject(USERS_KEY, existing);
+            }
+            users = existing;
+        }
+        synchronized (users) {
+            final int count = users.getOrDefault(appender, 0) + delta;
+            if (count > 0) {
+                users.put(appender, count);
+            } else {
+                users.remove(appender);
+            }
+            return Math.max(count, 0);
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        event.prepareForDeferredProcessing();
+        if (includeCallerData) {
+            event.getCallerData();
+        }
+        if (!ringBuffer.offer(event) && !overflow(event)) {
+            dropped.incrementAndGet();
+        }
+        if (workerParked) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * @return whether the event was queued after all
+     */
+    private boolean overflow(ILoggingEvent event) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                do {
+                    if (ringBuffer.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                } while (!ringBuffer.offer(event));
+                return true;
+            case BLOCK:
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                do {
+                    LockSupport.unpark(worker);
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    if (ringBuffer.offer(event)) {
+                        return true;
+                    }
+                } while (System.nanoTime() < deadline);
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void drain() {
+        final ILoggingEvent[] batch = new ILoggingEvent[batchSize];
+        while (true) {
+            int size = 0;
+            ILoggingEvent event;
+            while (size < batch.length && (event = ringBuffer.poll()) != null) {
+                batch[size++] = event;
+            }
+            if (size > 0) {
+                for (int i = 0; i < size; i++) {
+                    appenders.appendLoopOnAppenders(batch[i]);
+                    batch[i] = null;
+                }
+                flush();
+            } else if (running) {
+                workerParked = true;
+                if (ringBuffer.size() == 0 && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                workerParked = false;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void flush() {
+        final Iterator<Appender<ILoggingEvent>> iterator = appenders.iteratorForAppenders();
+        while (iterator.hasNext()) {
+            final Appender<ILoggingEvent> appender = iterator.next();
+            if (appender instanceof OutputStreamAppender && appender.isStarted()) {
+                try {
+                    ((OutputStreamAppender<ILoggingEvent>) appender).getOutputStream().flush();
+                } catch (IOException e) {
+                    addError("Failed to flush appender named [" + appender.getName() + "]", e);
+                }
+            } else if (appender instanceof Flushable && appender.isStarted()) {
+                try {
+                    ((Flushable) appender).flush();
+                } catch (IOException e) {
+                    addError("Failed to flush appender named [" + appender.getName() + "]", e);
+                }
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return ringBuffer != null ? ringBuffer.size() : 0;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events the ring holds once started, the configured capacity rounded up to a power of
+     * two
+     */
+    public int getCapacity() {
+        return ringBuffer != null ? ringBuffer.capacity() : capacity;
+    }
+
+    /**
+     * @param capacity the number of queued events, rounded up to a power of two
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for space before dropping the event
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public long getMaxFlushTimeMillis() {
+        return maxFlushTimeMillis;
+    }
+
+    public void setMaxFlushTimeMillis(long maxFlushTimeMillis) {
+        this.maxFlushTimeMillis = maxFlushTimeMillis;
+    }
+
+    public boolean isIncludeCallerData() {
+        return includeCallerData;
+    }
+
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> newAppender) {
+        if (isStarted() && !appenders.isAttached(newAppender)) {
+            use(newAppender, 1);
+        }
+        appenders.addAppender(newAppender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+
+}
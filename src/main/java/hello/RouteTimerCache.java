@@ -0,0 +1,66 @@
+package hello;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded cache of pre-resolved {@link Timer} handles keyed by route. Once {@code maxRoutes} distinct
+ * routes are cached, every further route shares one overflow timer, so path variables and scanner
+ * traffic cannot grow the {@link MetricRegistry} without limit. The overflow timer's count tells how
+ * many requests were folded into it.
+ */
+public class RouteTimerCache {
+
+    public static final String OVERFLOW_ROUTE = "overflow";
+
+    private final MetricRegistry metricRegistry;
+    private final int maxRoutes;
+    private final String suffix;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Timer overflow;
+
+    /**
+     * @param metricRegistry the registry the timers are registered in
+     * @param maxRoutes      the maximum number of routes with a timer of their own
+     * @param suffix         appended to the route to build the timer name
+     */
+    public RouteTimerCache(MetricRegistry metricRegistry, int maxRoutes, String suffix) {
+        this.metricRegistry = metricRegistry;
+        this.maxRoutes = maxRoutes;
+        this.suffix = suffix;
+        this.overflow = metricRegistry.timer(OVERFLOW_ROUTE + suffix);
+    }
+
+    public Timer get(String route) {
+        final Timer timer = timers.get(route);
+        return timer != null ? timer : resolve(route);
+    }
+
+    public Timer getOverflow() {
+        return overflow;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private Timer resolve(String route) {
+        if (size.get() >= maxRoutes) {
+            return overflow;
+        }
+        final Timer timer = timers.computeIfAbsent(route, key -> {
+            if (size.incrementAndGet() > maxRoutes) {
+                size.decrementAndGet();
+                return null;
+            }
+            return metricRegistry.timer(key + suffix);
+        });
+        return timer != null ? timer : overflow;
+    }
+
+}
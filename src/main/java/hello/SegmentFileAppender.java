@@ -0,0 +1,502 @@
+package hello;
+
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.FileSize;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A file appender that writes into a sequence of fixed-size segments, e.g. {@code /tmp/log.000001.json},
+ * instead of renaming and compressing a single active file on rollover. A segment is never renamed: when
+ * the next event does not fit, the appender just opens the following segment and hands the finished one
+ * to a background thread, which gzips it to {@code <segment>.gz}, deletes it and keeps the newest
+ * {@code maxHistory} compressed segments. The logging thread never waits on compression.
+ *
+ * With {@code preallocate} enabled a segment is created at its full size and written through a
+ * memory-mapped buffer, so appending is a memory copy. The unwritten rest of the active segment then reads
+ * as NUL bytes, which plain line-based tailers cannot follow. Without it, events are collected in a
+ * direct buffer and appended with {@link FileChannel} writes when the buffer fills up or the appender is
+ * flushed.
+ */
+public class SegmentFileAppender<E> extends AppenderBase<E> implements Flushable {
+
+    private static final Pattern SEQUENCE = Pattern.compile("%i");
+
+    private Encoder<E> encoder;
+    private String fileNamePattern;
+    private FileSize segmentSize = FileSize.valueOf("2MB");
+    private int maxHistory = 10;
+    private boolean preallocate = true;
+    private boolean immediateFlush = true;
+    private int bufferSize = 64 * 1024;
+
+    private final EventBuffer eventBuffer = new EventBuffer();
+    private Pattern segmentFile;
+    private long sequence;
+    private Segment segment;
+    private ExecutorService compressor;
+
+    @Override
+    public void start() {
+        if (encoder == null) {
+            addError("No encoder set for the appender named [" + name + "]");
+            return;
+        }
+        if (fileNamePattern == null || !fileNamePattern.contains("%i")) {
+            addError("fileNamePattern of the appender named [" + name + "] must contain %i");
+            return;
+        }
+        final String[] parts = fileNamePattern.split("%i", -1);
+        segmentFile = Pattern.compile(Pattern.quote(Paths.get(parts[0]).getFileName().toString()) + "(\\d+)" + Pattern.quote(parts[1]) + "(\\.gz)?");
+        compressor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "SegmentFileAppender-" + getName() + "-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory());
+            sequence = recoverSegments();
+            encoder.init(eventBuffer);
+            writeEncoded();
+        } catch (IOException e) {
+            addError("Failed to open segments of the appender named [" + name + "]", e);
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        try {
+            encoder.close();
+            writeEncoded();
+            if (segment != null) {
+                finish(segment);
+                segment = null;
+            }
+        } catch (IOException e) {
+            addError("Failed to close the segment of the appender named [" + name + "]", e);
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(E event) {
+        try {
+            encoder.doEncode(event);
+            writeEncoded();
+            if (immediateFlush && segment != null) {
+                segment.flush();
+            }
+        } catch (IOException e) {
+            started = false;
+            addError("Failed to write to the segment of the appender named [" + name + "]", e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+        }
+    }
+
+    /* copies the bytes of the encoded event into the active segment, starting a new one when it does not fit */
+    private void writeEncoded() throws IOException {
+        final int length = eventBuffer.size();
+        if (length == 0) {
+            return;
+        }
+        if (segment != null && !segment.fits(length)) {
+            finish(segment);
+            segment = null;
+        }
+        if (segment == null) {
+            segment = open(Math.max(segmentSize.getSize(), length));
+        }
+        segment.write(eventBuffer.array(), length);
+        eventBuffer.reset();
+    }
+
+    private Segment open(long size) throws IOException {
+        final Path path = Paths.get(SEQUENCE.matcher(fileNamePattern).replaceFirst(String.format("%06d", ++sequence)));
+        return preallocate ? new MappedSegment(path, size) : new ChannelSegment(path, size, bufferSize);
+    }
+
+    private void finish(Segment finished) throws IOException {
+        finished.close();
+        final Path path = finished.path;
+        final long length = finished.written;
+        compressor.execute(() -> compress(path, length));
+    }
+
+    private void compress(Path path, long length) {
+        final Path compressed = path.resolveSibling(path.getFileName() + ".gz");
+        final Path temporary = path.resolveSibling(path.getFileName() + ".gz.tmp");
+        try {
+            try (InputStream in = Files.newInputStream(path);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                final byte[] buffer = new byte[64 * 1024];
+                long remaining = length;
+                int read;
+                while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            Files.move(temporary, compressed, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(path);
+            deleteHistory();
+        } catch (IOException e) {
+            addError("Failed to compress segment " + path, e);
+        }
+    }
+
+    private void deleteHistory() throws IOException {
+        final List<Path> compressed = new ArrayList<>();
+        for (Path path : segments()) {
+            if (path.getFileName().toString().endsWith(".gz")) {
+                compressed.add(path);
+            }
+        }
+        for (int i = 0; i < compressed.size() - maxHistory; i++) {
+            Files.deleteIfExists(compressed.get(i));
+        }
+    }
+
+    /**
+     * Compresses segments left over by a previous run and returns the last sequence number in use.
+     */
+    private long recoverSegments() throws IOException {
+        long last = 0;
+        for (Path path : segments()) {
+            final String fileName = path.getFileName().toString();
+            final Matcher matcher = segmentFile.matcher(fileName);
+            matcher.matches();
+            last = Math.max(last, Long.parseLong(matcher.group(1)));
+            if (matcher.group(2) == null) {
+                final long length = writtenLength(path);
+                compressor.execute(() -> compress(path, length));
+            }
+        }
+        return last;
+    }
+
+    /* a preallocated segment ends with NUL bytes after the last written event */
+    private static long writtenLength(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long end = channel.size();
+            while (end > 0) {
+                final long start = Math.max(0, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                channel.read(buffer, start);
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) != 0) {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    /* segments and compressed segments ordered by sequence number */
+    private List<Path> segments() throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory())) {
+            for (Path path : paths) {
+                if (segmentFile.matcher(path.getFileName().toString()).matches()) {
+                    segments.add(path);
+                }
+            }
+        }
+        Collections.sort(segments, (a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+        return segments;
+    }
+
+    private long sequenceOf(Path path) {
+        final Matcher matcher = segmentFile.matcher(path.getFileName().toString());
+        matcher.matches();
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private Path directory() {
+        final Path parent = Paths.get(fileNamePattern).toAbsolutePath().getParent();
+        return parent != null ? parent : Paths.get(".");
+    }
+
+    public Encoder<E> getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(Encoder<E> encoder) {
+        this.encoder = encoder;
+    }
+
+    public String getFileNamePattern() {
+        return fileNamePattern;
+    }
+
+    /**
+     * @param fileNamePattern the segment file names, {@code %i} is replaced by the sequence number
+     */
+    public void setFileNamePattern(String fileNamePattern) {
+        this.fileNamePattern = fileNamePattern;
+    }
+
+    public FileSize getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(FileSize segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getMaxHistory() {
+        return maxHistory;
+    }
+
+    /**
+     * @param maxHistory the number of compressed segments to keep
+     */
+    public void setMaxHistory(int maxHistory) {
+        this.maxHistory = maxHistory;
+    }
+
+    public boolean isPreallocate() {
+        return preallocate;
+    }
+
+    public void setPreallocate(boolean preallocate) {
+        this.preallocate = preallocate;
+    }
+
+    public boolean isImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * @param immediateFlush whether every event is written to the file right away, otherwise on {@link #flush()}
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize the size of the direct write buffer when not preallocating
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /* a reusable buffer the encoder writes one event into */
+    private static class EventBuffer extends OutputStream {
+
+        private byte[] bytes = new byte[8192];
+        private int size;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+    }
+
+    private abstract static class Segment {
+
+        final Path path;
+        final long capacity;
+        final FileChannel channel;
+        long written;
+
+        Segment(Path path, long capacity) throws IOException {
+            this.path = path;
+            this.capacity = capacity;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        boolean fits(int length) {
+            return written + length <= capacity;
+        }
+
+        abstract void write(byte[] bytes, int length) throws IOException;
+
+        abstract void flush() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    /*
+     * preallocated at its full size and written through a memory mapping; the first bytes of an event, the
+     * length prefix of a Smile frame, are copied last, so readers of the active segment rarely see the start of
+     * an event before the rest of it, readers still have to expect it without an ordered store
+     */
+    private static class MappedSegment extends Segment {
+
+        private static final int HEAD = 4;
+
+        private final MappedByteBuffer buffer;
+
+        MappedSegment(Path path, long capacity) throws IOException {
+            super(path, capacity);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        @Override
+        void write(byte[] bytes, int length) {
+            final int start = buffer.position();
+            final int head = Math.min(HEAD, length);
+            buffer.position(start + head);
+            buffer.put(bytes, head, length - head);
+            for (int i = head - 1; i >= 0; i--) {
+                buffer.put(start + i, bytes[i]);
+            }
+            written += length;
+        }
+
+        /* the page cache already holds the written bytes */
+        @Override
+        void flush() {
+        }
+
+        @Override
+        void close() throws IOException {
+            channel.close();
+            unmap(buffer);
+        }
+    }
+
+    /* appended with channel writes from a direct buffer */
+    private static class ChannelSegment extends Segment {
+
+        private final ByteBuffer buffer;
+
+        ChannelSegment(Path path, long capacity, int bufferSize) throws IOException {
+            super(path, capacity);
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        @Override
+        void write(byte[] bytes, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                final int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+            written += length;
+        }
+
+        @Override
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        void close() throws IOException {
+            flush();
+            channel.close();
+            unmap(buffer);
+        }
+    }
+
+    /**
+     * Releases the memory of a direct or mapped buffer right away instead of when it is garbage collected,
+     * through {@code Unsafe.invokeCleaner} on Java 9 and later and the buffer's cleaner on Java 8.
+     */
+    static void unmap(ByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // released when the buffer is garbage collected
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // released when the buffer is garbage collected
+        }
+    }
+
+}
@@ -1,36 +1,51 @@
 package hello;
 
-import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.slf4j.MDC;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CancellationException;
 
 /**
- * Created by osiefart on 05.02.17.
+ * Times {@link Timed} methods through the Spring AOP proxy of their bean, the alternative to the build-time
+ * woven {@link TimedAspect} when {@code performance.instrumentation=proxy}. Calls from within the bean are not
+ * timed, and every call pays for the proxy dispatch, a join point and its arguments.
  */
 @Aspect
-@Component
 public class ServicePerformanceMonitor {
 
     @Autowired
-    private MetricRegistry metricRegistry;
+    private ServiceTimers serviceTimers;
 
-    @Around("execution(* hello.HelloWorldService.*(..))")
+    @Around("execution(@hello.Timed * *(..))")
     public Object logServiceAccess(ProceedingJoinPoint joinPoint) throws Throwable {
 
-        final Timer timer = metricRegistry.timer(MDC.get(PathFilter.PATH) + "#" + joinPoint.getSignature().getName());
-        final Timer.Context context = timer.time();
+        final ServiceTimers.MethodTimers timers = serviceTimers.forMethod(((MethodSignature) joinPoint.getSignature()).getMethod());
+        final Timer.Context context = timers.timer().time();
+        final int span = Tracing.begin(timers.getSpanName());
 
+        boolean async = false;
+        boolean cancelled = false;
         try {
-            return joinPoint.proceed();
+            final Object result = joinPoint.proceed();
+            async = ServiceTimers.stopWhenComplete(result, context, span);
+            return result;
+        } catch (CancellationException e) {
+            // a cancelled hedging attempt, its duration is not a latency sample
+            cancelled = true;
+            throw e;
         } finally {
-            context.stop();
+            if (!async && !cancelled) {
+                context.stop();
+            }
+            if (!async) {
+                Tracing.end(span);
+            }
         }
 
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package hello;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@code <path>#<method>} timers of service calls, shared by the instrumentation, {@link TimedAspect} or
+ * {@link ServicePerformanceMonitor}.
+ */
+@Component
+public class ServiceTimers {
+
+    /**
+     * Path used for service calls outside of a request, i.e. without {@link PathFilter#PATH} in the MDC.
+     */
+    public static final String NO_PATH = "no-path";
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Value("${performance.max-routes:100}")
+    private int maxRoutes;
+
+    private final ConcurrentMap<Method, MethodTimers> methods = new ConcurrentHashMap<>();
+
+    public MethodTimers forMethod(Method method) {
+        final MethodTimers timers = methods.get(method);
+        return timers != null ? timers : methods.computeIfAbsent(method, key -> new MethodTimers(metricRegistry, maxRoutes, key));
+    }
+
+    /**
+     * The timer of the method for the path of the current request.
+     */
+    public Timer timer(Method method) {
+        return forMethod(method).timer();
+    }
+
+    /**
+     * Stops the timer and ends the span of an asynchronous service call once its result is available.
+     *
+     * @return whether the result is asynchronous, otherwise the caller stops the timer and ends the span
+     */
+    static boolean stopWhenComplete(Object result, Timer.Context context, int span) {
+        if (!(result instanceof CompletionStage)) {
+            return false;
+        }
+        final Tracing.Scope scope = Tracing.endLater(span);
+        ((CompletionStage<?>) result).whenComplete((value, throwable) -> {
+            context.stop();
+            Tracing.end(scope, span);
+        });
+        return true;
+    }
+
+    /**
+     * The timers by path and the trace span name of one method, resolved once so that a call neither builds the
+     * {@code "<path>#<method>"} name nor touches the registry.
+     */
+    public static final class MethodTimers {
+
+        private final RouteTimerCache timers;
+
+        private final String spanName;
+
+        MethodTimers(MetricRegistry metricRegistry, int maxRoutes, Method method) {
+            this.timers = new RouteTimerCache(metricRegistry, maxRoutes, "#" + method.getName());
+            this.spanName = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        }
+
+        public Timer timer() {
+            final String path = MDC.get(PathFilter.PATH);
+            return timers.get(path != null ? path : NO_PATH);
+        }
+
+        public String getSpanName() {
+            return spanName;
+        }
+    }
+
+}
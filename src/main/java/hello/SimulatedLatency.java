@@ -0,0 +1,49 @@
+package hello;
+
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of the {@code Thread.sleep} calls in {@link HelloWorldController} and
+ * {@link HelloWorldService}: the delay elapses on a shared scheduler instead of a parked request thread.
+ */
+@Component
+public class SimulatedLatency {
+
+    private static final long MAX_DELAY_MILLIS = 500;
+
+    @Autowired
+    private ScheduledExecutorService latencyScheduler;
+
+    /**
+     * Returns a future that completes after a random delay. Stages attached to it run on the scheduler
+     * thread with the caller's MDC and trace, so {@link PathFilter#PATH} stays visible to the service aspect and
+     * its spans belong to the request.
+     */
+    public CompletableFuture<Void> delay() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final Map<String, String> context = MDC.getCopyOfContextMap();
+        final Tracing.Scope trace = Tracing.capture();
+        latencyScheduler.schedule(() -> {
+            if (context != null) {
+                MDC.setContextMap(context);
+            }
+            Tracing.attach(trace);
+            try {
+                future.complete(null);
+            } finally {
+                MDC.clear();
+                Tracing.detach();
+            }
+        }, ThreadLocalRandom.current().nextLong(MAX_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+}
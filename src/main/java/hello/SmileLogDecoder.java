@@ -0,0 +1,254 @@
+package hello;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decodes the length-prefixed Smile frames of {@link LogstashSmileEncoder} into JSON lines on standard out, the
+ * same lines {@link LogstashEncoderWithStructuredArguments} would have written. Usage:
+ *
+ * <pre>
+ * java -Dloader.main=hello.SmileLogDecoder -cp target/gs-actuator-service-0.1.0.jar \
+ *     org.springframework.boot.loader.PropertiesLauncher [--follow] [--poll-millis 200] /tmp/log.%i.smile
+ * </pre>
+ *
+ * With the {@code fileNamePattern} of a {@link SegmentFileAppender}, the compressed and active segments are
+ * decoded in order of their sequence numbers. With {@code --follow} the decoder keeps reading the active segment
+ * as it grows and moves on to the next one once it is opened, like {@code tail -F}; this is how Logstash reads
+ * the binary log with its pipe input. Other arguments are decoded as single files, gzipped when they end with
+ * {@code .gz}.
+ *
+ * A frame of length 0, the padding of a preallocated segment, or a truncated frame ends the written part of a
+ * segment. The appender may not have copied all of the last frame of the active segment yet even though its length
+ * is there, so a frame of the active segment that doesn't parse is read again on the next poll; only in a finished
+ * segment it is an error. A frame is decoded completely before its line is written.
+ */
+public class SmileLogDecoder {
+
+    private final SmileFactory smileFactory = new SmileFactory();
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final OutputStream out;
+
+    private byte[] frame = new byte[8192];
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(8192);
+
+    SmileLogDecoder(OutputStream out) {
+        this.out = out;
+        jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean follow = false;
+        long pollMillis = 200;
+        final List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--follow".equals(args[i])) {
+                follow = true;
+            } else if ("--poll-millis".equals(args[i]) && i + 1 < args.length) {
+                pollMillis = Long.parseLong(args[++i]);
+            } else if (args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: SmileLogDecoder [--follow] [--poll-millis 200] <fileNamePattern with %i | file...>");
+            System.exit(1);
+        }
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024);
+        final SmileLogDecoder decoder = new SmileLogDecoder(out);
+        for (String file : files) {
+            if (file.contains("%i")) {
+                decoder.decodeSegments(file, follow, pollMillis);
+            } else {
+                decoder.decodeFile(Paths.get(file));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Decodes the segments of the pattern in sequence order, following the active one if {@code follow} is set.
+     */
+    void decodeSegments(String fileNamePattern, boolean follow, long pollMillis) throws IOException, InterruptedException {
+        final LogSegments segmentFiles = new LogSegments(fileNamePattern);
+        long decoded = -1;
+        while (true) {
+            final TreeMap<Long, Path> segments = segmentFiles.after(decoded);
+            if (segments.isEmpty()) {
+                if (!follow) {
+                    return;
+                }
+                idle(pollMillis);
+                continue;
+            }
+            final long sequence = segments.firstKey();
+            final Path path = segments.firstEntry().getValue();
+            if (LogSegments.isCompressed(path)) {
+                decodeFile(path);
+                decoded = sequence;
+                continue;
+            }
+            final FileChannel channel;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // compressed in the meantime
+                continue;
+            }
+            try {
+                long position = 0;
+                while (true) {
+                    position = decodeAvailable(channel, position, true);
+                    // the appender finishes a segment before it opens the next one
+                    if (!segmentFiles.after(sequence).isEmpty()) {
+                        decodeAvailable(channel, position, false);
+                        break;
+                    }
+                    if (!follow) {
+                        break;
+                    }
+                    idle(pollMillis);
+                }
+            } finally {
+                channel.close();
+            }
+            decoded = sequence;
+        }
+    }
+
+    /**
+     * Decodes a whole file, gzipped if its name ends with {@code .gz}.
+     */
+    void decodeFile(Path path) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(path), 64 * 1024);
+        if (LogSegments.isCompressed(path)) {
+            stream = new GZIPInputStream(stream, 64 * 1024);
+        }
+        try (DataInputStream in = new DataInputStream(stream)) {
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length == 0) {
+                    return;
+                }
+                ensureCapacity(checkLength(length));
+                try {
+                    in.readFully(frame, 0, length);
+                } catch (EOFException e) {
+                    return;
+                }
+                decode(frame, length);
+            }
+        }
+    }
+
+    /**
+     * Decodes the complete frames from {@code position} on.
+     *
+     * @param active whether the segment may still be written, a frame that doesn't parse then ends the written part
+     * @return the position after the last complete frame
+     */
+    long decodeAvailable(FileChannel channel, long position, boolean active) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        while (true) {
+            header.clear();
+            if (!readFully(channel, header, position)) {
+                return position;
+            }
+            final int length = header.getInt(0);
+            if (length == 0) {
+                return position;
+            }
+            ensureCapacity(checkLength(length));
+            if (!readFully(channel, ByteBuffer.wrap(frame, 0, length), position + 4)) {
+                return position;
+            }
+            try {
+                decode(frame, length);
+            } catch (JsonProcessingException e) {
+                if (active) {
+                    return position;
+                }
+                throw e;
+            }
+            position += 4 + length;
+        }
+    }
+
+    /**
+     * Writes one Smile document as a line of JSON.
+     */
+    void decode(byte[] bytes, int length) throws IOException {
+        line.reset();
+        try (JsonParser parser = smileFactory.createParser(bytes, 0, length);
+             JsonGenerator generator = jsonFactory.createGenerator(line)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        line.write('\n');
+        line.writeTo(out);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Not a Smile frame, length " + length);
+        }
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > frame.length) {
+            frame = new byte[Math.max(capacity, frame.length * 2)];
+        }
+    }
+
+    private void idle(long pollMillis) throws IOException, InterruptedException {
+        out.flush();
+        Thread.sleep(pollMillis);
+    }
+
+}
@@ -0,0 +1,22 @@
+package hello;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a service method whose calls are timed in the {@code <path>#<method>} timer of {@link ServiceTimers} and
+ * traced as a span. Asynchronous methods, returning a {@link java.util.concurrent.CompletionStage}, are timed until
+ * their result is available; cancelled calls are not timed.
+ *
+ * The timing is woven into the method at build time by {@link TimedAspect}, so it also applies to calls from
+ * within the class and needs no proxy. With {@code performance.instrumentation=proxy}, for builds without the
+ * AspectJ compiler, {@link ServicePerformanceMonitor} times calls through the Spring bean instead.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Timed {
+}
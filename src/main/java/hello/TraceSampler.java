@@ -0,0 +1,159 @@
+package hello;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static net.logstash.logback.argument.StructuredArguments.raw;
+
+/**
+ * Tail-based sampling of request traces: every request is traced into the buffer of {@link Tracing}, and only
+ * once it is complete does the sampler decide whether to log it. A request is logged as one event on the
+ * {@code traces} logger when it took at least {@code tracing.threshold-millis} or longer than the live p99 of its
+ * route, otherwise its trace is dropped by bumping the buffer's generation.
+ *
+ * The p99 is read from the route's timer, cached for {@code tracing.p99-refresh-millis} because a percentile
+ * copies the histogram, and only used once the timer has {@code tracing.p99-min-samples} values. At most
+ * {@code tracing.max-traces-per-second} traces are logged, so an outage that makes every request slow doesn't
+ * flood the log.
+ *
+ * The meters {@code traces.sampled}, {@code traces.discarded} (fast requests) and {@code traces.dropped} (slow
+ * requests over the rate limit), the gauge {@code traces.sample-rate} (sampled traces per request over the last
+ * minute) and the meter {@code traces.dropped-spans} (spans beyond {@link Tracing#MAX_SPANS}) show what tracing
+ * costs and misses.
+ */
+public class TraceSampler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("traces");
+
+    @Autowired
+    private MetricRegistry metricRegistry;
+
+    @Value("${tracing.threshold-millis:1000}")
+    private long thresholdMillis;
+
+    @Value("${tracing.p99-min-samples:100}")
+    private long p99MinSamples;
+
+    @Value("${tracing.p99-refresh-millis:1000}")
+    private long p99RefreshMillis;
+
+    @Value("${tracing.max-traces-per-second:10}")
+    private int maxTracesPerSecond;
+
+    private Meter sampled;
+    private Meter discarded;
+    private Meter dropped;
+    private Meter droppedSpans;
+
+    private final ConcurrentMap<Timer, CachedPercentile> percentiles = new ConcurrentHashMap<>();
+
+    private final AtomicLong second = new AtomicLong();
+    private final AtomicInteger tracesInSecond = new AtomicInteger();
+
+    @PostConstruct
+    public void registerMetrics() {
+        sampled = metricRegistry.meter("traces.sampled");
+        discarded = metricRegistry.meter("traces.discarded");
+        dropped = metricRegistry.meter("traces.dropped");
+        droppedSpans = metricRegistry.meter("traces.dropped-spans");
+        metricRegistry.register("traces.sample-rate", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(sampled.getOneMinuteRate(), sampled.getOneMinuteRate() + discarded.getOneMinuteRate() + dropped.getOneMinuteRate());
+            }
+        });
+    }
+
+    /**
+     * Starts the trace of a request on the current thread.
+     */
+    public Tracing.Trace start(String path, String requestId, long start) {
+        return Tracing.start(path, requestId, start);
+    }
+
+    /**
+     * Ends the trace of a request that took {@code duration} nanoseconds and logs it if it was slow.
+     *
+     * @param timer the timer of the request's route, the source of the live p99
+     */
+    public void finish(Tracing.Trace trace, String route, long duration, Timer timer) {
+        final String reason;
+        if (duration >= TimeUnit.MILLISECONDS.toNanos(thresholdMillis)) {
+            reason = "threshold";
+        } else if (duration > p99(timer)) {
+            reason = "p99";
+        } else {
+            trace.close();
+            discarded.mark();
+            return;
+        }
+        if (!tryAcquire()) {
+            trace.close();
+            dropped.mark();
+            return;
+        }
+        final String requestId = trace.requestId;
+        final StringBuilder spans = new StringBuilder(1024);
+        final int droppedSpanCount;
+        synchronized (trace) {
+            droppedSpanCount = trace.dropped;
+            trace.closeAndWrite(spans, duration);
+        }
+        if (droppedSpanCount > 0) {
+            droppedSpans.mark(droppedSpanCount);
+        }
+        sampled.mark();
+        LOGGER.info("TRACE: {}, {}, {}, {}, {}",
+                keyValue("requestId", requestId),
+                keyValue("route", route),
+                keyValue("duration", duration / 1e6),
+                keyValue("reason", reason),
+                raw("spans", spans.toString()));
+    }
+
+    /**
+     * @return the cached p99 of the timer in nanoseconds, or {@code Long.MAX_VALUE} while it has too few samples
+     */
+    private long p99(Timer timer) {
+        if (timer.getCount() < p99MinSamples) {
+            return Long.MAX_VALUE;
+        }
+        final CachedPercentile percentile = percentiles.computeIfAbsent(timer, key -> new CachedPercentile());
+        final long now = System.nanoTime();
+        if (now - percentile.computedAt > TimeUnit.MILLISECONDS.toNanos(p99RefreshMillis) || percentile.nanos == 0) {
+            percentile.nanos = Math.max(1, (long) timer.getSnapshot().get99thPercentile());
+            percentile.computedAt = now;
+        }
+        return percentile.nanos;
+    }
+
+    /* a fixed window of one second, reset by the first trace of the next second */
+    private boolean tryAcquire() {
+        final long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        final long current = second.get();
+        if (now != current && second.compareAndSet(current, now)) {
+            tracesInSecond.set(0);
+        }
+        return tracesInSecond.incrementAndGet() <= maxTracesPerSecond;
+    }
+
+    private static final class CachedPercentile {
+        volatile long nanos;
+        volatile long computedAt;
+    }
+
+}
@@ -0,0 +1,271 @@
+package hello;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Spans of the current request, recorded in a buffer that every thread allocates once and reuses, so that tracing
+ * every request costs a few array writes and {@link TraceSampler} can decide at the end of the request whether its
+ * trace is worth logging.
+ *
+ * The filters start a trace with the request span, {@link ServicePerformanceMonitor} adds a child span per service
+ * call. Like the MDC, the trace is bound to the thread: work that continues on another thread, a hedged attempt or
+ * an async stage, carries it over with {@link #capture()} and {@link #attach(Scope)}. Every trace has a generation
+ * that changes when it ends, so a straggler that finishes after its request, like a cancelled hedging attempt,
+ * can't write into the next trace of the buffer. An async request takes its buffer along and leaves the thread a
+ * new one. A virtual thread serves a single request, so there the buffer comes from a pool it returns to once the
+ * trace ended.
+ */
+public final class Tracing {
+
+    static final int MAX_SPANS = 64;
+
+    private static final ThreadLocal<Trace> buffers = ThreadLocal.withInitial(Trace::new);
+
+    private static final ThreadLocal<Scope> scopes = ThreadLocal.withInitial(Scope::new);
+
+    private static final BlockingQueue<Trace> pool = new ArrayBlockingQueue<>(1024);
+
+    private Tracing() {
+    }
+
+    /**
+     * Starts a trace in the buffer of the current thread, with a root span from {@code start} on.
+     */
+    static Trace start(String name, String requestId, long start) {
+        final Trace trace;
+        if (VirtualThreads.isCurrentThreadVirtual()) {
+            final Trace pooled = pool.poll();
+            trace = pooled != null ? pooled : new Trace(true);
+        } else {
+            trace = buffers.get();
+        }
+        final long generation = trace.reset(name, requestId, start);
+        scopes.get().set(trace, generation, 0);
+        return trace;
+    }
+
+    /**
+     * Ends the scope of the current thread and hands its buffer to the request, which completes asynchronously,
+     * possibly on another thread.
+     */
+    static void handOff() {
+        if (!VirtualThreads.isCurrentThreadVirtual()) {
+            buffers.remove();
+        }
+        scopes.get().set(null, 0, -1);
+    }
+
+    /**
+     * Ends the scope of the current thread, the trace itself is ended by {@link TraceSampler}.
+     */
+    static void leave() {
+        scopes.get().set(null, 0, -1);
+    }
+
+    /**
+     * Opens a child span of the innermost open span of the current thread.
+     *
+     * @return the span, to be passed to {@link #end(int)}, or -1 without trace or when the trace is full
+     */
+    public static int begin(String name) {
+        final Scope scope = scopes.get();
+        if (scope.trace == null) {
+            return -1;
+        }
+        final int span = scope.trace.add(scope.generation, name, scope.span, System.nanoTime());
+        if (span >= 0) {
+            scope.span = span;
+        }
+        return span;
+    }
+
+    public static void end(int span) {
+        if (span < 0) {
+            return;
+        }
+        final Scope scope = scopes.get();
+        if (scope.trace != null) {
+            scope.span = scope.trace.end(scope.generation, span, System.nanoTime());
+        }
+    }
+
+    /**
+     * Leaves a span open for work that completes on another thread, and continues with its parent on the
+     * current thread.
+     *
+     * @return the scope to end the span with {@link #end(Scope, int)}, or {@code null} without trace
+     */
+    public static Scope endLater(int span) {
+        if (span < 0) {
+            return null;
+        }
+        final Scope scope = scopes.get();
+        if (scope.trace == null) {
+            return null;
+        }
+        final Scope copy = new Scope();
+        copy.set(scope.trace, scope.generation, span);
+        scope.span = scope.trace.parent(span);
+        return copy;
+    }
+
+    /**
+     * Ends a span left open by {@link #endLater(int)}, on any thread.
+     */
+    public static void end(Scope scope, int span) {
+        if (scope != null) {
+            scope.trace.end(scope.generation, span, System.nanoTime());
+        }
+    }
+
+    /**
+     * @return the trace and innermost span of the current thread, or {@code null} without trace
+     */
+    public static Scope capture() {
+        final Scope scope = scopes.get();
+        if (scope.trace == null) {
+            return null;
+        }
+        final Scope copy = new Scope();
+        copy.set(scope.trace, scope.generation, scope.span);
+        return copy;
+    }
+
+    /**
+     * Continues a captured trace on the current thread, until {@link #detach()}.
+     */
+    public static void attach(Scope captured) {
+        if (captured != null) {
+            scopes.get().set(captured.trace, captured.generation, captured.span);
+        }
+    }
+
+    public static void detach() {
+        scopes.get().set(null, 0, -1);
+    }
+
+    /**
+     * The trace a thread currently records into.
+     */
+    public static final class Scope {
+
+        private Trace trace;
+        private long generation;
+        private int span;
+
+        private void set(Trace trace, long generation, int span) {
+            this.trace = trace;
+            this.generation = generation;
+            this.span = span;
+        }
+    }
+
+    /**
+     * Spans in parallel arrays, indexed by their order of opening; span 0 is the request. All access is
+     * synchronized on the trace, which is uncontended unless a request fans out to other threads.
+     */
+    static final class Trace {
+
+        final String[] names = new String[MAX_SPANS];
+        final String[] threads = new String[MAX_SPANS];
+        final int[] parents = new int[MAX_SPANS];
+        final long[] starts = new long[MAX_SPANS];
+        /* 0 while the span is open */
+        final long[] ends = new long[MAX_SPANS];
+        int size;
+        int dropped;
+        long generation;
+        String requestId;
+        /* returned to the pool when it ends */
+        private final boolean pooled;
+        private boolean open;
+
+        Trace() {
+            this(false);
+        }
+
+        private Trace(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        synchronized long reset(String name, String requestId, long start) {
+            generation++;
+            open = true;
+            this.requestId = requestId;
+            size = 0;
+            dropped = 0;
+            add(generation, name, -1, start);
+            return generation;
+        }
+
+        synchronized int add(long generation, String name, int parent, long start) {
+            if (generation != this.generation) {
+                return -1;
+            }
+            if (size == MAX_SPANS) {
+                dropped++;
+                return -1;
+            }
+            names[size] = name;
+            threads[size] = Thread.currentThread().getName();
+            parents[size] = parent;
+            starts[size] = start;
+            ends[size] = 0;
+            return size++;
+        }
+
+        /**
+         * @return the parent of the span
+         */
+        synchronized int end(long generation, int span, long end) {
+            if (generation == this.generation) {
+                ends[span] = end;
+            }
+            return parents[span];
+        }
+
+        synchronized int parent(int span) {
+            return parents[span];
+        }
+
+        /**
+         * Ends the trace, later writes of its spans are ignored.
+         */
+        synchronized void close() {
+            generation++;
+            if (open) {
+                open = false;
+                if (pooled) {
+                    pool.offer(this);
+                }
+            }
+        }
+
+        /**
+         * Writes the spans as a JSON array of objects with offsets and durations in milliseconds from the start of
+         * the request, ends the request span after {@code duration} nanoseconds and closes the trace.
+         */
+        synchronized void closeAndWrite(StringBuilder out, long duration) {
+            ends[0] = starts[0] + duration;
+            out.append('[');
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append("{\"id\":").append(i);
+                MetricsJsonWriter.field(out, "parent", parents[i]);
+                MetricsJsonWriter.field(out, "name", names[i]);
+                MetricsJsonWriter.field(out, "thread", threads[i]);
+                MetricsJsonWriter.field(out, "offset", (starts[i] - starts[0]) / 1e6);
+                if (ends[i] != 0) {
+                    MetricsJsonWriter.field(out, "duration", (ends[i] - starts[i]) / 1e6);
+                }
+                out.append('}');
+            }
+            out.append(']');
+            close();
+        }
+    }
+
+}
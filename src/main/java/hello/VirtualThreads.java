@@ -0,0 +1,91 @@
+package hello;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of JDK 21 and later, looked up reflectively because the application is compiled for Java 8.
+ *
+ * Code that keeps per-thread state in thread locals to avoid allocation or contention, like
+ * {@link RequestIdGenerator}, asks {@link #isCurrentThreadVirtual()}: a virtual thread runs a single task, so its
+ * thread locals are created for that task and dropped with it.
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+    /* a constant handle, which the JIT inlines like a direct call, unlike Method.invoke with its boxed result */
+    private static final MethodHandle IS_VIRTUAL = isVirtual();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    public static boolean isCurrentThreadVirtual() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * A factory of virtual threads named {@code <prefix><n>}.
+     *
+     * @throws UnsupportedOperationException on JDKs without virtual threads
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later, running on " + System.getProperty("java.version"));
+        }
+        try {
+            // Thread.ofVirtual().name(prefix, 0).factory(), through the public Thread.Builder interfaces
+            final Object builder = OF_VIRTUAL.invoke(null);
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            final Object named = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(named);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread factory", e);
+        }
+    }
+
+    /**
+     * An executor that starts a new virtual thread for every task, like {@code Executors.newVirtualThreadPerTaskExecutor()}.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        final ThreadFactory factory = newThreadFactory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread executor", e);
+        }
+    }
+
+    private static MethodHandle isVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Method method(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package hello;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServlet;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests how {@link AdaptiveConcurrencyLimit} follows latency and how {@link ConcurrencyLimitFilter} sheds load.
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 5, 200, 0, 10, 60);
+
+	private long now = System.nanoTime();
+
+	@Test
+	public void shouldGrowWhileLatencyIsSteadyAndTheLimitIsUsed() {
+		windows(10, 100 * MILLIS, 20);
+
+		then(limit.getLimit()).isGreaterThan(20).isLessThanOrEqualTo(200);
+	}
+
+	@Test
+	public void shouldNotGrowWhileTheLimitIsHardlyUsed() {
+		windows(10, 100 * MILLIS, 2);
+
+		then(limit.getLimit()).isEqualTo(20);
+	}
+
+	@Test
+	public void shouldShrinkWhenLatencyRises() {
+		windows(5, 100 * MILLIS, 20);
+		final int steady = limit.getLimit();
+
+		windows(1, 1000 * MILLIS, 20);
+		then(limit.getLimit()).isLessThan(steady);
+
+		windows(20, 1000 * MILLIS, 20);
+		then(limit.getLimit()).isLessThan(steady / 2).isGreaterThanOrEqualTo(5);
+	}
+
+	@Test
+	public void shouldRejectWith503AndRetryAfterAboveTheLimit() throws Exception {
+		final MetricRegistry registry = new MetricRegistry();
+		final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter();
+		ReflectionTestUtils.setField(filter, "metricRegistry", registry);
+		ReflectionTestUtils.setField(filter, "initialLimit", 1);
+		ReflectionTestUtils.setField(filter, "minLimit", 1);
+		ReflectionTestUtils.setField(filter, "maxLimit", 10);
+		ReflectionTestUtils.setField(filter, "windowSamples", 10);
+		ReflectionTestUtils.setField(filter, "longWindows", 60);
+		ReflectionTestUtils.setField(filter, "retryAfterSeconds", 2);
+		filter.init(new MockFilterConfig());
+
+		final MockHttpServletRequest admitted = new MockHttpServletRequest("GET", "/hello-world");
+		new MockFilterChain(new HttpServlet() {}, filter).doFilter(admitted, new MockHttpServletResponse());
+		final MockHttpServletResponse rejected = new MockHttpServletResponse();
+		new MockFilterChain(new HttpServlet() {}, filter).doFilter(new MockHttpServletRequest("GET", "/hello-world"), rejected);
+
+		then(rejected.getStatus()).isEqualTo(503);
+		then(rejected.getHeader("Retry-After")).isEqualTo("2");
+		then(registry.meter("concurrency-limit.rejected").getCount()).isEqualTo(1);
+		then(registry.getGauges().get("concurrency-limit.in-flight").getValue()).isEqualTo(1);
+
+		filter.onRequestComplete(admitted, "/hello-world", MILLIS);
+		filter.onRequestComplete(admitted, "/hello-world", MILLIS);
+		then(registry.getGauges().get("concurrency-limit.in-flight").getValue()).isEqualTo(0);
+	}
+
+	/* completes 10 requests per window with the given latency and requests in flight */
+	private void windows(int windows, long latency, int inFlight) {
+		for (int i = 0; i < windows * 10; i++) {
+			now += MILLIS;
+			limit.sample(latency, inFlight, now);
+		}
+	}
+
+}
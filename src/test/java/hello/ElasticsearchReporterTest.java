@@ -0,0 +1,164 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests {@link ElasticsearchReporter} against a local HTTP stand-in for the Elasticsearch bulk API.
+ */
+public class ElasticsearchReporterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+	private final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger failures = new AtomicInteger();
+
+	private HttpServer server;
+
+	private File spillDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		spillDirectory = temporaryFolder.newFolder("spill");
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/_bulk", exchange -> {
+			byte[] response;
+			if (failures.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+				response = "{\"error\":\"unavailable\"}".getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(503, response.length);
+			} else {
+				contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+				bodies.add(gunzip(exchange.getRequestBody()));
+				response = "{\"took\":1,\"errors\":false,\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, response.length);
+			}
+			exchange.getResponseBody().write(response);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void shouldSendGzippedBulkBody() throws Exception {
+		registry.timer("/hello-world").update(12, TimeUnit.MILLISECONDS);
+		registry.counter("requests").inc(3);
+		ElasticsearchReporter reporter = reporter(1024 * 1024).build();
+
+		reporter.report();
+		reporter.stop();
+
+		then(bodies).hasSize(1);
+		then(contentEncodings).containsExactly("gzip");
+		String[] lines = bodies.get(0).split("\n");
+		then(lines).hasSize(4);
+		JsonNode action = objectMapper.readTree(lines[0]).get("index");
+		then(action.get("_index").asText()).startsWith("metrics-20");
+		then(action.get("_type").asText()).isEqualTo("doc");
+		JsonNode counter = objectMapper.readTree(lines[1]);
+		then(counter.get("type").asText()).isEqualTo("COUNTER");
+		then(counter.get("count").asLong()).isEqualTo(3);
+		then(counter.get("@timestamp").asText()).endsWith("Z");
+		JsonNode timer = objectMapper.readTree(lines[3]);
+		then(timer.get("name").asText()).isEqualTo("/hello-world");
+		then(timer.get("max").asDouble()).isEqualTo(12.0);
+	}
+
+	@Test
+	public void shouldSplitBulkBodiesBySize() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			registry.counter("counter-" + i).inc();
+		}
+		ElasticsearchReporter reporter = reporter(2048).build();
+
+		reporter.report();
+		reporter.stop();
+
+		then(bodies.size()).isGreaterThan(1);
+		then(bodies.stream().mapToLong(body -> body.split("\n").length).sum()).isEqualTo(100);
+		then(spillDirectory.listFiles()).isEmpty();
+	}
+
+	@Test
+	public void shouldSpillWhileUnavailableAndReplayLater() throws Exception {
+		registry.counter("requests").inc();
+		failures.set(2);
+		ElasticsearchReporter reporter = reporter(1024 * 1024).withRetries(1, 10).build();
+
+		reporter.report();
+		awaitSpilledFiles(1);
+		then(bodies).isEmpty();
+
+		registry.counter("requests").inc();
+		reporter.report();
+		reporter.stop();
+
+		then(bodies).hasSize(2);
+		then(bodies.get(1)).contains("\"count\":1");
+		then(spillDirectory.listFiles()).isEmpty();
+	}
+
+	private ElasticsearchReporter.Builder reporter(int maxBulkBytes) {
+		return ElasticsearchReporter.forRegistry(registry)
+				.sendTo("http://localhost:" + server.getAddress().getPort())
+				.withMaxBulkBytes(maxBulkBytes)
+				.withFlushInterval(0, TimeUnit.SECONDS)
+				.withMaxInFlightRequests(1)
+				.withRetries(0, 10)
+				.spillTo(spillDirectory, 1024 * 1024);
+	}
+
+	private void awaitSpilledFiles(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (spillDirectory.listFiles().length < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		then(spillDirectory.listFiles()).hasSize(count);
+	}
+
+	private static String gunzip(InputStream body) throws IOException {
+		try (InputStream in = new GZIPInputStream(body)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.encoder.Encoder;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static net.logstash.logback.argument.StructuredArguments.raw;
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link GarbageFreeLogstashEncoder} writes the lines of {@link LogstashEncoderWithStructuredArguments}
+ * and, once warm, does not allocate for them.
+ */
+public class GarbageFreeLogstashEncoderTest {
+
+	private final LoggerContext context = new LoggerContext();
+
+	@After
+	public void tearDown() {
+		MDC.clear();
+	}
+
+	@Test
+	public void shouldWriteTheLinesOfTheJsonEncoder() throws Exception {
+		MDC.put(PathFilter.PATH, "/hello-world");
+		final ILoggingEvent withMdc = event("hello.HelloWorldController", "Greeting \"{}\"\n\t\u0001 ümlaut 😀", null,
+				keyValue("name", "Stranger"), keyValue("enabled", true), keyValue("missing", null), keyValue("rate", 1.0E-4), "not structured");
+		MDC.clear();
+
+		for (ILoggingEvent event : new ILoggingEvent[] {metricEvent(), snapshotEvent(), withMdc,
+				event("hello.HelloWorldController", "Started in 7.596 seconds", null)}) {
+			then(encode(new GarbageFreeLogstashEncoder(), event)).isEqualTo(encode(new LogstashEncoderWithStructuredArguments(), event));
+		}
+	}
+
+	@Test
+	public void shouldWriteOtherEventsWithTheJacksonFormatter() throws Exception {
+		final ILoggingEvent exception = event("hello.HelloWorldController", "Failed", new IllegalStateException("failed"));
+		final ILoggingEvent array = event("metrics", "{}", null, keyValue("values", new long[] {1, 2}));
+
+		then(encode(new GarbageFreeLogstashEncoder(), exception)).isEqualTo(encode(new LogstashEncoderWithStructuredArguments(), exception));
+		then(encode(new GarbageFreeLogstashEncoder(), array)).isEqualTo(encode(new LogstashEncoderWithStructuredArguments(), array));
+	}
+
+	@Test
+	public void shouldAllocateNothingPerEventOnceWarm() throws Exception {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		final long thread = Thread.currentThread().getId();
+
+		final GarbageFreeLogstashEncoder encoder = new GarbageFreeLogstashEncoder();
+		encoder.setContext(context);
+		encoder.setImmediateFlush(false);
+		encoder.start();
+		encoder.init(new DiscardingOutputStream());
+		final ILoggingEvent metric = metricEvent();
+		final ILoggingEvent snapshot = snapshotEvent();
+		for (int i = 0; i < 20_000; i++) {
+			encoder.doEncode(metric);
+			encoder.doEncode(snapshot);
+		}
+
+		final int events = 10_000;
+		final long before = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < events; i++) {
+			encoder.doEncode(metric);
+			encoder.doEncode(snapshot);
+		}
+		final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+		// StringBuilder.append(double) allocates on JDK 19 and later, whatever the encoder does
+		final StringBuilder number = new StringBuilder(32);
+		final long beforeNumbers = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < events; i++) {
+			number.setLength(0);
+			number.append(242.22105599999998).append(4.2E7).append(Double.NaN).append(0.5f);
+		}
+		final long numbers = allocations.getThreadAllocatedBytes(thread) - beforeNumbers;
+
+		// a line of the Jackson formatter allocates about 17 KB
+		then((allocated - numbers) / (2 * events)).isLessThan(8);
+	}
+
+	private String encode(Encoder<ILoggingEvent> encoder, ILoggingEvent event) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.setContext(context);
+		encoder.start();
+		encoder.init(out);
+		encoder.doEncode(event);
+		encoder.close();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private ILoggingEvent metricEvent() {
+		return event("metrics", "TIMER: {}, {}, {}, {}, {}, {}, {}, {}", null, keyValue("type", "TIMER"), keyValue("name", "/hello-world#hello"),
+				keyValue("count", 1234L), keyValue("min", 242.22105599999998), keyValue("max", 4.2E7), keyValue("p999", Double.NaN),
+				keyValue("m1", 0.5f), keyValue("size", -17), keyValue("duration_unit", "milliseconds"));
+	}
+
+	private ILoggingEvent snapshotEvent() {
+		return event("metrics", "SNAPSHOT: {}, {}, {}", null, keyValue("type", "SNAPSHOT"), keyValue("size", 2),
+				raw("metrics", "[{\"name\":\"/hello-world\",\"count\":12,\"p999\":499.1},{\"name\":\"/hello-world/async\",\"count\":3,\"p999\":7.5}]"));
+	}
+
+	private ILoggingEvent event(String logger, String message, Throwable throwable, Object... arguments) {
+		final LoggingEvent event = new LoggingEvent(GarbageFreeLogstashEncoderTest.class.getName(), context.getLogger(logger), Level.INFO,
+				message, throwable, arguments);
+		event.prepareForDeferredProcessing();
+		return event;
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package hello;
+
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link GreetingHttpMessageConverter} writes the same JSON as Jackson.
+ */
+public class GreetingHttpMessageConverterTest {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final GreetingHttpMessageConverter converter = new GreetingHttpMessageConverter();
+
+	private final GreetingRenderer renderer = new GreetingRenderer();
+
+	@Test
+	public void shouldWriteTheSameJsonAsJackson() throws Exception {
+		for (String name : new String[] {"Stranger", "\"quoted\" \\ back\\slash", "tab\tnew\nline", "Zoë ☃ 😀", ""}) {
+			final Greeting rendered = new Greeting(42, "hi ", renderer.render(name));
+			final Greeting plain = new Greeting(Long.MAX_VALUE, "hi " + String.format(GreetingRenderer.TEMPLATE, name));
+
+			then(write(rendered)).isEqualTo(objectMapper.writeValueAsString(rendered));
+			then(write(plain)).isEqualTo(objectMapper.writeValueAsString(plain));
+		}
+		then(write(new Greeting(1, null))).isEqualTo(objectMapper.writeValueAsString(new Greeting(1, null)));
+	}
+
+	private String write(Greeting greeting) throws Exception {
+		final MockHttpOutputMessage message = new MockHttpOutputMessage();
+		converter.write(greeting, MediaType.APPLICATION_JSON, message);
+		return message.getBodyAsString(StandardCharsets.UTF_8);
+	}
+
+}
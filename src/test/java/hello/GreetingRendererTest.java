@@ -0,0 +1,58 @@
+package hello;
+
+import java.nio.charset.StandardCharsets;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link GreetingRenderer} renders greetings with their JSON encoding and publishes its cache
+ * statistics.
+ */
+public class GreetingRendererTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private GreetingRenderer renderer;
+
+	@Before
+	public void setUp() {
+		renderer = new GreetingRenderer();
+		ReflectionTestUtils.setField(renderer, "metricRegistry", registry);
+		ReflectionTestUtils.setField(renderer, "cacheEnabled", true);
+		ReflectionTestUtils.setField(renderer, "maximumSize", 100L);
+		ReflectionTestUtils.setField(renderer, "expireAfterWriteSeconds", 60L);
+		renderer.createCache();
+	}
+
+	@Test
+	public void shouldRenderTheGreetingAndItsJson() {
+		final GreetingRenderer.Rendered rendered = renderer.render("\"Zoë\"");
+
+		then(rendered.getText()).isEqualTo(String.format(GreetingRenderer.TEMPLATE, "\"Zoë\""));
+		then(new String(rendered.getJson(), StandardCharsets.UTF_8)).isEqualTo("Hello, \\\"Zoë\\\"!");
+	}
+
+	@Test
+	public void shouldPublishCacheStatistics() {
+		renderer.render("Alice");
+		renderer.render("Alice");
+		renderer.render("Alice");
+		renderer.render("Bob");
+
+		then(gauge("greeting.cache.hit-ratio")).isEqualTo(0.5);
+		then(gauge("greeting.cache.size")).isEqualTo(2L);
+		then(gauge("greeting.cache.eviction-count")).isEqualTo(0L);
+		then(renderer.render("Alice")).isSameAs(renderer.render("Alice"));
+	}
+
+	private Object gauge(String name) {
+		return ((Gauge<?>) registry.getGauges().get(name)).getValue();
+	}
+
+}
@@ -0,0 +1,124 @@
+package hello;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Checks the percentiles of {@link HdrHistogramReservoir} against known distributions.
+ */
+public class HdrHistogramReservoirTest {
+
+	private static final long LOWEST = TimeUnit.MICROSECONDS.toNanos(1);
+
+	private static final long HIGHEST = TimeUnit.MINUTES.toNanos(1);
+
+	@Test
+	public void shouldReportPercentilesOfUniformDistributionWithinPrecision() {
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(LOWEST, HIGHEST, 3, 0, TimeUnit.SECONDS);
+		List<Long> values = new ArrayList<>();
+		for (long tensOfMicros = 1; tensOfMicros <= 100000; tensOfMicros++) {
+			values.add(TimeUnit.MICROSECONDS.toNanos(tensOfMicros * 10));
+		}
+		Collections.shuffle(values, new Random(42));
+		values.forEach(reservoir::update);
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		then(snapshot.size()).isEqualTo(100000);
+		// values near the lowest discernible value are only resolved to that value
+		then(snapshot.getMin()).isCloseTo(10000L, within(LOWEST));
+		then(snapshot.getMax()).isCloseTo(1000000000L, within(1000000L));
+		then(snapshot.getMean()).isCloseTo(500005000.0, within(500000.0));
+		then(snapshot.getMedian()).isCloseTo(500000000.0, within(500000.0));
+		then(snapshot.get99thPercentile()).isCloseTo(990000000.0, within(990000.0));
+		then(snapshot.get999thPercentile()).isCloseTo(999000000.0, within(999000.0));
+	}
+
+	@Test
+	public void shouldReportTailOfExponentialDistribution() {
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(LOWEST, HIGHEST, 2, 0, TimeUnit.SECONDS);
+		Random random = new Random(7);
+		double meanNanos = TimeUnit.MILLISECONDS.toNanos(50);
+		for (int i = 0; i < 1000000; i++) {
+			reservoir.update((long) (-meanNanos * Math.log(1 - random.nextDouble())));
+		}
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		// quantile q of an exponential distribution is -mean * ln(1 - q)
+		then(snapshot.get99thPercentile()).isCloseTo(meanNanos * Math.log(100), within(meanNanos * Math.log(100) * 0.02));
+		then(snapshot.get999thPercentile()).isCloseTo(meanNanos * Math.log(1000), within(meanNanos * Math.log(1000) * 0.02));
+	}
+
+	@Test
+	public void shouldCoverTheSlidingWindowForEverySnapshot() {
+		ManualClock clock = new ManualClock();
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(LOWEST, HIGHEST, 2, 60, TimeUnit.SECONDS, clock);
+
+		reservoir.update(TimeUnit.MILLISECONDS.toNanos(1));
+		then(reservoir.getSnapshot().size()).isEqualTo(1);
+		clock.tick += TimeUnit.SECONDS.toNanos(30);
+		reservoir.update(TimeUnit.MILLISECONDS.toNanos(2));
+
+		// any number of consumers see the same window
+		then(reservoir.getSnapshot().size()).isEqualTo(2);
+		then(reservoir.getSnapshot().size()).isEqualTo(2);
+
+		clock.tick += TimeUnit.SECONDS.toNanos(40);
+		Snapshot slid = reservoir.getSnapshot();
+		then(slid.size()).isEqualTo(1);
+		then(slid.getMin()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(2), within(TimeUnit.MILLISECONDS.toNanos(2) / 100));
+
+		clock.tick += TimeUnit.SECONDS.toNanos(60);
+		then(reservoir.getSnapshot().size()).isEqualTo(0);
+		then(reservoir.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void shouldAccumulateWithoutWindowAndReuseUnchangedSnapshots() {
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(LOWEST, HIGHEST, 2, 0, TimeUnit.SECONDS);
+		reservoir.update(TimeUnit.MILLISECONDS.toNanos(1));
+		Snapshot first = reservoir.getSnapshot();
+
+		then(reservoir.getSnapshot()).isSameAs(first);
+
+		reservoir.update(TimeUnit.MILLISECONDS.toNanos(2));
+		Snapshot second = reservoir.getSnapshot();
+		then(second.size()).isEqualTo(2);
+		then(second.getValues()).hasSize(2);
+		then(first.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldClampValuesOutsideTrackableRange() {
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(LOWEST, HIGHEST, 2, 0, TimeUnit.SECONDS);
+
+		reservoir.update(-1);
+		reservoir.update(HIGHEST * 2);
+
+		Snapshot snapshot = reservoir.getSnapshot();
+		then(snapshot.getMin()).isEqualTo(0);
+		then(snapshot.getMax()).isCloseTo(HIGHEST, within(HIGHEST / 100));
+	}
+
+	private static class ManualClock extends Clock {
+
+		private long tick;
+
+		@Override
+		public long getTick() {
+			return tick;
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+package hello;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.BDDAssertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests hedging, cancellation and deadlines of {@link HedgingAspect} on a service with scripted latencies.
+ */
+public class HedgingAspectTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final ScriptedService target = new ScriptedService();
+
+	private ScriptedService service;
+
+	@Before
+	public void setUp() {
+		final HedgingAspect hedging = new HedgingAspect();
+		ReflectionTestUtils.setField(hedging, "metricRegistry", registry);
+		ReflectionTestUtils.setField(hedging, "hedgingExecutor", executor);
+		ReflectionTestUtils.setField(hedging, "minSamples", 100L);
+		ReflectionTestUtils.setField(hedging, "delayRefreshMillis", 1000L);
+
+		final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAspect(hedging);
+		service = proxyFactory.getProxy();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		MDC.clear();
+	}
+
+	@Test
+	public void shouldHedgeAndCancelASlowFirstAttempt() {
+		usualLatency(20);
+		target.latencies = new long[] {5000, 10};
+
+		final long start = System.nanoTime();
+		then(service.call()).isEqualTo("attempt 2");
+
+		then(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+		then(registry.meter("hedging.ScriptedService.call.hedges").getCount()).isEqualTo(1);
+		then(registry.meter("hedging.ScriptedService.call.hedge-wins").getCount()).isEqualTo(1);
+		then(awaitInterrupted()).isTrue();
+	}
+
+	@Test
+	public void shouldRecordCancelledFirstAttemptsButNoSecondAttempts() throws Exception {
+		usualLatency(20);
+		target.latencies = new long[] {5000, 10};
+
+		service.call();
+
+		then(awaitInterrupted()).isTrue();
+		final Timer firstAttempts = registry.timer("hedging.ScriptedService.call.first-attempts");
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+		while (firstAttempts.getCount() < 101 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		then(firstAttempts.getCount()).isEqualTo(101);
+		then(firstAttempts.getSnapshot().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+	}
+
+	@Test
+	public void shouldNotHedgeFastCalls() {
+		usualLatency(200);
+		target.latencies = new long[] {10, 10};
+
+		then(service.call()).isEqualTo("attempt 1");
+		then(registry.meter("hedging.ScriptedService.call.calls").getCount()).isEqualTo(1);
+		then(registry.meter("hedging.ScriptedService.call.hedges").getCount()).isZero();
+	}
+
+	@Test
+	public void shouldNotHedgeWithoutEnoughSamples() {
+		target.latencies = new long[] {100, 10};
+
+		then(service.call()).isEqualTo("attempt 1");
+		then(registry.meter("hedging.ScriptedService.call.hedges").getCount()).isZero();
+	}
+
+	@Test
+	public void shouldFailAfterTheDeadline() {
+		usualLatency(20);
+		target.latencies = new long[] {5000, 5000};
+
+		final Throwable thrown = catchThrowable(() -> service.call());
+
+		then(thrown).isInstanceOf(DeadlineExceededException.class);
+		then(registry.meter("hedging.ScriptedService.call.deadline-exceeded").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldRunAttemptsWithTheCallersMdc() {
+		MDC.put(PathFilter.PATH, "/hello-world");
+		target.latencies = new long[] {10};
+
+		service.call();
+
+		then(target.path).isEqualTo("/hello-world");
+	}
+
+	/* the timer the hedge delay is taken from */
+	private void usualLatency(long millis) {
+		final Timer timer = registry.timer("hedging.ScriptedService.call.first-attempts");
+		for (int i = 0; i < 100; i++) {
+			timer.update(millis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private boolean awaitInterrupted() {
+		try {
+			return target.interrupted.await(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static class ScriptedService {
+
+		final AtomicInteger attempts = new AtomicInteger();
+
+		final CountDownLatch interrupted = new CountDownLatch(1);
+
+		volatile long[] latencies;
+
+		volatile String path;
+
+		@Hedged(percentile = 0.5, deadlineMillis = 500)
+		public String call() {
+			final int attempt = attempts.incrementAndGet();
+			path = MDC.get(PathFilter.PATH);
+			try {
+				Thread.sleep(latencies[attempt - 1]);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw new IllegalStateException(e);
+			}
+			return "attempt " + attempt;
+		}
+
+	}
+
+}
@@ -19,11 +19,16 @@ import java.util.Map;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.embedded.LocalServerPort;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.TestPropertySource;
@@ -50,6 +55,9 @@ public class HelloWorldConfigurationTests {
 	@Autowired
 	private TestRestTemplate testRestTemplate;
 
+	@Autowired
+	private MetricRegistry metricRegistry;
+
 	@Test
 	public void shouldReturn200WhenSendingRequestToController() throws Exception {
 		@SuppressWarnings("rawtypes")
@@ -59,6 +67,58 @@ public class HelloWorldConfigurationTests {
 		then(entity.getStatusCode()).isEqualTo(HttpStatus.OK);
 	}
 
+	@Test
+	public void shouldReturn200WhenSendingRequestToAsyncController() throws Exception {
+		@SuppressWarnings("rawtypes")
+		ResponseEntity<Map> entity = this.testRestTemplate.getForEntity(
+				"http://localhost:" + this.port + "/hello-world/async?name=Async", Map.class);
+
+		then(entity.getStatusCode()).isEqualTo(HttpStatus.OK);
+		then(entity.getBody().get("content")).isEqualTo("hi Hello, Async!");
+	}
+
+	@Test
+	public void shouldTimeRequestsByHandlerPattern() throws Exception {
+		Timer timer = this.metricRegistry.timer("/hello-world");
+		long before = timer.getCount();
+
+		this.testRestTemplate.getForEntity("http://localhost:" + this.port + "/hello-world/", Map.class);
+
+		// the filter records after the response has been flushed
+		long deadline = System.currentTimeMillis() + 1000;
+		while (timer.getCount() == before && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		then(timer.getCount()).isEqualTo(before + 1);
+		then(this.metricRegistry.getTimers()).doesNotContainKey("/hello-world/");
+	}
+
+	@Test
+	public void shouldEchoRequestIdHeader() throws Exception {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(RequestIdFilter.REQUEST_ID_HEADER, "upstream-42");
+		ResponseEntity<String> forwarded = this.testRestTemplate.exchange(
+				"http://localhost:" + this.port + "/hello-world", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		ResponseEntity<String> generated = this.testRestTemplate.getForEntity(
+				"http://localhost:" + this.port + "/hello-world", String.class);
+
+		then(forwarded.getHeaders().getFirst(RequestIdFilter.REQUEST_ID_HEADER)).isEqualTo("upstream-42");
+		then(generated.getHeaders().getFirst(RequestIdFilter.REQUEST_ID_HEADER)).matches("[0-9a-f]{16}");
+	}
+
+	@Test
+	public void shouldStreamOpenMetricsOnManagementPort() throws Exception {
+		this.testRestTemplate.getForEntity("http://localhost:" + this.port + "/hello-world", Map.class);
+
+		ResponseEntity<String> entity = this.testRestTemplate.getForEntity(
+				"http://localhost:" + this.mgt + "/openmetrics?prefix=/hello-world", String.class);
+
+		then(entity.getStatusCode()).isEqualTo(HttpStatus.OK);
+		then(entity.getHeaders().getContentType().toString()).startsWith("application/openmetrics-text");
+		then(entity.getBody()).contains("# TYPE hello_world_seconds summary\n").contains("hello_world_seconds_count ")
+				.doesNotContain("_total").endsWith("# EOF\n");
+	}
+
 	@Test
 	public void shouldReturn200WhenSendingRequestToManagementEndpoint() throws Exception {
 		@SuppressWarnings("rawtypes")
@@ -0,0 +1,252 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link LogShipper} ships every complete event of the segments once, across restarts, and sends the
+ * events to a local HTTP stand-in for the Elasticsearch bulk API.
+ */
+public class LogShipperTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final List<String> shipped = new ArrayList<>();
+
+	private File directory;
+
+	private String pattern;
+
+	private Path checkpoint;
+
+	private boolean failing;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.newFolder("log");
+		pattern = new File(directory, "log.%i.json").getPath();
+		checkpoint = new File(temporaryFolder.getRoot(), "checkpoint").toPath();
+	}
+
+	@Test
+	public void shouldShipCompressedFinishedAndActiveSegmentsOnce() throws Exception {
+		gzip(segment(1), event(1) + event(2));
+		write(segment(2), event(3) + event(4));
+		// the active segment is preallocated and ends with a partial event
+		write(segment(3), event(5) + "{\"@timestamp\":\"2017-02-05T12:00:06.000+01:00\",\"mess");
+		Files.write(segment(3), new byte[4096], StandardOpenOption.APPEND);
+		LogShipper shipper = shipper();
+
+		then(shipper.shipAvailable()).isEqualTo(5);
+		then(shipped).containsExactly(event(1), event(2), event(3), event(4), event(5));
+		then(shipper.getLagBytes()).isEqualTo("{\"@timestamp\":\"2017-02-05T12:00:06.000+01:00\",\"mess".length());
+		then(shipper.getLagSeconds()).isGreaterThan(0);
+
+		// the rest of the event, a new segment and a restart
+		try (FileChannel active = FileChannel.open(segment(3), StandardOpenOption.WRITE)) {
+			active.write(StandardCharsets.UTF_8.encode(event(6)), event(5).length());
+		}
+		write(segment(4), event(7));
+		shipped.clear();
+		shipper.stop();
+		shipper = shipper();
+
+		then(shipper.shipAvailable()).isEqualTo(2);
+		then(shipped).containsExactly(event(6), event(7));
+		then(shipper.getLagBytes()).isZero();
+		then(shipper.getLagSeconds()).isZero();
+
+		// segment 4 is compressed once finished, it is not shipped again
+		Files.delete(segment(4));
+		gzip(segment(4), event(7));
+		write(segment(5), event(8));
+		shipped.clear();
+
+		then(shipper.shipAvailable()).isEqualTo(1);
+		then(shipped).containsExactly(event(8));
+	}
+
+	@Test
+	public void shouldShipAnEventLongerThanTheBufferOfACompressedSegment() throws Exception {
+		final StringBuilder message = new StringBuilder();
+		while (message.length() < 1024 * 1024) {
+			message.append("metric ");
+		}
+		final String snapshot = String.format("{\"@timestamp\":\"2017-02-05T12:00:02.000+01:00\",\"message\":\"%s\"}\n", message);
+		gzip(segment(1), event(1) + snapshot + event(3));
+		write(segment(2), "");
+		final LogShipper shipper = shipper();
+
+		then(shipper.shipAvailable()).isEqualTo(3);
+		then(shipped).containsExactly(event(1), snapshot, event(3));
+	}
+
+	@Test
+	public void shouldShipARecreatedSegmentFromTheStart() throws Exception {
+		write(segment(1), event(1) + event(2));
+		LogShipper shipper = shipper();
+		then(shipper.shipAvailable()).isEqualTo(2);
+		shipper.stop();
+
+		// a new file, with another inode, replaces the segment
+		final Path recreated = directory.toPath().resolve("recreated");
+		write(recreated, event(3));
+		Files.move(recreated, segment(1), StandardCopyOption.REPLACE_EXISTING);
+		shipped.clear();
+		shipper = shipper();
+
+		then(shipper.shipAvailable()).isEqualTo(1);
+		then(shipped).containsExactly(event(3));
+	}
+
+	@Test
+	public void shouldShipAFailedBatchAgain() throws Exception {
+		write(segment(1), event(1) + event(2));
+		final LogShipper shipper = shipper();
+
+		failing = true;
+		try {
+			shipper.shipAvailable();
+		} catch (IOException expected) {
+			// sent again on the next poll
+		}
+		then(shipper.getLagBytes()).isEqualTo(event(1).length() + event(2).length());
+
+		failing = false;
+		then(shipper.shipAvailable()).isEqualTo(2);
+		then(shipped).containsExactly(event(1), event(2));
+	}
+
+	@Test
+	public void shouldIndexTheEventsWithTheBulkApi() throws Exception {
+		write(segment(1), event(1) + event(2));
+
+		then(bulkBodies("doc", 2)).containsExactly("{\"index\":{\"_index\":\"metrics-2017.02.05\",\"_type\":\"doc\",\"_id\":\"1-0\"}}\n" + event(1)
+				+ "{\"index\":{\"_index\":\"metrics-2017.02.05\",\"_type\":\"doc\",\"_id\":\"1-" + event(1).length() + "\"}}\n" + event(2));
+	}
+
+	@Test
+	public void shouldIndexEveryMetricOfASnapshotEvent() throws Exception {
+		final String snapshot = "{\"@timestamp\":\"2017-02-05T12:00:01.000+01:00\",\"message\":\"SNAPSHOT: 2\",\"type\":\"SNAPSHOT\",\"size\":2,"
+				+ "\"metrics\":[{\"type\":\"COUNTER\",\"name\":\"requests\",\"count\":3},{\"type\":\"GAUGE\",\"name\":\"queue\",\"value\":1.5}]}\n";
+		write(segment(1), snapshot);
+
+		then(bulkBodies(null, 1)).containsExactly("{\"index\":{\"_index\":\"metrics-2017.02.05\",\"_id\":\"1-0-0\"}}\n"
+				+ "{\"@timestamp\":\"2017-02-05T12:00:01.000+01:00\",\"message\":\"SNAPSHOT: 2\",\"type\":\"COUNTER\",\"name\":\"requests\",\"count\":3}\n"
+				+ "{\"index\":{\"_index\":\"metrics-2017.02.05\",\"_id\":\"1-0-1\"}}\n"
+				+ "{\"@timestamp\":\"2017-02-05T12:00:01.000+01:00\",\"message\":\"SNAPSHOT: 2\",\"type\":\"GAUGE\",\"name\":\"queue\",\"value\":1.5}\n");
+	}
+
+	@Test
+	public void shouldReadTheTimestampOfAnEvent() {
+		final byte[] event = event(1).getBytes(StandardCharsets.UTF_8);
+
+		then(LogShipper.timestamp(event, 0, event.length)).isEqualTo(Instant.parse("2017-02-05T11:00:01Z").toEpochMilli());
+		then(LogShipper.timestamp(event, 2, event.length)).isEqualTo(-1);
+	}
+
+	private LogShipper shipper() throws IOException {
+		return LogShipper.forSegments(pattern).checkpointTo(checkpoint).shipTo(new LogSink() {
+
+			@Override
+			public void send(LogSink.Batch batch) throws IOException {
+				if (failing) {
+					throw new IOException("unavailable");
+				}
+				for (int line = 0; line < batch.lines(); line++) {
+					final int end = line + 1 < batch.lines() ? batch.lineStart(line + 1) : batch.length();
+					shipped.add(new String(batch.bytes(), batch.lineStart(line), end - batch.lineStart(line), StandardCharsets.UTF_8));
+				}
+			}
+
+			@Override
+			public void close() {
+			}
+		}).withMaxBatch(2, 1024 * 1024).build();
+	}
+
+	/* ships the events of the segments to a local stand-in for the bulk API and returns the request bodies */
+	private List<String> bulkBodies(String documentType, int events) throws Exception {
+		final List<String> bodies = new CopyOnWriteArrayList<>();
+		final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+		final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/_bulk", exchange -> {
+			contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+			bodies.add(gunzip(exchange.getRequestBody()));
+			final byte[] response = "{\"took\":1,\"errors\":false,\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, response.length);
+			exchange.getResponseBody().write(response);
+			exchange.close();
+		});
+		server.start();
+		try {
+			final LogShipper shipper = LogShipper.forSegments(pattern)
+					.checkpointTo(checkpoint)
+					.shipTo(LogSink.forTarget("http://localhost:" + server.getAddress().getPort(), "metrics-", documentType))
+					.build();
+
+			then(shipper.shipAvailable()).isEqualTo(events);
+			shipper.stop();
+		} finally {
+			server.stop(0);
+		}
+		then(contentEncodings).containsOnly("gzip");
+		return bodies;
+	}
+
+	private Path segment(int sequence) {
+		return directory.toPath().resolve(String.format("log.%06d.json", sequence));
+	}
+
+	private static String event(int second) {
+		return String.format("{\"@timestamp\":\"2017-02-05T12:00:%02d.000+01:00\",\"@version\":1,\"message\":\"event %d\"}\n", second, second);
+	}
+
+	private static void write(Path path, String content) throws IOException {
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void gzip(Path segment, String content) throws IOException {
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(segment.resolveSibling(segment.getFileName() + ".gz")))) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static String gunzip(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream gzip = new GZIPInputStream(in)) {
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = gzip.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,174 @@
+package hello;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.logstash.logback.argument.StructuredArgument;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests for the report formats of {@link LogstashReporter}.
+ */
+public class LogstashReporterTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private ListAppender<ILoggingEvent> appender;
+
+	private Logger logger;
+
+	@Before
+	public void setUp() {
+		LoggerContext context = new LoggerContext();
+		appender = new ListAppender<>();
+		appender.setContext(context);
+		appender.start();
+		logger = context.getLogger("metrics");
+		logger.setLevel(Level.INFO);
+		logger.addAppender(appender);
+	}
+
+	@Test
+	public void shouldLogOneEventPerMetricByDefault() {
+		registry.timer("/hello-world").update(12, TimeUnit.MILLISECONDS);
+		registry.counter("requests").inc();
+
+		reporter(LogstashReporter.Format.EVENT_PER_METRIC, 0).report();
+
+		then(appender.list).hasSize(2);
+		then(appender.list.get(0).getFormattedMessage()).startsWith("COUNTER: type=COUNTER, name=requests, count=1");
+	}
+
+	@Test
+	public void shouldLogSnapshotAsJsonArray() throws Exception {
+		registry.timer("/hello-world").update(12, TimeUnit.MILLISECONDS);
+		registry.counter("requests").inc(3);
+		registry.register("queue \"depth\"", (Gauge<Double>) () -> Double.NaN);
+
+		reporter(LogstashReporter.Format.SNAPSHOT, 0).report();
+
+		then(appender.list).hasSize(1);
+		JsonNode metrics = metrics(appender.list.get(0));
+		then(metrics.size()).isEqualTo(3);
+		then(metrics.get(0).get("name").asText()).isEqualTo("queue \"depth\"");
+		then(metrics.get(0).get("value").isNull()).isTrue();
+		then(metrics.get(1).get("type").asText()).isEqualTo("COUNTER");
+		then(metrics.get(1).get("count").asLong()).isEqualTo(3);
+		JsonNode timer = metrics.get(2);
+		then(timer.get("type").asText()).isEqualTo("TIMER");
+		then(timer.get("max").asDouble()).isEqualTo(12.0);
+		then(timer.get("rate_unit").asText()).isEqualTo("events/second");
+		then(timer.get("duration_unit").asText()).isEqualTo("milliseconds");
+	}
+
+	@Test
+	public void shouldSplitSnapshotIntoChunks() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			registry.counter("counter-" + i).inc();
+		}
+
+		reporter(LogstashReporter.Format.SNAPSHOT, 2).report();
+
+		then(appender.list).hasSize(3);
+		then(metrics(appender.list.get(0)).size()).isEqualTo(2);
+		then(metrics(appender.list.get(2)).size()).isEqualTo(1);
+		then(metrics(appender.list.get(2)).get(0).get("name").asText()).isEqualTo("counter-4");
+	}
+
+	@Test
+	public void shouldSkipUnchangedMetricsBetweenKeyframes() {
+		registry.counter("idle").inc();
+		registry.counter("busy").inc();
+		LogstashReporter reporter = LogstashReporter.forRegistry(registry)
+				.outputTo(logger)
+				.skipUnchanged(true)
+				.withKeyframeInterval(3)
+				.build();
+
+		reporter.report();
+		registry.counter("busy").inc();
+		reporter.report();
+		reporter.report();
+		reporter.report();
+
+		then(appender.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly(
+				"COUNTER: type=COUNTER, name=busy, count=1",
+				"COUNTER: type=COUNTER, name=idle, count=1",
+				"COUNTER: type=COUNTER, name=busy, count=2",
+				"COUNTER: type=COUNTER, name=busy, count=2",
+				"COUNTER: type=COUNTER, name=idle, count=1");
+	}
+
+	@Test
+	public void shouldReportDeltasOfChangedMetrics() throws Exception {
+		registry.timer("/hello-world").update(1, TimeUnit.MILLISECONDS);
+		registry.timer("/idle").update(1, TimeUnit.MILLISECONDS);
+		LogstashReporter reporter = LogstashReporter.forRegistry(registry)
+				.outputTo(logger)
+				.withFormat(LogstashReporter.Format.SNAPSHOT)
+				.reportDeltas(true)
+				.build();
+
+		reporter.report();
+		registry.timer("/hello-world").update(1, TimeUnit.MILLISECONDS);
+		registry.timer("/hello-world").update(1, TimeUnit.MILLISECONDS);
+		reporter.report();
+
+		then(appender.list).hasSize(2);
+		then(metrics(appender.list.get(0)).size()).isEqualTo(2);
+		JsonNode deltas = metrics(appender.list.get(1));
+		then(deltas.size()).isEqualTo(1);
+		then(deltas.get(0).get("type").asText()).isEqualTo("DELTA");
+		then(deltas.get(0).get("metric_type").asText()).isEqualTo("TIMER");
+		then(deltas.get(0).get("name").asText()).isEqualTo("/hello-world");
+		then(deltas.get(0).get("count_delta").asLong()).isEqualTo(2);
+		then(deltas.get(0).get("interval_rate").asDouble()).isPositive();
+	}
+
+	@Test
+	public void shouldForgetRemovedMetrics() {
+		registry.counter("requests").inc();
+		LogstashReporter reporter = LogstashReporter.forRegistry(registry)
+				.outputTo(logger)
+				.reportDeltas(true)
+				.build();
+
+		reporter.report();
+		registry.remove("requests");
+		reporter.report();
+		registry.counter("requests").inc();
+		reporter.report();
+
+		then(appender.list).hasSize(2);
+		then(appender.list.get(0).getFormattedMessage()).isEqualTo("COUNTER: type=COUNTER, name=requests, count=1");
+		then(appender.list.get(1).getFormattedMessage()).startsWith("DELTA: type=DELTA, metric_type=COUNTER, name=requests, count_delta=1,");
+	}
+
+	private LogstashReporter reporter(LogstashReporter.Format format, int chunkSize) {
+		return LogstashReporter.forRegistry(registry)
+				.outputTo(logger)
+				.withFormat(format)
+				.withSnapshotChunkSize(chunkSize)
+				.build();
+	}
+
+	private JsonNode metrics(ILoggingEvent event) throws Exception {
+		StructuredArgument metrics = (StructuredArgument) event.getArgumentArray()[2];
+		// RawJsonAppendingMarker renders as metrics=<raw json>
+		return objectMapper.readTree(metrics.toString().substring("metrics=".length()));
+	}
+
+}
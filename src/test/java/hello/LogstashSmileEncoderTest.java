@@ -0,0 +1,178 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.util.FileSize;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static net.logstash.logback.argument.StructuredArguments.keyValue;
+import static net.logstash.logback.argument.StructuredArguments.raw;
+import static org.assertj.core.api.BDDAssertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link LogstashSmileEncoder} frames decode with {@link SmileLogDecoder} to the JSON of
+ * {@link LogstashEncoderWithStructuredArguments}, also while the active segment is appended.
+ */
+public class LogstashSmileEncoderTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final LoggerContext context = new LoggerContext();
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ILoggingEvent event = snapshotEvent(2);
+
+	@Test
+	public void shouldDecodeToTheFieldsOfTheJsonEncoder() throws Exception {
+		final byte[] json = encode(new LogstashEncoderWithStructuredArguments(), event);
+		final byte[] smile = encode(new LogstashSmileEncoder(), event);
+
+		final String decoded = decode(smile, smile.length);
+
+		then(smile.length).isLessThan(json.length);
+		then(mapper.readTree(decoded)).isEqualTo(mapper.readTree(json));
+		then(mapper.readTree(decoded).get("metrics").get(1).get("p999").asDouble()).isEqualTo(7.5);
+	}
+
+	@Test
+	public void shouldStopAtTruncatedFramesAndPadding() throws Exception {
+		final byte[] frame = encode(new LogstashSmileEncoder(), event);
+		final byte[] segment = Arrays.copyOf(frame, frame.length * 3);
+		System.arraycopy(frame, 0, segment, frame.length, frame.length);
+
+		then(decode(segment, frame.length * 2 - 1).split("\n")).hasSize(1);
+		then(decode(segment, segment.length).split("\n")).hasSize(2);
+	}
+
+	@Test
+	public void shouldWaitForTheBodyOfAFrameOfTheActiveSegment() throws Exception {
+		final byte[] frame = encode(new LogstashSmileEncoder(), event);
+		final byte[] segment = new byte[frame.length * 2];
+		System.arraycopy(frame, 0, segment, 0, frame.length);
+		// the length of the second frame is written, its body not yet
+		System.arraycopy(frame, 0, segment, frame.length, 4);
+		final Path path = folder.newFile().toPath();
+		Files.write(path, segment);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			then(new SmileLogDecoder(out).decodeAvailable(channel, 0, true)).isEqualTo(frame.length);
+			then(new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n", -1)).hasSize(2);
+			then(catchThrowable(() -> new SmileLogDecoder(new ByteArrayOutputStream()).decodeAvailable(channel, 0, false)))
+					.isInstanceOf(JsonProcessingException.class);
+		}
+	}
+
+	@Test
+	public void shouldDecodeTheActiveSegmentWhileItIsAppended() throws Exception {
+		final SegmentFileAppender<ILoggingEvent> appender = new SegmentFileAppender<>();
+		appender.setContext(context);
+		appender.setName("segments");
+		appender.setFileNamePattern(folder.getRoot() + "/log.%i.smile");
+		appender.setSegmentSize(FileSize.valueOf("256MB"));
+		appender.setPreallocate(true);
+		final LogstashSmileEncoder encoder = new LogstashSmileEncoder();
+		encoder.setContext(context);
+		encoder.start();
+		appender.setEncoder(encoder);
+		appender.start();
+		// large events take long enough to copy for the decoder to see their length before their body
+		final ILoggingEvent large = snapshotEvent(2000);
+		final int events = 200;
+		final Thread writer = new Thread(() -> {
+			for (int i = 0; i < events; i++) {
+				appender.doAppend(large);
+			}
+		});
+		writer.start();
+
+		final Path path = folder.getRoot().toPath().resolve("log.000001.smile");
+		final AtomicInteger lines = new AtomicInteger();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				for (int i = off; i < off + len; i++) {
+					if (b[i] == '\n') {
+						lines.incrementAndGet();
+					}
+				}
+				super.write(b, off, len);
+			}
+		};
+		final SmileLogDecoder decoder = new SmileLogDecoder(out);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		long position = 0;
+		while (lines.get() < events && System.nanoTime() < deadline) {
+			if (Files.exists(path)) {
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					position = decoder.decodeAvailable(channel, position, true);
+				}
+			}
+		}
+		writer.join();
+		appender.stop();
+
+		final String[] decoded = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+		then(decoded).hasSize(events);
+		then(mapper.readTree(decoded[events - 1])).isEqualTo(mapper.readTree(decoded[0]));
+	}
+
+	private byte[] encode(Encoder<ILoggingEvent> encoder, ILoggingEvent event) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.setContext(context);
+		encoder.start();
+		encoder.init(out);
+		encoder.doEncode(event);
+		encoder.close();
+		return out.toByteArray();
+	}
+
+	/* decodes the first bytes of a segment as the active one */
+	private String decode(byte[] segment, int length) throws IOException {
+		final Path path = folder.newFile().toPath();
+		Files.write(path, Arrays.copyOf(segment, length));
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			new SmileLogDecoder(out).decodeAvailable(channel, 0, true);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/* a SNAPSHOT of /hello-world, /hello-world/async and further routes */
+	private ILoggingEvent snapshotEvent(int size) {
+		final StringBuilder metrics = new StringBuilder("[{\"name\":\"/hello-world\",\"count\":12,\"p999\":499.1,\"duration_unit\":\"milliseconds\"},"
+				+ "{\"name\":\"/hello-world/async\",\"count\":3,\"p999\":7.5,\"duration_unit\":\"milliseconds\"}");
+		for (int i = 2; i < size; i++) {
+			metrics.append(",{\"name\":\"/route-").append(i).append("\",\"count\":").append(i).append(",\"p999\":").append(i / 10.0)
+					.append(",\"duration_unit\":\"milliseconds\"}");
+		}
+		metrics.append(']');
+		final LoggingEvent event = new LoggingEvent(LogstashReporter.class.getName(), context.getLogger("metrics"), Level.INFO,
+				"SNAPSHOT: {}, {}, {}", null, new Object[] {keyValue("type", "SNAPSHOT"), keyValue("size", size), raw("metrics", metrics.toString())});
+		event.getFormattedMessage();
+		return event;
+	}
+
+}
@@ -0,0 +1,224 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link MappedCountersReporter} mirrors the registry into the {@link MappedCounters} file and that
+ * readers in another mapping of the file never see a torn update.
+ */
+public class MappedCountersTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final AtomicInteger snapshots = new AtomicInteger();
+
+	@Test
+	public void shouldMirrorTheRegistry() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		registry.counter("requests").inc(3);
+		registry.meter("errors").mark(2);
+		registry.timer("/hello-world").update(12, TimeUnit.MILLISECONDS);
+		registry.register("queue", (Gauge<Integer>) () -> 7);
+		registry.register("name", (Gauge<String>) () -> "not a number");
+		final MappedCountersReporter reporter = MappedCountersReporter.forRegistry(registry).mirrorTo(path).build();
+
+		reporter.report();
+		registry.counter("requests").inc();
+		reporter.report();
+
+		try (MappedCounters counters = MappedCounters.open(path)) {
+			then(counters.records()).isEqualTo(4);
+			then(counters.durationUnit()).isEqualTo(TimeUnit.MILLISECONDS);
+			final long[] values = new long[MappedCounters.MAX_VALUES];
+			final List<String> metrics = new ArrayList<>();
+			for (int record = 0; record < counters.records(); record++) {
+				then(counters.read(record, values)).isTrue();
+				metrics.add(counters.type(record) + " " + counters.label(record) + " " + values[0]);
+			}
+			then(metrics).containsExactly("GAUGE queue " + Double.doubleToRawLongBits(7), "COUNTER requests 4", "METER errors 2",
+					"TIMER /hello-world 1");
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			MappedCounters.print(counters, "/hello", new PrintStream(out, true, "UTF-8"));
+			final String printed = new String(out.toByteArray(), StandardCharsets.UTF_8);
+			then(printed).contains("/hello-world TIMER count=1 min=12.0 max=12.0").doesNotContain("requests");
+		}
+		reporter.stop();
+	}
+
+	@Test
+	public void shouldSummarizeChangedTimersOncePerInterval() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		final Timer timer = registry.register("/hello-world", new Timer() {
+
+			@Override
+			public Snapshot getSnapshot() {
+				snapshots.incrementAndGet();
+				return super.getSnapshot();
+			}
+		});
+		timer.update(12, TimeUnit.MILLISECONDS);
+		final MappedCountersReporter reporter = MappedCountersReporter.forRegistry(registry).mirrorTo(path)
+				.summarizeEvery(1, TimeUnit.HOURS).build();
+
+		reporter.report();
+		timer.update(20, TimeUnit.MILLISECONDS);
+		reporter.report();
+
+		then(snapshots.get()).isEqualTo(1);
+		try (MappedCounters counters = MappedCounters.open(path)) {
+			final long[] values = new long[MappedCounters.MAX_VALUES];
+			then(counters.read(0, values)).isTrue();
+			then(values[0]).isEqualTo(2);
+			then(Double.longBitsToDouble(values[2])).isEqualTo(12.0);
+		}
+		reporter.stop();
+
+		final MappedCountersReporter everyReport = MappedCountersReporter.forRegistry(registry).mirrorTo(path)
+				.summarizeEvery(0, TimeUnit.SECONDS).build();
+		everyReport.report();
+		everyReport.report();
+		timer.update(5, TimeUnit.MILLISECONDS);
+		everyReport.report();
+		then(snapshots.get()).isEqualTo(3);
+		everyReport.stop();
+	}
+
+	@Test
+	public void shouldKeepLongLabelsApart() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		final String route = "/hello-world/" + String.join("", Collections.nCopies(30, "ä-long"));
+		registry.counter(route + "/a");
+		registry.counter(route + "/b");
+		final MappedCountersReporter reporter = MappedCountersReporter.forRegistry(registry).mirrorTo(path).build();
+
+		reporter.report();
+
+		try (MappedCounters counters = MappedCounters.open(path)) {
+			then(counters.records()).isEqualTo(2);
+			then(counters.label(0)).isNotEqualTo(counters.label(1)).startsWith("/hello-world/ä-long").contains("~");
+			then(counters.label(0).getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(MappedCounters.MAX_LABEL_LENGTH);
+		}
+		reporter.stop();
+	}
+
+	@Test
+	public void shouldNeverShowReadersATornUpdate() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		final MappedCounters writer = MappedCounters.create(path, 1, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+		final int record = writer.add("TIMER", "/hello-world");
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<String> torn = new AtomicReference<>();
+		final AtomicLong consistentReads = new AtomicLong();
+
+		final Thread writing = new Thread(() -> {
+			for (long update = 1; running.get(); update++) {
+				writer.begin(record);
+				for (int field = 0; field < MappedCounters.MAX_VALUES; field++) {
+					writer.putLong(record, field, update);
+				}
+				writer.end(record);
+			}
+		});
+		final List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			readers.add(new Thread(() -> {
+				try (MappedCounters reader = MappedCounters.open(path)) {
+					final long[] values = new long[MappedCounters.MAX_VALUES];
+					long last = 0;
+					while (running.get()) {
+						if (!reader.read(record, values)) {
+							continue;
+						}
+						for (int field = 1; field < values.length; field++) {
+							if (values[field] != values[0]) {
+								torn.set("update " + values[0] + " with " + values[field] + " at field " + field);
+							}
+						}
+						if (values[0] < last) {
+							torn.set("update " + values[0] + " after " + last);
+						}
+						last = values[0];
+						consistentReads.incrementAndGet();
+					}
+				} catch (Exception e) {
+					torn.set(e.toString());
+				}
+			}));
+		}
+
+		writing.start();
+		readers.forEach(Thread::start);
+		Thread.sleep(500);
+		running.set(false);
+		writing.join();
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		writer.close();
+
+		then(torn.get()).isNull();
+		then(consistentReads.get()).isGreaterThan(0);
+	}
+
+	@Test
+	public void shouldLetReadersGiveUpOnAnUnfinishedUpdate() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		final MappedCounters writer = MappedCounters.create(path, 1, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+		final int record = writer.add("COUNTER", "requests");
+		writer.begin(record);
+		writer.putLong(record, 0, 1);
+
+		try (MappedCounters reader = MappedCounters.open(path)) {
+			then(reader.read(record, new long[1])).isFalse();
+			writer.end(record);
+			final long[] values = new long[1];
+			then(reader.read(record, values)).isTrue();
+			then(values[0]).isEqualTo(1);
+		}
+		writer.close();
+	}
+
+	@Test
+	public void shouldNotMirrorMetricsBeyondTheCapacity() throws Exception {
+		final Path path = temporaryFolder.getRoot().toPath().resolve("metrics.counters");
+		registry.counter("a").inc();
+		registry.counter("b").inc();
+		registry.counter("c").inc();
+		final MappedCountersReporter reporter = MappedCountersReporter.forRegistry(registry).mirrorTo(path).withCapacity(2).build();
+
+		reporter.report();
+
+		try (MappedCounters counters = MappedCounters.open(path)) {
+			then(counters.records()).isEqualTo(2);
+			then(counters.label(0)).isEqualTo("a");
+			then(counters.label(1)).isEqualTo("b");
+		}
+		reporter.stop();
+	}
+
+}
@@ -0,0 +1,134 @@
+package hello;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests for the ring, downsampling and top-N queries of {@link MetricHistory}.
+ */
+public class MetricHistoryTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private long time = 1_000_000;
+
+	private final MetricHistory history = MetricHistory.forRegistry(registry)
+			.withCapacity(4)
+			.withMaxMetrics(4)
+			.withClock(new Clock() {
+				@Override
+				public long getTick() {
+					return TimeUnit.MILLISECONDS.toNanos(time);
+				}
+
+				@Override
+				public long getTime() {
+					return time;
+				}
+			})
+			.build();
+
+	@Test
+	public void shouldKeepTheLastCapacityReports() {
+		for (int i = 1; i <= 6; i++) {
+			registry.counter("requests").inc();
+			report();
+		}
+
+		final MetricHistory.Points points = history.query("requests", "count", 0, Long.MAX_VALUE, 0, MetricHistory.Aggregation.LAST);
+
+		then(points.size()).isEqualTo(4);
+		then(points.value(0)).isEqualTo(3);
+		then(points.value(3)).isEqualTo(6);
+		then(points.timestamp(3) - points.timestamp(0)).isEqualTo(15_000);
+	}
+
+	@Test
+	public void shouldDownsampleToOnePointPerStep() {
+		for (int i = 1; i <= 4; i++) {
+			registry.counter("requests").inc();
+			report();
+		}
+
+		final MetricHistory.Points points = history.query("requests", "count", 1_005_000, Long.MAX_VALUE, 10_000, MetricHistory.Aggregation.AVG);
+
+		then(points.size()).isEqualTo(2);
+		then(points.timestamp(0)).isEqualTo(1_005_000);
+		then(points.value(0)).isEqualTo(1.5);
+		then(points.timestamp(1)).isEqualTo(1_015_000);
+		then(points.value(1)).isEqualTo(3.5);
+	}
+
+	@Test
+	public void shouldRankMetricsByP99() {
+		registry.timer("/slow").update(900, TimeUnit.MILLISECONDS);
+		registry.timer("/fast").update(2, TimeUnit.MILLISECONDS);
+		registry.timer("/medium").update(40, TimeUnit.MILLISECONDS);
+		registry.counter("requests").inc();
+		report();
+
+		final List<Map.Entry<String, Double>> top = history.top("p99", 2, 0, Long.MAX_VALUE, MetricHistory.Aggregation.MAX);
+
+		then(top).extracting(Map.Entry::getKey).containsExactly("/slow", "/medium");
+		then(top.get(0).getValue()).isEqualTo(900.0);
+	}
+
+	@Test
+	public void shouldDropMetricsOnceTheyLeftTheRing() {
+		registry.counter("removed").inc();
+		report();
+		registry.remove("removed");
+		report();
+
+		then(history.query("removed", "count", 0, Long.MAX_VALUE, 0, MetricHistory.Aggregation.LAST).size()).isEqualTo(1);
+
+		report();
+		report();
+		report();
+
+		then(history.types()).doesNotContainKey("removed");
+	}
+
+	@Test
+	public void shouldRecordAtMostMaxMetrics() {
+		registry.counter("a").inc();
+		registry.counter("b").inc();
+		registry.counter("c").inc();
+		registry.counter("d").inc();
+		report();
+		registry.remove("a");
+		registry.counter("e").inc();
+		report();
+
+		then(history.types()).containsOnlyKeys("a", "b", "c", "d");
+
+		report();
+		report();
+		report();
+
+		then(history.types()).containsOnlyKeys("b", "c", "d");
+
+		report();
+
+		then(history.types()).containsOnlyKeys("b", "c", "d", "e");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTopOfNoMetrics() {
+		report();
+		history.top("p99", 0, 0, Long.MAX_VALUE, MetricHistory.Aggregation.MAX);
+	}
+
+	private void report() {
+		time += 5_000;
+		history.report();
+	}
+
+}
@@ -0,0 +1,85 @@
+package hello;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.HandlerMapping;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests that {@link ObservabilityFilter} sets up the same MDC keys, response header and timers as the
+ * separate filters.
+ */
+public class ObservabilityFilterTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final Map<String, String> mdc = new HashMap<>();
+
+	private ObservabilityFilter filter;
+
+	@Before
+	public void setUp() throws Exception {
+		filter = new ObservabilityFilter();
+		ReflectionTestUtils.setField(filter, "metricRegistry", registry);
+		ReflectionTestUtils.setField(filter, "maxRoutes", 100);
+		filter.init(new MockFilterConfig());
+	}
+
+	@Test
+	public void shouldSetUpMdcAndTimeRequest() throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hello-world/");
+		request.addHeader(RequestIdFilter.REQUEST_ID_HEADER, "upstream-42");
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+
+		new MockFilterChain(handler(false), filter).doFilter(request, response);
+
+		then(mdc).containsEntry("requestId", "upstream-42").containsEntry(PathFilter.PATH, "/hello-world/");
+		then(MDC.getCopyOfContextMap()).doesNotContainKeys("requestId", PathFilter.PATH);
+		then(response.getHeader(RequestIdFilter.REQUEST_ID_HEADER)).isEqualTo("upstream-42");
+		then(registry.timer("/hello-world").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldTimeAsyncRequestUntilCompletion() throws Exception {
+		final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/hello-world/async");
+		request.setAsyncSupported(true);
+		final MockHttpServletResponse response = new MockHttpServletResponse();
+
+		new MockFilterChain(handler(true), filter).doFilter(request, response);
+
+		then(registry.timer("/hello-world/async").getCount()).isZero();
+		((MockAsyncContext) request.getAsyncContext()).complete();
+		then(registry.timer("/hello-world/async").getCount()).isEqualTo(1);
+		then(mdc.get("requestId")).matches("[0-9a-f]{16}").isEqualTo(response.getHeader(RequestIdFilter.REQUEST_ID_HEADER));
+	}
+
+	private HttpServlet handler(boolean async) {
+		return new HttpServlet() {
+			@Override
+			protected void service(HttpServletRequest request, HttpServletResponse response) {
+				mdc.putAll(MDC.getCopyOfContextMap());
+				request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, request.getRequestURI());
+				if (async) {
+					request.startAsync();
+				}
+			}
+		};
+	}
+
+}
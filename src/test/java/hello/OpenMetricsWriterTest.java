@@ -0,0 +1,111 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests the OpenMetrics text and the names of {@link OpenMetricsWriter}.
+ */
+public class OpenMetricsWriterTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final OpenMetricsWriter writer = new OpenMetricsWriter(registry);
+
+	@Test
+	public void shouldWriteEveryTypeOfMetric() throws Exception {
+		registry.counter("requests").inc(3);
+		registry.meter("errors").mark(2);
+		registry.register("queue", (Gauge<Double>) () -> Double.NaN);
+		registry.register("name", (Gauge<String>) () -> "not a number");
+		registry.histogram("sizes").update(42);
+		registry.timer("/hello-world#hello").update(250, TimeUnit.MILLISECONDS);
+
+		final String text = write(null, null);
+
+		then(text).contains("# TYPE requests counter\nrequests_total 3\n")
+				.contains("# TYPE errors counter\nerrors_total 2\n")
+				.contains("# TYPE queue gauge\nqueue NaN\n")
+				.doesNotContain("name")
+				.contains("# TYPE sizes summary\nsizes{quantile=\"0.5\"} 42.0\nsizes{quantile=\"0.75\"} 42.0\n")
+				.contains("sizes{quantile=\"0.999\"} 42.0\nsizes_count 1\n")
+				.contains("# TYPE hello_world_hello_seconds summary\n# UNIT hello_world_hello_seconds seconds\n"
+						+ "hello_world_hello_seconds{quantile=\"0.5\"} 0.25\n")
+				.contains("hello_world_hello_seconds{quantile=\"0.999\"} 0.25\nhello_world_hello_seconds_count 1\n")
+				.endsWith("# EOF\n");
+		then(write(null, null)).isEqualTo(text);
+	}
+
+	@Test
+	public void shouldWriteTheMetricsOfTheNamesAndPrefixes() throws Exception {
+		registry.timer("/hello-world");
+		registry.timer("/hello-world/async");
+		registry.counter("requests");
+		registry.counter("requests.failed");
+
+		then(write(Collections.singletonList("requests"), Collections.singletonList("/hello-world/")))
+				.contains("hello_world_async_seconds").contains("requests_total")
+				.doesNotContain("hello_world_seconds ").doesNotContain("requests_failed");
+		then(write(null, Arrays.asList("/hello", "requests."))).doesNotContain("requests_total");
+		then(write(null, null)).contains("requests_failed_total").contains("hello_world_seconds");
+
+		final String overlapping = write(Arrays.asList("/hello-world", "requests"), Arrays.asList("/hello", "/hello-world"));
+		then(overlapping.split("# TYPE hello_world_seconds summary", -1)).hasSize(2);
+		then(overlapping.split("# TYPE hello_world_async_seconds summary", -1)).hasSize(2);
+		then(overlapping).contains("requests_total");
+	}
+
+	@Test
+	public void shouldGiveEveryMetricItsOwnName() throws Exception {
+		then(OpenMetricsWriter.sanitize("/hello-world#hello")).isEqualTo("hello_world_hello");
+		then(OpenMetricsWriter.sanitize("jvm.memory.heap.used")).isEqualTo("jvm_memory_heap_used");
+		then(OpenMetricsWriter.sanitize("5xx")).isEqualTo("_5xx");
+		then(OpenMetricsWriter.sanitize("/")).isEqualTo("_");
+
+		registry.counter("hello-world").inc();
+		registry.counter("hello.world").inc(2);
+
+		final String text = write(null, null);
+		then(text).contains("hello_world_total").contains("hello_world_2_total");
+		then(write(null, null)).isEqualTo(text);
+	}
+
+	@Test
+	public void shouldNotReuseTheNamesOfSamplesAndUnits() throws Exception {
+		registry.timer("foo").update(1, TimeUnit.SECONDS);
+		registry.register("foo_seconds", (Gauge<Integer>) () -> 1);
+		registry.counter("bar");
+		registry.register("bar_total", (Gauge<Integer>) () -> 2);
+
+		then(write(null, null)).contains("# TYPE foo_seconds summary\n").contains("# TYPE foo_seconds_2 gauge\nfoo_seconds_2 1.0\n")
+				.contains("# TYPE bar counter\nbar_total 0\n").contains("# TYPE bar_total_2 gauge\nbar_total_2 2.0\n");
+	}
+
+	@Test
+	public void shouldReleaseTheNamesOfRemovedMetrics() throws Exception {
+		registry.counter("hello-world").inc();
+		registry.counter("hello.world").inc(2);
+		registry.remove("hello-world");
+		registry.remove("hello.world");
+		registry.counter("hello.world").inc(3);
+
+		then(write(null, null)).isEqualTo("# TYPE hello_world counter\nhello_world_total 3\n# EOF\n");
+	}
+
+	private String write(List<String> names, List<String> prefixes) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(names, prefixes, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,83 @@
+package hello;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests for {@link RequestIdGenerator} and the validation of request ids from upstream.
+ */
+public class RequestIdGeneratorTest {
+
+	@Test
+	public void shouldGenerateUniqueIdsAcrossThreads() throws Exception {
+		final RequestIdGenerator generator = new RequestIdGenerator(7);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final List<Future<List<Long>>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(executor.submit((Callable<List<Long>>) () -> {
+				final List<Long> ids = new ArrayList<>();
+				for (int j = 0; j < 10 * RequestIdGenerator.BLOCK_SIZE; j++) {
+					ids.add(generator.nextId());
+				}
+				return ids;
+			}));
+		}
+		final Set<Long> ids = new HashSet<>();
+		for (Future<List<Long>> future : futures) {
+			ids.addAll(future.get());
+		}
+		executor.shutdown();
+
+		then(ids).hasSize(4 * 10 * RequestIdGenerator.BLOCK_SIZE);
+		for (long id : ids) {
+			then(id >>> 48).isEqualTo(7);
+		}
+	}
+
+	@Test
+	public void shouldTakeARandomNodeOnlyWithoutAConfiguredOne() {
+		then(RequestIdGenerator.forConfiguredNode(42).nextId() >>> 48).isEqualTo(42);
+		then(RequestIdGenerator.forConfiguredNode(-1).nextId() >>> 48).isBetween(0L, 0xffffL);
+	}
+
+	@Test
+	public void shouldNotReserveBlocksOnVirtualThreads() throws Exception {
+		Assume.assumeTrue(VirtualThreads.isSupported());
+		final RequestIdGenerator generator = new RequestIdGenerator(7);
+		final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("request-id-");
+		final long first = executor.submit(generator::nextId).get();
+		final long second = executor.submit(generator::nextId).get();
+		executor.shutdown();
+
+		then(second).isEqualTo(first + 1);
+	}
+
+	@Test
+	public void shouldFormatIdsAsSixteenHexDigits() {
+		final RequestIdGenerator generator = new RequestIdGenerator(0xabcd);
+
+		then(generator.format(0xabcd000000000012L)).isEqualTo("abcd000000000012");
+		then(generator.next()).startsWith("abcd").hasSize(16);
+	}
+
+	@Test
+	public void shouldOnlyAcceptPlainRequestIdsFromUpstream() {
+		then(RequestIdFilter.isValid("f81d4fae-7dec-11d0-a765-00a0c91e6bf6")).isTrue();
+		then(RequestIdFilter.isValid("trace:1.2_3")).isTrue();
+		then(RequestIdFilter.isValid("")).isFalse();
+		then(RequestIdFilter.isValid("id\nforged log line")).isFalse();
+		then(RequestIdFilter.isValid(new String(new char[65]).replace('\0', 'a'))).isFalse();
+	}
+
+}
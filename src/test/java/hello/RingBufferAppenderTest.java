@@ -0,0 +1,190 @@
+package hello;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests the overflow policies of {@link RingBufferAppender} with a stalled downstream appender, and how it
+ * stops the appenders it shares.
+ */
+public class RingBufferAppenderTest {
+
+	private final LoggerContext context = new LoggerContext();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	private final ListAppender<ILoggingEvent> delivered = new ListAppender<>();
+
+	private RingBufferAppender appender;
+
+	private Logger logger;
+
+	@Before
+	public void setUp() {
+		delivered.setContext(context);
+		delivered.start();
+		logger = context.getLogger("metrics");
+		logger.setLevel(Level.INFO);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		appender.stop();
+	}
+
+	@Test
+	public void shouldDeliverAllEventsInOrder() {
+		start(RingBufferAppender.OverflowPolicy.DROP_NEWEST, 1024);
+		release.countDown();
+		for (int i = 0; i < 1000; i++) {
+			logger.info("event {}", i);
+		}
+
+		appender.stop();
+
+		then(delivered.list).hasSize(1000);
+		then(delivered.list.get(999).getFormattedMessage()).isEqualTo("event 999");
+		then(appender.getDroppedCount()).isZero();
+	}
+
+	@Test
+	public void shouldDropNewestEventsWhenFull() throws Exception {
+		start(RingBufferAppender.OverflowPolicy.DROP_NEWEST, 4);
+		fillStalled(10);
+
+		release.countDown();
+		appender.stop();
+
+		// the stalled event plus a full ring, later events were dropped
+		then(delivered.list).extracting(ILoggingEvent::getFormattedMessage)
+				.containsExactly("event 0", "event 1", "event 2", "event 3", "event 4");
+		then(appender.getDroppedCount()).isEqualTo(5);
+	}
+
+	@Test
+	public void shouldDropOldestEventsWhenFull() throws Exception {
+		start(RingBufferAppender.OverflowPolicy.DROP_OLDEST, 4);
+		fillStalled(10);
+
+		release.countDown();
+		appender.stop();
+
+		then(delivered.list).extracting(ILoggingEvent::getFormattedMessage)
+				.containsExactly("event 0", "event 6", "event 7", "event 8", "event 9");
+		then(appender.getDroppedCount()).isEqualTo(5);
+	}
+
+	@Test
+	public void shouldBlockUntilTimeoutWhenFull() throws Exception {
+		start(RingBufferAppender.OverflowPolicy.BLOCK, 4);
+		appender.setBlockTimeoutMillis(50);
+		fillStalled(5);
+
+		long start = System.nanoTime();
+		logger.info("event 5");
+
+		then(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(50);
+		then(appender.getDroppedCount()).isEqualTo(1);
+		then(appender.getQueueDepth()).isEqualTo(4);
+	}
+
+	@Test
+	public void shouldStopSharedAppendersAfterTheLastRingBuffer() {
+		start(RingBufferAppender.OverflowPolicy.DROP_NEWEST, 1000);
+		release.countDown();
+		final RingBufferAppender other = new RingBufferAppender();
+		other.setContext(context);
+		other.setName("OTHER");
+		other.addAppender(delivered);
+		other.start();
+		appender.addAppender(delivered);
+
+		appender.stop();
+		other.doAppend(event("after the first stopped"));
+		other.stop();
+
+		then(appender.iteratorForAppenders().hasNext()).isFalse();
+		then(delivered.list).extracting(ILoggingEvent::getFormattedMessage).containsExactly("after the first stopped");
+		then(delivered.isStarted()).isFalse();
+	}
+
+	@Test
+	public void shouldLeaveTheAppendersToAWorkerStillDraining() throws Exception {
+		start(RingBufferAppender.OverflowPolicy.DROP_NEWEST, 4);
+		appender.setMaxFlushTimeMillis(10);
+		fillStalled(3);
+
+		appender.stop();
+
+		then(appender.iteratorForAppenders().next().isStarted()).isTrue();
+		release.countDown();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (delivered.list.size() < 3 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		then(delivered.list).hasSize(3);
+	}
+
+	@Test
+	public void shouldReportTheRoundedUpCapacity() {
+		start(RingBufferAppender.OverflowPolicy.DROP_NEWEST, 1000);
+
+		then(appender.getCapacity()).isEqualTo(1024);
+	}
+
+	private ILoggingEvent event(String message) {
+		return new LoggingEvent(RingBufferAppenderTest.class.getName(), logger, Level.INFO, message, null, null);
+	}
+
+	private void start(RingBufferAppender.OverflowPolicy policy, int capacity) {
+		AppenderBase<ILoggingEvent> stalling = new AppenderBase<ILoggingEvent>() {
+			@Override
+			protected void append(ILoggingEvent event) {
+				stalled.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.doAppend(event);
+			}
+		};
+		stalling.setContext(context);
+		stalling.start();
+		appender = new RingBufferAppender();
+		appender.setContext(context);
+		appender.setName("ASYNC");
+		appender.setCapacity(capacity);
+		appender.setOverflowPolicy(policy);
+		appender.setMaxFlushTimeMillis(5000);
+		appender.addAppender(stalling);
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	/* the worker takes the first event and stalls on it, the following ones queue up */
+	private void fillStalled(int events) throws InterruptedException {
+		logger.info("event 0");
+		stalled.await();
+		for (int i = 1; i < events; i++) {
+			logger.info("event {}", i);
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+package hello;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.util.FileSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests rolling, compression and history of {@link SegmentFileAppender} with and without preallocation.
+ */
+public class SegmentFileAppenderTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final LoggerContext context = new LoggerContext();
+
+	private SegmentFileAppender<ILoggingEvent> appender;
+
+	@Before
+	public void setUp() {
+		appender = new SegmentFileAppender<>();
+		appender.setContext(context);
+		appender.setName("segments");
+		appender.setFileNamePattern(folder.getRoot() + "/log.%i.json");
+		appender.setSegmentSize(FileSize.valueOf("1KB"));
+		appender.setMaxHistory(3);
+	}
+
+	@After
+	public void tearDown() {
+		appender.stop();
+	}
+
+	@Test
+	public void shouldRollAndCompressPreallocatedSegments() throws Exception {
+		appender.setPreallocate(true);
+		start();
+
+		log(0, 100);
+		appender.stop();
+
+		then(names()).containsExactly("log.000004.json.gz", "log.000005.json.gz", "log.000006.json.gz");
+		then(gunzip(segment("log.000004.json.gz"))).startsWith(line(57)).endsWith(line(75));
+		then(gunzip(segment("log.000006.json.gz"))).isEqualTo(line(95) + line(96) + line(97) + line(98) + line(99));
+	}
+
+	@Test
+	public void shouldRollAndCompressWrittenSegments() throws Exception {
+		appender.setPreallocate(false);
+		start();
+
+		log(0, 100);
+		appender.stop();
+
+		then(names()).containsExactly("log.000004.json.gz", "log.000005.json.gz", "log.000006.json.gz");
+		then(gunzip(segment("log.000006.json.gz"))).isEqualTo(line(95) + line(96) + line(97) + line(98) + line(99));
+	}
+
+	@Test
+	public void shouldWriteEventsOnFlush() throws Exception {
+		appender.setPreallocate(false);
+		appender.setImmediateFlush(false);
+		start();
+
+		log(0, 2);
+		then(Files.size(segment("log.000001.json"))).isZero();
+
+		appender.flush();
+		then(new String(Files.readAllBytes(segment("log.000001.json")), StandardCharsets.UTF_8)).isEqualTo(line(0) + line(1));
+	}
+
+	@Test
+	public void shouldCompressSegmentsLeftByAPreviousRun() throws Exception {
+		final byte[] leftover = new byte[1024];
+		final byte[] written = line(0).getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(written, 0, leftover, 0, written.length);
+		Files.write(segment("log.000007.json"), leftover);
+		appender.setPreallocate(true);
+		start();
+
+		log(1, 2);
+		appender.stop();
+
+		then(names()).containsExactly("log.000007.json.gz", "log.000008.json.gz");
+		then(gunzip(segment("log.000007.json.gz"))).isEqualTo(line(0));
+		then(gunzip(segment("log.000008.json.gz"))).isEqualTo(line(1));
+	}
+
+	private void start() {
+		final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern("%msg%n");
+		encoder.start();
+		appender.setEncoder(encoder);
+		appender.start();
+	}
+
+	/* 53 bytes per event, 19 events fit into a segment */
+	private void log(int from, int to) {
+		for (int i = from; i < to; i++) {
+			final String message = line(i);
+			appender.doAppend(new LoggingEvent("test", context.getLogger("test"), Level.INFO,
+					message.substring(0, message.length() - 1), null, null));
+		}
+	}
+
+	private static String line(int i) {
+		return String.format("event %05d 0123456789012345678901234567890123456789%n", i);
+	}
+
+	private Path segment(String name) {
+		return folder.getRoot().toPath().resolve(name);
+	}
+
+	private List<String> names() throws IOException {
+		final List<String> names = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(folder.getRoot().toPath())) {
+			for (Path path : paths) {
+				names.add(path.getFileName().toString());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	private static String gunzip(Path path) throws IOException {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package hello;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.BDDAssertions.catchThrowable;
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests the timing that {@link TimedAspect} weaves into the {@link Timed} methods of {@link TimedService}, which
+ * ajc compiles with the test sources.
+ */
+public class TimedAspectTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final TimedService service = new TimedService();
+
+	private final ServiceTimers serviceTimers = new ServiceTimers();
+
+	@Before
+	public void setUp() {
+		ReflectionTestUtils.setField(serviceTimers, "metricRegistry", registry);
+		ReflectionTestUtils.setField(serviceTimers, "maxRoutes", 100);
+		TimedAspect.aspectOf().setServiceTimers(serviceTimers);
+		MDC.put(PathFilter.PATH, "/hello-world");
+	}
+
+	@After
+	public void tearDown() {
+		TimedAspect.aspectOf().setServiceTimers(null);
+		MDC.clear();
+	}
+
+	@Test
+	public void shouldTimeCallsByPathAndMethodIncludingSelfInvocations() {
+		service.hello();
+		service.greet();
+
+		then(registry.timer("/hello-world#hello").getCount()).isEqualTo(2);
+		then(registry.timer("/hello-world#greet").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldTimeCallsOutsideOfRequestsWithoutAPath() {
+		MDC.remove(PathFilter.PATH);
+
+		service.hello();
+
+		then(registry.timer(ServiceTimers.NO_PATH + "#hello").getCount()).isEqualTo(1);
+		then(registry.getTimers()).doesNotContainKey("null#hello");
+	}
+
+	@Test
+	public void shouldReuseTheTimerOfAMethodAndPath() throws Exception {
+		final Method hello = TimedService.class.getMethod("hello");
+
+		final Timer timer = serviceTimers.timer(hello);
+
+		then(serviceTimers.timer(hello)).isSameAs(timer);
+		then(serviceTimers.forMethod(hello)).isSameAs(serviceTimers.forMethod(hello));
+		then(registry.getTimers().get("/hello-world#hello")).isSameAs(timer);
+	}
+
+	@Test
+	public void shouldTimeAsynchronousCallsOnCompletion() {
+		final CompletableFuture<String> result = service.helloAsync();
+
+		then(registry.timer("/hello-world#helloAsync").getCount()).isZero();
+		result.complete("hi ");
+		then(registry.timer("/hello-world#helloAsync").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldNotTimeCancelledCalls() {
+		final Throwable thrown = catchThrowable(service::cancelled);
+
+		then(thrown).isInstanceOf(CancellationException.class);
+		then(registry.timer("/hello-world#cancelled").getCount()).isZero();
+	}
+
+	@Test
+	public void shouldOnlyProceedWithoutTimers() {
+		TimedAspect.aspectOf().setServiceTimers(null);
+
+		then(service.hello()).isEqualTo("hi ");
+		then(registry.getTimers()).isEmpty();
+	}
+
+	static class TimedService {
+
+		final CompletableFuture<String> pending = new CompletableFuture<>();
+
+		@Timed
+		public String hello() {
+			return "hi ";
+		}
+
+		/* a call a Spring AOP proxy would not see */
+		@Timed
+		public String greet() {
+			return hello() + "there";
+		}
+
+		@Timed
+		public CompletableFuture<String> helloAsync() {
+			return pending;
+		}
+
+		@Timed
+		public String cancelled() {
+			throw new CancellationException("cancelled");
+		}
+
+	}
+
+}
@@ -0,0 +1,115 @@
+package hello;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.logstash.logback.argument.StructuredArgument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * Tests for the spans of {@link Tracing} and the sampling decisions of {@link TraceSampler}.
+ */
+public class TraceSamplerTest {
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final TraceSampler sampler = new TraceSampler();
+
+	private final Timer timer = registry.timer("/hello-world");
+
+	private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+	private final Logger logger = (Logger) LoggerFactory.getLogger("traces");
+
+	@Before
+	public void setUp() {
+		ReflectionTestUtils.setField(sampler, "metricRegistry", registry);
+		ReflectionTestUtils.setField(sampler, "thresholdMillis", 100L);
+		ReflectionTestUtils.setField(sampler, "p99MinSamples", 100L);
+		ReflectionTestUtils.setField(sampler, "p99RefreshMillis", 1000L);
+		ReflectionTestUtils.setField(sampler, "maxTracesPerSecond", 1000);
+		sampler.registerMetrics();
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	@After
+	public void tearDown() {
+		logger.detachAppender(appender);
+		Tracing.leave();
+	}
+
+	@Test
+	public void shouldLogSlowRequestWithItsSpans() throws Exception {
+		final long start = System.nanoTime();
+		final Tracing.Trace trace = sampler.start("/hello-world", "abc", start);
+		final int span = Tracing.begin("HelloWorldService.hello");
+		Tracing.end(span);
+		final Tracing.Scope scope = Tracing.capture();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.submit(() -> {
+			Tracing.attach(scope);
+			Tracing.end(Tracing.begin("HelloWorldService.helloAsync"));
+			Tracing.detach();
+		}).get();
+		executor.shutdown();
+		Tracing.leave();
+
+		sampler.finish(trace, "/hello-world", TimeUnit.MILLISECONDS.toNanos(150), timer);
+
+		then(appender.list).hasSize(1);
+		final Object[] arguments = appender.list.get(0).getArgumentArray();
+		then(arguments[0].toString()).isEqualTo("requestId=abc");
+		then(arguments[3].toString()).isEqualTo("reason=threshold");
+		final JsonNode spans = new ObjectMapper().readTree(((StructuredArgument) arguments[4]).toString().substring("spans=".length()));
+		then(spans).hasSize(3);
+		then(spans.get(0).get("name").asText()).isEqualTo("/hello-world");
+		then(spans.get(0).get("duration").asDouble()).isEqualTo(150.0);
+		then(spans.get(1).get("parent").asInt()).isEqualTo(0);
+		then(spans.get(2).get("name").asText()).isEqualTo("HelloWorldService.helloAsync");
+		then(spans.get(2).get("thread").asText()).isNotEqualTo(Thread.currentThread().getName());
+		then(registry.meter("traces.sampled").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldDiscardFastRequestsAndIgnoreStragglers() {
+		final Tracing.Trace trace = sampler.start("/hello-world", "abc", System.nanoTime());
+		final Tracing.Scope straggler = Tracing.capture();
+		Tracing.leave();
+
+		sampler.finish(trace, "/hello-world", TimeUnit.MILLISECONDS.toNanos(5), timer);
+		Tracing.attach(straggler);
+
+		then(Tracing.begin("HelloWorldService.hello")).isEqualTo(-1);
+		then(appender.list).isEmpty();
+		then(registry.meter("traces.discarded").getCount()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldSampleRequestsAboveTheRouteP99() {
+		for (int i = 1; i <= 100; i++) {
+			timer.update(i, TimeUnit.MILLISECONDS);
+		}
+
+		sampler.finish(sampler.start("/hello-world", "fast", System.nanoTime()), "/hello-world", TimeUnit.MILLISECONDS.toNanos(50), timer);
+		sampler.finish(sampler.start("/hello-world", "slow", System.nanoTime()), "/hello-world", TimeUnit.MILLISECONDS.toNanos(99) + 1, timer);
+
+		then(appender.list).hasSize(1);
+		then(appender.list.get(0).getArgumentArray()[3].toString()).isEqualTo("reason=p99");
+	}
+
+}
@@ -0,0 +1,4 @@
+#!/bin/bash
+# ships the JSON log segments to Elasticsearch without Logstash, see hello.LogShipper for the options
+java -Dloader.main=hello.LogShipper -cp target/gs-actuator-service-0.1.0.jar \
+    org.springframework.boot.loader.PropertiesLauncher --sink http://localhost:9200 "$@" '/tmp/log.%i.json'